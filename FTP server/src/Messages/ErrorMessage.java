@@ -12,6 +12,15 @@ public class ErrorMessage
     public static final int userlistIsNotFile         = 8;
     public static final int invalidPortNumber         = 9;
     public static final int incorrectUse              = 10;
+    public static final int invalidSessionExecutor    = 11;
+    public static final int invalidControlEngine      = 12;
+    public static final int invalidUploadDurability   = 13;
+    public static final int invalidTransferChecksum   = 14;
+    public static final int invalidMlstFacts          = 15;
+    public static final int unableToReadUserlist      = 16;
+    public static final int invalidStorage            = 17;
+    public static final int unableToLoadStorage       = 18;
+    public static final int missingBlobDirectory      = 19;
 
     private ErrorMessage() {}
 
@@ -26,7 +35,16 @@ public class ErrorMessage
         "The pathname of the \"rootdirectory\" parameter must reference a directory. Error in [*].\n",
         "The pathname of the \"userlistfile\" parameter must reference a file. Error in [*].\n",
         "Invalid \"controlconnectionport\" parameter number. Must be an integer between 0 and 65535. Error in [*].\n",
-        "Usage: java JFtpServer <configuration file>.\n"
+        "Usage: java JFtpServer <configuration file>.\n",
+        "The \"sessionexecutor\" parameter must be \"virtual\" or \"platform\". Error in [*].\n",
+        "The \"controlengine\" parameter must be \"blocking\" or \"nio\". Error in [*].\n",
+        "The \"uploaddurability\" parameter must be \"none\", \"fsync\" or \"groupcommit\". Error in [*].\n",
+        "The \"transferchecksum\" parameter must be \"none\", \"crc32\", \"md5\", \"sha-1\", \"sha-256\" or \"sha-512\". Error in [*].\n",
+        "The \"mlstfacts\" parameter must contain only \"type\", \"size\", \"modify\", \"perm\" and \"unique\", separated by \";\". Error in [*].\n",
+        "Unable to read the users file [*].\n",
+        "The \"storage\" parameter must contain only \"<directory>:disk\", \"<directory>:memory\" and \"<directory>:dedup\", separated by \";\". Error in [*].\n",
+        "Unable to prepare the storage directory [*] #*#.\n",
+        "The \"dedup\" directories of the \"storage\" parameter require the \"blobdirectory\" parameter. Error in [*].\n"
      };
 
     public static String create(int code, String... strings)
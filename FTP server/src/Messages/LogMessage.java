@@ -27,6 +27,15 @@ public class LogMessage
     public static final int unbaleToCreateDirectory     = 23;
     public static final int directoryCreated            = 24;
     public static final int configurationInfo           = 25;
+    public static final int sessionRejected             = 26;
+    public static final int virtualThreadsUnavailable   = 27;
+    public static final int eventLoopError              = 28;
+    public static final int userlistReloaded            = 29;
+    public static final int userlistReloadError         = 30;
+    public static final int clientBanned                = 31;
+    public static final int storageLoaded               = 32;
+    public static final int blobsSwept                  = 33;
+    public static final int commandError                = 34;
 
     private LogMessage() {}
 
@@ -48,9 +57,9 @@ public class LogMessage
         "   ├Client[*] PASS info #user logged in as \"*\"#.\n",
         "   ├Client[*](*) * error #unable to read \"*\" file#.\n",
         "   ├Client[*]](*) * error #unable to download \"*\" file#.\n",
-        "   ├Client[*](*) * info #\"*\" file downloaded#.\n",
+        "   ├Client[*](*) * info #\"*\" file downloaded, * bytes in *ms (* KB/s)#.\n",
         "   ├Client[*]](*) * error #unable to upload \"*\" file#.\n",
-        "   ├Client[*](*) * info #\"*\" file uploaded#.\n",
+        "   ├Client[*](*) * info #\"*\" file uploaded, * bytes in *ms (* KB/s)#.\n",
         "   ├Client[*](*) RNTO info #file renamed from: \"*\" to \"*\"#.\n",
         "   ├Client[*](*) * info #\"*\" * deleted#.\n",
         "   ├Client[*](*) * error #unable to delete \"*\" *#.\n",
@@ -58,7 +67,18 @@ public class LogMessage
         "   ├Client[*](*) MKD info #\"*\" directory created#.\n",
         "~\n [jftp server]\n   ├server ip             →  *\n   ├server port           →  *\n" +
         "   ├control timeout       →  *\n   ├data accept timeout   →  *\n" +
-        "   ├data receive timeout  →  *\n   ├user list file        →  *\n   └server root directory →  *\n\n [Server log]\n"
+        "   ├data receive timeout  →  *\n   ├user list file        →  *\n   ├server root directory →  *\n" +
+        "   ├session executor      →  *\n   ├max sessions          →  *\n   ├max sessions per ip   →  *\n" +
+        "   └control engine        →  *\n\n [Server log]\n",
+        "   ├Client[*] rejected #too many sessions#.\n",
+        "Virtual threads are not supported by this JVM #using a pool of platform threads#.\n",
+        "   ├Error with control connection #event loop stopped#.\n",
+        "   ├User list reloaded #* users#.\n",
+        "   ├Error while reloading the user list #the previous list is kept#.\n",
+        "   ├Client[*] banned #too many failed logins#.\n",
+        "Directory \"*\" loaded in memory #* files, * bytes#.\n",
+        "   ├Blob store swept #* unused blobs deleted#.\n",
+        "   ├Client[*] * error #unexpected error: *#.\n"
       };
 
     public static String create(int code, String... strings)
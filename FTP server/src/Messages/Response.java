@@ -28,6 +28,15 @@ public class Response
     public static final int systemInfo                 = 215;
     public static final int helpOK                     = 214;
     public static final int fileNameNotAllowed         = 553;
+    public static final int serviceNotAvailable        = 421;
+    public static final int featureList                = 211;
+    public static final int invalidRestartOffset       = 554;
+    public static final int parameterNotImplemented    = 504;
+    public static final int dataConnectionAlreadyOpen  = 125;
+    public static final int serverStatus               = 211;
+    public static final int transferStatus             = 213;
+    public static final int noTransferInProgress       = 225;
+    public static final int fileInformation            = 213;
 
     private Response() {}
 
@@ -61,9 +70,18 @@ public class Response
                    "     QUIT  PORT  PASV  STRU  MODE  RETR\r\n" +
                    "     STOR  STOU  APPE  RNFR  RNTO  DELE\r\n" +
                    "     LIST  MKD   PWD   SYST  HELP  NOOP\r\n" +
-                   "     NLST  RMD\r\n" +
+                   "     NLST  RMD   REST  FEAT  ABOR  STAT\r\n" +
+                   "     OPTS  HASH  XCRC  XMD5  XSHA256\r\n" +
+                   "     MLSD  MLST  SIZE  MDTM  SITE TREE\r\n" +
                    "214 HELP OK.");
           put(553, "553 * failed. File name not allowed.");
+          put(421, "421 *.");
+          put(211, "211-*\r\n*211 End.");
+          put(554, "554 * failed. Invalid REST parameter.");
+          put(504, "504 * failed. * not implemented.");
+          put(125, "125 * OK. Data connection already open; transfer starting.");
+          put(213, "213 *");
+          put(225, "225 * OK. *.");
       }};
 
     public static String create(int code, String... strings)
@@ -72,4 +90,14 @@ public class Response
         return new CreateMessage(array).createMessage(0, strings);
     }
 
+    /*
+        Method for creating a multi-line response which ends with "<code> End.".
+        Input:
+          1. the code of the response.
+          2. the text of the first line.
+          3. the other lines, each terminated by "\r\n".
+    */
+    public static String createMultiline(int code, String text, String lines)
+    { return code + "-" + text + "\r\n" + lines + code + " End."; }
+
 }
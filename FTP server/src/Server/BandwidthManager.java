@@ -0,0 +1,92 @@
+import java.net.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the bandwidth limits of the server, shared by all the sessions.
+    The limit of a user (set in the users file) is shared by all its sessions, the limit of an IP address
+    by all the sessions from that address. The global bandwidth is split among the users in proportion to their weights
+    (set in the users file), so a user can't take a larger share by opening more connections.
+*/
+public class BandwidthManager
+{
+    private final long                                          ipBandwidth; //0 = no limit
+    private final FairShareScheduler                            scheduler;   //null = no global limit
+    private final ConcurrentHashMap<String, TokenBucket>        userBuckets;
+    private final ConcurrentHashMap<String, FairShareUser>      fairShareUsers;
+    private final ConcurrentHashMap<InetAddress, SharedBucket>  ipBuckets;
+
+    /*
+        Input:
+          1. the global bandwidth in bytes per second (0 = no limit).
+          2. the bandwidth of each client IP address in bytes per second (0 = no limit).
+    */
+    public BandwidthManager(long globalBandwidth, long ipBandwidth)
+    {
+        this.ipBandwidth = ipBandwidth;
+        scheduler = (globalBandwidth > 0) ? new FairShareScheduler(globalBandwidth) : null;
+        userBuckets = new ConcurrentHashMap<String, TokenBucket>();
+        fairShareUsers = new ConcurrentHashMap<String, FairShareUser>();
+        ipBuckets = new ConcurrentHashMap<InetAddress, SharedBucket>();
+    }
+
+    /*
+        Method for obtaining the bandwidth limits of a logged in session.
+        Input:
+          1. the username.
+          2. the address of the client.
+          3. the bandwidth of the user in bytes per second (0 = no limit).
+          4. the weight of the user in the split of the global bandwidth.
+        Return value:
+          1. the limits of the session, null if there are none.
+        Every call which returns a non null value must be followed by a call to closeShaper() when the session logs out.
+    */
+    public TransferShaper openShaper(String username, InetAddress clientAddress, long userBandwidth, int weight)
+    {
+        TokenBucket userBucket = null, ipBucket = null;
+        FairShareUser fairShareUser = null;
+
+        if(userBandwidth > 0)
+          userBucket = userBuckets.compute(username, (name, bucket) ->
+            (bucket == null || bucket.getRate() != userBandwidth) ? new TokenBucket(userBandwidth) : bucket);
+
+        if(ipBandwidth > 0)
+          ipBucket = ipBuckets.compute(clientAddress, (address, sharedBucket) ->
+            {
+                if(sharedBucket == null)
+                  sharedBucket = new SharedBucket(new TokenBucket(ipBandwidth));
+
+                sharedBucket.sessions++;
+                return sharedBucket;
+            }).bucket;
+
+        if(scheduler != null)
+          fairShareUser = fairShareUsers.compute(username, (name, user) ->
+            (user == null || user.weight != weight) ? new FairShareUser(weight) : user);
+
+        if(userBucket == null && ipBucket == null && scheduler == null)
+          return null;
+
+        return new TransferShaper(userBucket, ipBucket, scheduler, fairShareUser);
+    }
+
+    /*
+        Method for releasing the limits obtained by openShaper().
+        Input:
+          1. the address of the client.
+    */
+    public void closeShaper(InetAddress clientAddress)
+    {
+        if(ipBandwidth > 0)
+          ipBuckets.computeIfPresent(clientAddress, (address, sharedBucket) -> (--sharedBucket.sessions == 0) ? null : sharedBucket);
+    }
+
+    //class for a bucket shared by the sessions of an IP address.
+    private static class SharedBucket
+    {
+        final TokenBucket bucket;
+        int               sessions; //guarded by the lock of the map entry
+
+        SharedBucket(TokenBucket bucket)
+        { this.bucket = bucket; }
+    }
+}
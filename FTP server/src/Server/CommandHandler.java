@@ -1,19 +1,28 @@
 import java.net.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
+import java.nio.file.attribute.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
 //Class containing methods for executing various FTP commands.
 public class CommandHandler
 {
+    private static final HashMap<String, FunctionPointer> commandsArray = initFunctionArray();
+    //extensions advertised by the FEAT command.
+    private static final String[] features = {"REST STREAM", "MODE B", "MODE Z", "XCRC", "XMD5", "XSHA256", "SIZE", "MDTM"};
+    //commands that open a data connection.
+    private static final Set<String> transferCommands = Set.of("RETR", "STOR", "STOU", "APPE", "LIST", "NLST", "MLSD");
+    //algorithms of the XCRC, XMD5 and XSHA256 commands.
+    private static final Map<String, String> checksumCommands = Map.of("XCRC", "CRC32", "XMD5", "MD5", "XSHA256", "SHA-256");
     private JFtpWorker serverData;
-    private HashMap<String, FunctionPointer> commandsArray;
+    private boolean    isDataConnectionReused; //true = the last data connection opened was the one kept open in "B" mode
 
     public CommandHandler(JFtpWorker serverData)
-    {
-        this.serverData = serverData;
-        initFunctionArray();
-    }
+    { this.serverData = serverData; }
 
     /*
         Method for executing commands received from the client.
@@ -23,14 +32,22 @@ public class CommandHandler
     public CommandOutput executeCommand()
     {
         FunctionPointer commandFunction;
+        CommandOutput commandOutput;
         String[] commandTokens = serverData.currentCommand.split(" ", 2);
 
         commandTokens[0] = commandTokens[0].toUpperCase();
 
         if((commandFunction = commandsArray.get(commandTokens[0])) == null)
-            return new CommandOutput(Response.create(Response.genericError, commandTokens[0], "Unrecognized command"));
+            commandOutput = new CommandOutput(Response.create(Response.genericError, commandTokens[0], "Unrecognized command"));
+
+        else
+            commandOutput = commandFunction.executeCommand(this, (commandTokens.length == 2) ? commandTokens[1] : null);
+
+        //the restart offset set by REST is used only by the next transfer command, even when it fails.
+        if(transferCommands.contains(commandTokens[0]) || commandTokens[0].equals("REIN"))
+          serverData.restartOffset = 0;
 
-        return commandFunction.executeCommand((commandTokens.length == 2) ? commandTokens[1] : null);
+        return commandOutput;
     }
 
     /*
@@ -64,7 +81,7 @@ public class CommandHandler
         if(!serverData.isUserLoggedIn)
             return new CommandOutput(Response.create(Response.notLoggedIn, "TYPE", "You need to login"));
 
-        serverData.transferDataType = transferDataType;
+        serverData.transferDataType = transferDataType.toUpperCase();
         return new CommandOutput(Response.create(Response.genericSuccess, "TYPE", "Switched to type " + transferDataType.toUpperCase()));
     }
 
@@ -74,12 +91,12 @@ public class CommandHandler
           1. the username sent by the client.
         Return values:
           1. an instance of the CommandOutput class will contain the response for the client and the log message
-        Reads from the users file and sets all user information from it.
+        Searches the user in the user directory and sets all user information from it.
     */
     private CommandOutput executeUSER(String username)
     {
         UserInformation userInfo;
-        File userRootDirectoryObj;
+        VirtualFileSystem fileSystem;
         String savedCurrentCommand;
 
         if(username == null)
@@ -88,44 +105,43 @@ public class CommandHandler
         savedCurrentCommand = serverData.currentCommand;
         serverData.currentCommand = "";
 
-        try
-        {
-            userInfo = Utils.getUserInformation(serverData.userlistFile, username);
-
-            if(userInfo.userNotFound)
-              return new CommandOutput(Response.create(Response.notLoggedIn, "USER", "User not found"));
-
-            userRootDirectoryObj = new File(serverData.serverRootDirectory + userInfo.rootDirectory);
+        if(serverData.userDirectory.isIncomplete(username))
+          return new CommandOutput(Response.create(Response.genericTmpError, "USER"), LogMessage.create(LogMessage.userlistFileIncomplete, serverData.userAddress, username));
 
-            if(!userRootDirectoryObj.exists() || userRootDirectoryObj.isFile())
-              return new CommandOutput
-                (
-                    Response.create(Response.genericTmpError, "USER"),
-                    LogMessage.create(LogMessage.userRootDirectoryError, serverData.userAddress, username)
-                );
-
-            serverData.isUserLoggedIn = false;
-            serverData.username = username;
-            serverData.userPassword = userInfo.password;
-            serverData.listPermission = userInfo.listPermission;
-            serverData.readPermission = userInfo.readPermission;
-            serverData.writePermission = userInfo.writePermission;
-            serverData.deletePermission = userInfo.deletePermission;
-            serverData.renamePermission = userInfo.renamePermission;
-            serverData.seeHidenFilePermission = userInfo.seeHidenFilePermission;
-            serverData.userRootDirectory = userInfo.rootDirectory;
-            serverData.userWorkingDirectory = userInfo.rootDirectory;
-
-            serverData.currentCommand = savedCurrentCommand;
-            return new CommandOutput(Response.create(Response.usernameFound), LogMessage.create(LogMessage.userFound, serverData.userAddress, username));
+        if((userInfo = serverData.userDirectory.get(username)) == null)
+          return failLogin(null, "USER", "User not found");
 
+        try
+        {
+            fileSystem = new LocalFileSystem(serverData.storageBackends.getStorageRoot(userInfo.rootDirectory), userInfo.rootDirectory, serverData.metadataCache);
         }
-        catch(FileNotFoundException excp)
-        { return new CommandOutput(Response.create(Response.genericTmpError, "USER"), LogMessage.create(LogMessage.userlistFileNotFound, serverData.userAddress)); }
         catch(IOException excp)
-        { return new CommandOutput(Response.create(Response.genericTmpError, "USER"), LogMessage.create(LogMessage.userlistReadError, serverData.userAddress)); }
-        catch(ArrayIndexOutOfBoundsException excp)
-        { return new CommandOutput(Response.create(Response.genericTmpError, "USER"), LogMessage.create(LogMessage.userlistFileIncomplete, serverData.userAddress, username)); }
+        {
+            return new CommandOutput
+              (
+                  Response.create(Response.genericTmpError, "USER"),
+                  LogMessage.create(LogMessage.userRootDirectoryError, serverData.userAddress, username)
+              );
+        }
+
+        serverData.isUserLoggedIn = false;
+        serverData.closeTransferShaper();
+        serverData.username = username;
+        serverData.userPassword = userInfo.password;
+        serverData.fileSystem = fileSystem;
+        serverData.listPermission = userInfo.hasPermission(UserInformation.LIST_PERMISSION);
+        serverData.readPermission = userInfo.hasPermission(UserInformation.READ_PERMISSION);
+        serverData.writePermission = userInfo.hasPermission(UserInformation.WRITE_PERMISSION);
+        serverData.deletePermission = userInfo.hasPermission(UserInformation.DELETE_PERMISSION);
+        serverData.renamePermission = userInfo.hasPermission(UserInformation.RENAME_PERMISSION);
+        serverData.seeHidenFilePermission = userInfo.hasPermission(UserInformation.HIDDEN_PERMISSION);
+        serverData.userRootDirectory = userInfo.rootDirectory;
+        serverData.userWorkingDirectory = userInfo.rootDirectory;
+        serverData.userBandwidth = userInfo.bandwidth;
+        serverData.userWeight = userInfo.weight;
+
+        serverData.currentCommand = savedCurrentCommand;
+        return new CommandOutput(Response.create(Response.usernameFound), LogMessage.create(LogMessage.userFound, serverData.userAddress, username));
     }
 
     /*
@@ -144,9 +160,41 @@ public class CommandHandler
           return new CommandOutput(Response.create(Response.wrongOrder, "PASS", "USER"));
 
         if((serverData.isUserLoggedIn = userPassword.equals(serverData.userPassword)))
-          return new CommandOutput(Response.create(Response.loggedIn), LogMessage.create(LogMessage.correctPassword, serverData.userAddress, serverData.username));
+        {
+            serverData.loginThrottle.recordSuccess(serverData.username);
+            serverData.openTransferShaper();
+            return new CommandOutput(Response.create(Response.loggedIn), LogMessage.create(LogMessage.correctPassword, serverData.userAddress, serverData.username));
+        }
+
+        return failLogin(serverData.username, "PASS", "Incorrect password");
+    }
+
+    /*
+        Method for a failed login: the failure is recorded by the login throttle and the response is delayed,
+        or the session is closed if the client has been banned.
+        Input:
+          1. the username, null if not found.
+          2. the command.
+          3. the cause of the failure.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput failLogin(String username, String command, String cause)
+    {
+        long delay = serverData.loginThrottle.recordFailure(serverData.controlConnection.getInetAddress(), username);
+
+        if(delay < 0)
+        {
+            serverData.isClosing = true;
+            return new CommandOutput
+              (
+                  Response.create(Response.serviceNotAvailable, "Too many failed logins, try again later"),
+                  LogMessage.create(LogMessage.clientBanned, serverData.userAddress)
+              );
+        }
 
-        return new CommandOutput(Response.create(Response.notLoggedIn, "PASS", "Incorrect password"));
+        serverData.responseDelay = delay;
+        return new CommandOutput(Response.create(Response.notLoggedIn, command, cause));
     }
 
     /*
@@ -159,7 +207,7 @@ public class CommandHandler
     */
     private CommandOutput changeDirectory(String pathname)
     {
-        File pathnameObj;
+        VirtualFile directory;
         String command = serverData.currentCommand.split(" ", 2)[0].toUpperCase();
 
         if(!serverData.isUserLoggedIn)
@@ -173,10 +221,10 @@ public class CommandHandler
             pathname = "..";
         }
 
-        pathname = Utils.getCorrectPath(serverData.userRootDirectory, serverData.userWorkingDirectory, pathname);
-        pathnameObj = new File(serverData.serverRootDirectory + pathname);
+        directory = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+        pathname = directory.getPathname();
 
-        if(!pathnameObj.exists() || pathnameObj.isFile())
+        if(!directory.isDirectory())
           return new CommandOutput(Response.create(Response.actionNotTaken, command, "Unable to move to the \"" + pathname + "\" directory"));
 
         serverData.userWorkingDirectory = pathname;
@@ -191,7 +239,12 @@ public class CommandHandler
     */
     private CommandOutput executeREIN(String parameters)
     {
+        serverData.closeBlockDataConnection();
+        serverData.closeTransferShaper();
         serverData.transferDataType = "A";
+        serverData.transferMode = "S";
+        serverData.hashAlgorithm = "SHA-256";
+        serverData.mlstFacts = serverData.supportedFacts;
         serverData.currentCommand = "";
         serverData.isUserLoggedIn = false;
         serverData.isServerModeSet = false;
@@ -217,6 +270,7 @@ public class CommandHandler
     private CommandOutput executePORT(String userIPPort)
     {
         String[] portTokens;
+        int[] portFields = new int[6];
 
         if(!serverData.isUserLoggedIn)
           return new CommandOutput(Response.create(Response.notLoggedIn, "PORT", "You need to login"));
@@ -226,16 +280,27 @@ public class CommandHandler
 
         portTokens = userIPPort.split(",");
 
+        if(portTokens.length != 6)
+          return new CommandOutput(Response.create(Response.unrecognizedParameter, "PORT"));
+
+        //h1,h2,h3,h4,p1,p2: each field is a number from 0 to 255.
         try
         {
-            serverData.ipToConnectTo = portTokens[0] + "." + portTokens[1] + "." + portTokens[2] + "." + portTokens[3];
-            serverData.portToConnectTo = Integer.parseInt(portTokens[4]) * 256 + Integer.parseInt(portTokens[5]);
-            serverData.isServerModeSet = true;
-            serverData.serverMode = false;
+            for(int i = 0; i < portFields.length; i++)
+            {
+                if((portFields[i] = Integer.parseInt(portTokens[i].trim())) < 0 || portFields[i] > 255)
+                  return new CommandOutput(Response.create(Response.unrecognizedParameter, "PORT"));
+            }
         }
-        catch(ArrayIndexOutOfBoundsException excp)
+        catch(NumberFormatException excp)
         { return new CommandOutput(Response.create(Response.unrecognizedParameter, "PORT")); }
 
+        serverData.ipToConnectTo = portFields[0] + "." + portFields[1] + "." + portFields[2] + "." + portFields[3];
+        serverData.portToConnectTo = portFields[4] * 256 + portFields[5];
+        serverData.closeBlockDataConnection();
+        serverData.isServerModeSet = true;
+        serverData.serverMode = false;
+
         return new CommandOutput(Response.create(Response.genericSuccess, "PORT", "Port " + serverData.portToConnectTo + " will be used"));
     }
 
@@ -247,6 +312,7 @@ public class CommandHandler
     */
     private CommandOutput executePASV(String parameters)
     {
+        ServerSocketChannel dataListener;
         String serverIpToSend;
         int generatedPort;
 
@@ -258,8 +324,13 @@ public class CommandHandler
             if(serverData.socketToListenTo != null && !serverData.socketToListenTo.isClosed())
               serverData.socketToListenTo.close();
 
-            serverData.socketToListenTo = new ServerSocket(0);
+            serverData.closeBlockDataConnection();
+
+            dataListener = ServerSocketChannel.open();
+            serverData.socketTuner.configureDataListener(dataListener);
+            serverData.socketToListenTo = dataListener.bind(new InetSocketAddress(0)).socket();
             serverData.socketToListenTo.setSoTimeout(serverData.dataAcceptTimeout);
+            serverData.passiveModeTime = System.nanoTime();
             generatedPort = serverData.socketToListenTo.getLocalPort();
             serverIpToSend = serverData.serverIp.replace('.', ',');
             serverData.isServerModeSet = true;
@@ -288,17 +359,304 @@ public class CommandHandler
 
     /*
         Method for MODE command: changes the file transfer mode.
-        This server supports stream mode only. Then it simply returns the response code to the client.
-        The parameter is superfluous and set to null. It's just there to fit into the FunctionPointer interface.
+        This server supports stream mode ("S"), block mode ("B"), in which the data connection is kept open between
+        the transfers, and deflate mode ("Z"), in which the data is compressed with zlib.
+        Input:
+          1. the transfer mode sent by the client.
         Return values:
           1. an instance of the CommandOutput class will contain the response for the client and the log message
     */
-    private CommandOutput executeMODE(String parameters)
+    private CommandOutput executeMODE(String transferMode)
     {
         if(!serverData.isUserLoggedIn)
           return new CommandOutput(Response.create(Response.notLoggedIn, "MODE", "You need to login"));
 
-        return new CommandOutput(Response.create(Response.genericSuccess, "MODE", "Mode changed to S"));
+        if(transferMode == null || !transferMode.matches("(?i)(S|B|C|Z)"))
+          return new CommandOutput(Response.create(Response.unrecognizedParameter, "MODE"));
+
+        if(transferMode.equalsIgnoreCase("C"))
+          return new CommandOutput(Response.create(Response.parameterNotImplemented, "MODE", "Mode C"));
+
+        if(!serverData.transferMode.equalsIgnoreCase(transferMode))
+          serverData.closeBlockDataConnection();
+
+        serverData.transferMode = transferMode.toUpperCase();
+        return new CommandOutput(Response.create(Response.genericSuccess, "MODE", "Mode changed to " + serverData.transferMode));
+    }
+
+    /*
+        Method for obtaining the channel used to send data on the data connection.
+        Input:
+          1. the data connection.
+        Return values:
+          1. the channel of the data connection in "S" mode, otherwise a channel which compresses the data in "Z" mode
+             and sends it in blocks in "B" mode.
+        The channels of the "B" and "Z" modes are created once for each session and opened again for each transfer,
+        so their buffers and the compressor are reused.
+    */
+    private WritableByteChannel getDataOutputChannel(Socket dataConnection) throws IOException
+    {
+        if(serverData.transferMode.equals("B"))
+        {
+            if(serverData.blockOutputStream == null)
+              serverData.blockOutputStream = new BlockOutputStream();
+
+            return serverData.blockOutputStream.open(dataConnection.getOutputStream());
+        }
+
+        if(!serverData.transferMode.equals("Z"))
+          return dataConnection.getChannel();
+
+        if(serverData.deflaterChannel == null)
+          serverData.deflaterChannel = new DeflaterChannel(serverData.compressionLevel);
+
+        return serverData.deflaterChannel.open(dataConnection.getOutputStream());
+    }
+
+    /*
+        Method for obtaining the channel used to receive data from the data connection.
+        Input:
+          1. the data connection.
+        Return values:
+          1. the channel of the data connection in "S" mode, otherwise a channel which decompresses the data in "Z" mode
+             and reads it from blocks in "B" mode.
+        The channels of the "B" and "Z" modes are created once for each session and opened again for each transfer,
+        so their buffers and the decompressor are reused.
+    */
+    private ReadableByteChannel getDataInputChannel(Socket dataConnection) throws IOException
+    {
+        if(serverData.transferMode.equals("B"))
+        {
+            if(serverData.blockInputStream == null)
+              serverData.blockInputStream = new BlockInputStream();
+
+            return serverData.blockInputStream.open(dataConnection.getInputStream());
+        }
+
+        if(!serverData.transferMode.equals("Z"))
+          return dataConnection.getChannel();
+
+        if(serverData.inflaterChannel == null)
+          serverData.inflaterChannel = new InflaterChannel();
+
+        return serverData.inflaterChannel.open(dataConnection.getInputStream());
+    }
+
+    /*
+        Method for REST command: sets the offset from which the next transfer starts (RFC 3659, stream mode).
+        Input:
+          1. the offset sent by the client.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+        The offset is a byte offset in the file, in the ascii types too, and it is used only by the next transfer command.
+    */
+    private CommandOutput executeREST(String offset)
+    {
+        if(!serverData.isUserLoggedIn)
+          return new CommandOutput(Response.create(Response.notLoggedIn, "REST", "You need to login"));
+
+        if(offset == null || !offset.matches("[0-9]{1,18}"))
+          return new CommandOutput(Response.create(Response.unrecognizedParameter, "REST"));
+
+        serverData.restartOffset = Long.parseLong(offset);
+        return new CommandOutput(Response.create(Response.waitMoreCommand, "REST " + serverData.restartOffset, "RETR, STOR or APPE"));
+    }
+
+    /*
+        Method for FEAT command: sends the list of the extensions supported by the FTP server to the client (RFC 2389).
+        The parameter is superfluous and set to null. It's just there to fit into the FunctionPointer interface.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput executeFEAT(String parameters)
+    {
+        String featureList = "";
+
+        for(String feature : features)
+          featureList += " " + feature + "\r\n";
+
+        featureList += " HASH ";
+
+        //the algorithm selected by OPTS HASH is marked with "*".
+        for(String algorithm : FileDigest.ALGORITHMS)
+          featureList += algorithm + ((algorithm.equals(serverData.hashAlgorithm)) ? "*" : "") + ";";
+
+        featureList = featureList.substring(0, featureList.length() - 1) + "\r\n MLST ";
+
+        //the facts selected by OPTS MLST are marked with "*".
+        for(String fact : serverData.supportedFacts)
+          featureList += fact + ((serverData.mlstFacts.contains(fact)) ? "*" : "") + ";";
+
+        featureList += "\r\n";
+
+        return new CommandOutput(Response.create(Response.featureList, "Features:", featureList));
+    }
+
+    /*
+        Method for opening the data connection, according to the mode set with the PORT or PASV command.
+        Return values:
+          1. the data connection, with the receive timeout set.
+        The data connection is always backed by a SocketChannel, so that files can be transferred with zero-copy.
+        The time taken to open it is used to estimate the round trip time of the data connections of the session:
+        in active mode it's the time of the TCP handshake, in passive mode it's the time since the PASV command,
+        which is longer than the round trip time, so the smallest measure is kept.
+        In "B" mode the data connection is kept open after the transfer, and reused until PORT, PASV, MODE or REIN.
+    */
+    private Socket openDataConnection() throws IOException
+    {
+        SocketChannel dataChannel;
+        Socket dataConnection;
+        long startTime = System.nanoTime();
+
+        if((isDataConnectionReused = serverData.blockDataConnection != null))
+          return serverData.blockDataConnection;
+
+        if(!serverData.serverMode)
+        {
+            dataChannel = SocketChannel.open();
+
+            //the address is built from the numeric fields checked by PORT, so no name is ever resolved.
+            try
+            {
+                serverData.socketTuner.configureDataChannel(dataChannel);
+                dataChannel.connect(new InetSocketAddress(getActiveModeAddress(), serverData.portToConnectTo));
+            }
+            catch(IOException excp)
+            {
+                dataChannel.close();
+                throw excp;
+            }
+            catch(IllegalArgumentException excp) //UnresolvedAddressException, or an invalid port
+            {
+                dataChannel.close();
+                throw new IOException(excp);
+            }
+
+            dataConnection = dataChannel.socket();
+        }
+        else
+        {
+            dataConnection = serverData.socketToListenTo.accept();
+            startTime = serverData.passiveModeTime;
+        }
+
+        if(serverData.roundTripTime == 0 || System.nanoTime() - startTime < serverData.roundTripTime)
+          serverData.roundTripTime = System.nanoTime() - startTime;
+
+        dataConnection.setSoTimeout(serverData.dataRcvTimeout);
+        serverData.socketTuner.configureDataConnection(dataConnection);
+
+        if(serverData.transferMode.equals("B"))
+        {
+            //the last block of a transfer is not followed by the closing of the data connection: it must be sent without waiting for the ACKs.
+            dataConnection.setTcpNoDelay(true);
+            serverData.blockDataConnection = dataConnection;
+        }
+
+        return dataConnection;
+    }
+
+    /*
+        Method for obtaining the address of the client in active mode.
+        Return values:
+          1. the address made of the four numeric fields of the last PORT command.
+    */
+    private InetAddress getActiveModeAddress() throws IOException
+    {
+        String[] addressTokens = serverData.ipToConnectTo.split("\\.");
+        byte[] address = new byte[4];
+
+        try
+        {
+            for(int i = 0; i < address.length; i++)
+              address[i] = (byte)Integer.parseInt(addressTokens[i]);
+        }
+        catch(NumberFormatException | ArrayIndexOutOfBoundsException excp)
+        { throw new UnknownHostException(serverData.ipToConnectTo); }
+
+        return InetAddress.getByAddress(address);
+    }
+
+    /*
+        Method for closing the data connection at the end of a successful transfer.
+        Input:
+          1. the data connection.
+        The data connection of the "B" mode stays open.
+    */
+    private void closeDataConnection(Socket dataConnection) throws IOException
+    {
+        if(dataConnection != serverData.blockDataConnection)
+          dataConnection.close();
+    }
+
+    /*
+        Method for closing the data connection after a failed transfer, also in "B" mode.
+        Input:
+          1. the data connection.
+    */
+    private void abortDataConnection(Socket dataConnection)
+    {
+        if(dataConnection == serverData.blockDataConnection)
+        {
+            serverData.closeBlockDataConnection();
+            return;
+        }
+
+        try
+        {
+            dataConnection.close();
+        }
+        catch(IOException excp)
+        { /* the transfer is aborted anyway */ }
+    }
+
+    /*
+        Method for creating the response sent before a transfer.
+        Input:
+          1. the name of the command.
+        Return values:
+          1. 125 if the data connection of the "B" mode is reused, 150 otherwise.
+    */
+    private String transferStartResponse(String command)
+    {
+        if(isDataConnectionReused)
+          return Response.create(Response.dataConnectionAlreadyOpen, command);
+
+        return Response.create(Response.openDataConnection, command);
+    }
+
+    /*
+        Method for creating the response sent after a successful transfer.
+        Input:
+          1. the name of the command.
+        Return values:
+          1. 250 if the data connection of the "B" mode stays open, 226 otherwise.
+    */
+    private String transferEndResponse(String command)
+    {
+        if(serverData.blockDataConnection != null)
+          return Response.create(Response.actionTaken, command, "Data connection kept open");
+
+        return Response.create(Response.transferSuccess, command);
+    }
+
+    /*
+        Method for starting a transfer in the background, after sending the response which precedes it.
+        Input:
+          1. the name of the command.
+          2. the pathname transferred.
+          3. the data connection.
+          4. the monitor of the transfer.
+          5. the transfer, which returns the response for the client and the log message.
+        Return values:
+          1. an instance of the CommandOutput class without response: the response is sent at the end of the transfer.
+    */
+    private CommandOutput startTransfer(String command, String pathname, Socket dataConnection, TransferMonitor monitor,
+                                        Supplier<CommandOutput> transferTask)
+    {
+        serverData.sendResponse(transferStartResponse(command));
+        serverData.startTransfer(new DataTransfer(serverData, command, pathname, dataConnection, monitor, transferTask));
+        return new CommandOutput(null);
     }
 
     /*
@@ -307,12 +665,19 @@ public class CommandHandler
           1. the file pathname sent by the client.
         Return values:
           1. an instance of the CommandOutput class will contain the response for the client and the log message
+        In binary types and "S" mode the file is sent with FileChannel.transferTo, so the kernel copies it directly to the data connection.
+        If the command follows a REST command, the file is sent from the restart offset.
+        If the "transferchecksum" parameter is set and the checksum of the whole file is not in the cache, the file is sent
+        through the transfer buffers instead, so that the checksum is computed while it's sent.
     */
     private CommandOutput executeRETR(String pathname)
     {
-        File pathnameObj;
+        VirtualFile file;
         Socket dataConnection;
+        TransferMonitor monitor;
+        FileDigest digest;
         String[] logParameters = {serverData.userAddress, serverData.username, "RETR", ""};
+        long restartOffset;
 
         if(!serverData.isUserLoggedIn)
           return new CommandOutput(Response.create(Response.notLoggedIn, "RETR", "You need to log in"));
@@ -326,21 +691,18 @@ public class CommandHandler
         if(!serverData.isServerModeSet)
           return new CommandOutput(Response.create(Response.unableToOpenDataConnection, "RETR", "Use PORT or PASV first"));
 
-        logParameters[3] = pathname = Utils.getCorrectPath(serverData.userRootDirectory, serverData.userWorkingDirectory, pathname);
-        pathnameObj = new File(serverData.serverRootDirectory + pathname);
+        file = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+        logParameters[3] = pathname = file.getPathname();
 
-        if(!pathnameObj.exists() || !pathnameObj.isFile())
+        if(!file.isFile())
           return new CommandOutput(Response.create(Response.actionNotTaken, "RETR", "Unable to read the file"));
 
+        if((restartOffset = serverData.restartOffset) > file.getAttributes().size())
+          return new CommandOutput(Response.create(Response.invalidRestartOffset, "RETR"));
+
         try
         {
-            if(!serverData.serverMode)
-              dataConnection = new Socket(serverData.ipToConnectTo, serverData.portToConnectTo);
-
-            else
-              dataConnection = serverData.socketToListenTo.accept();
-
-            dataConnection.setSoTimeout(serverData.dataRcvTimeout);
+            dataConnection = openDataConnection();
         }
         catch(IOException excp)
         {
@@ -351,17 +713,61 @@ public class CommandHandler
               );
         }
 
-        serverData.controlConnectionOutput.println(Response.create(Response.openDataConnection, "RETR"));
+        monitor = new TransferMonitor(serverData.transferShaper);
+        digest = (restartOffset == 0) ? createTransferDigest(file.getPath(), file.getAttributes()) : null;
+        serverData.socketTuner.adaptDataBuffers(monitor, dataConnection, true, serverData.roundTripTime);
+        return startTransfer
+          ("RETR", pathname, dataConnection, monitor, () -> sendFile(file, restartOffset, dataConnection, monitor, digest, logParameters));
+    }
 
+    /*
+        Method for sending a file, executed in the background by the RETR command.
+        Input:
+          1. the file, with its attributes before the transfer.
+          2. the position of the file from which to start.
+          3. the data connection.
+          4. the monitor of the transfer.
+          5. the digest of the file, null if no checksum is computed.
+          6. the parameters of the log messages.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput sendFile(VirtualFile file, long restartOffset, Socket dataConnection, TransferMonitor monitor, FileDigest digest,
+                                   String[] logParameters)
+    {
         try
         {
-            Utils.transferData(new FileInputStream(pathnameObj), dataConnection.getOutputStream(), serverData.transferDataType);
-            dataConnection.close();
+            if(Utils.isAsciiType(serverData.transferDataType) || !serverData.transferMode.equals("S") || digest != null)
+              Utils.transferData
+                (
+                    FileChannel.open(file.getPath()).position(restartOffset), getDataOutputChannel(dataConnection),
+                    serverData.transferDataType, AsciiConverter.NATIVE_TO_NETWORK, serverData.bufferPool, monitor, digest
+                );
+
+            else
+              Utils.transferFile(FileChannel.open(file.getPath()), restartOffset, dataConnection.getChannel(), monitor);
+
+            closeDataConnection(dataConnection);
         }
         catch(IOException excp)
-        { return new CommandOutput(Response.create(Response.transferAborted, "RETR"), LogMessage.create(LogMessage.unableToDownloadFile, logParameters)); }
+        {
+            abortDataConnection(dataConnection);
+            return new CommandOutput(Response.create(Response.transferAborted, "RETR"), LogMessage.create(LogMessage.unableToDownloadFile, logParameters));
+        }
+        finally
+        { monitor.stop(); }
 
-        return new CommandOutput(Response.create(Response.transferSuccess, "RETR"), LogMessage.create(LogMessage.fileDownloaded, logParameters));
+        cacheChecksum(file.getPath(), digest, file.getAttributes());
+
+        return new CommandOutput
+          (
+              transferEndResponse("RETR"),
+              LogMessage.create
+                (
+                    LogMessage.fileDownloaded, logParameters[0], logParameters[1], "RETR", logParameters[3],
+                    Long.toString(monitor.getBytes()), Long.toString(monitor.getElapsedTime()), Long.toString(monitor.getRate())
+                )
+          );
     }
 
     /*
@@ -371,14 +777,31 @@ public class CommandHandler
         Return values:
           1. an instance of the CommandOutput class will contain the response for the client and the log message
         Implements STOR, APPE and STOU command.
+        In binary types and "S" mode the data is written in large chunks from a direct buffer, without copying it in the java heap.
+        STOR and STOU write a hidden temporary file in the same directory, which replaces the file atomically at the end of
+        the upload, so the clients never see a partial file. APPE and the commands which follow a REST command
+        write in place, since they extend the data already present: the file is truncated at the restart offset
+        (or at its end for APPE) once the data connection is open, and the data is written from there.
+        If the data connection can't be opened, the file created by the command (the name reserved by STOU, or the new
+        file written in place) is deleted, so a failed command leaves the directory unchanged.
+        If the "transferchecksum" parameter is set, the checksum of the files written from the start is computed while they're received.
+        The uploads to a temporary file in the "dedup" directories compute the SHA-256 checksum instead, and are committed
+        by the blob store; a file linked to a blob is copied out of it before being written in place.
     */
     private CommandOutput storeFile(String pathname)
     {
-        File pathnameObj, parentPathnameObj;
+        VirtualFile file;
         Socket dataConnection;
+        FileChannel fileChannel;
+        TransferMonitor monitor;
+        FileDigest digest;
+        BlobStore blobStore = serverData.storageBackends.getBlobStore(serverData.userRootDirectory), dedupStore;
+        Path filePath, uploadPath, targetPath;
         String command = serverData.currentCommand.split(" ", 2)[0].toUpperCase();
         String[] logParameters = {serverData.userAddress, serverData.username, command, ""};
         boolean isAppendEnable = command.equals("APPE");
+        boolean isInPlace = isAppendEnable || serverData.restartOffset > 0, isCreated = false;
+        long startPosition;
         int counter = 0;
 
         if(!serverData.isUserLoggedIn)
@@ -393,95 +816,404 @@ public class CommandHandler
         if(!serverData.isServerModeSet)
           return new CommandOutput(Response.create(Response.unableToOpenDataConnection, command, "Use PORT or PASV first"));
 
-        logParameters[3] = pathname = Utils.getCorrectPath(serverData.userRootDirectory, serverData.userWorkingDirectory, pathname);
-        pathnameObj = new File(serverData.serverRootDirectory + pathname);
-        parentPathnameObj = new File(pathnameObj.getParent());
+        file = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+        logParameters[3] = pathname = file.getPathname();
+
+        if(file.isDenied())
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "Permission denied"));
+
+        filePath = file.getPath();
 
-        parentPathnameObj.mkdirs();
+        if(!file.exists() && !Files.isDirectory(filePath.getParent()))
+          createDirectories(filePath.getParent());
 
-        if(pathnameObj.exists() && !pathnameObj.isFile() && !command.equals("STOU"))
+        if(file.exists() && !file.isFile() && !command.equals("STOU"))
             return new CommandOutput(Response.create(Response.actionNotTaken, command, "Cannot overwrite a directory"));
 
         try
         {
-            if(command.equals("STOU"))
+            if(command.equals("STOU") && file.exists())
             {
-                while(pathnameObj.exists())
-                  pathnameObj = new File(parentPathnameObj, pathnameObj.getName() + "(" + (counter++) + ")");
+                do
+                  filePath = filePath.resolveSibling(filePath.getFileName() + "(" + (counter++) + ")");
+                while(Files.exists(filePath, LinkOption.NOFOLLOW_LINKS));
             }
 
-            pathnameObj.createNewFile();
+            //STOU reserves the unique name until the upload replaces it.
+            if((isInPlace && !file.exists()) || command.equals("STOU"))
+            {
+                Files.createFile(filePath);
+                isCreated = true;
+            }
         }
         catch(IOException excp)
-        { return new CommandOutput(Response.create(Response.tmpActionNotTaken, command, "Unable to create \"" + pathnameObj.getName() + "\" file")); }
+        { return new CommandOutput(Response.create(Response.tmpActionNotTaken, command, "Unable to create \"" + filePath.getFileName() + "\" file")); }
 
-        pathname = pathnameObj.toString();
-        logParameters[3] = pathname;
+        pathname = Paths.get(pathname).resolveSibling(filePath.getFileName().toString()).toString();
+        logParameters[3] = filePath.toString();
+        targetPath = (isInPlace) ? null : filePath;
+        uploadPath = (isInPlace) ? filePath :
+          filePath.resolveSibling("." + filePath.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
 
         try
         {
-            if(!serverData.serverMode)
-              dataConnection = new Socket(serverData.ipToConnectTo, serverData.portToConnectTo);
+            if(isInPlace && blobStore != null)
+              blobStore.detach(uploadPath);
 
-            else
-              dataConnection = serverData.socketToListenTo.accept();
+            fileChannel = FileChannel.open(uploadPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+            if(serverData.restartOffset > fileChannel.size())
+            {
+                discardUpload(fileChannel, uploadPath, targetPath, (isCreated) ? filePath : null);
+                return new CommandOutput(Response.create(Response.invalidRestartOffset, command));
+            }
 
-            dataConnection.setSoTimeout(serverData.dataRcvTimeout);
+            startPosition = (isAppendEnable && serverData.restartOffset == 0) ? fileChannel.size() : serverData.restartOffset;
         }
         catch(IOException excp)
         {
-            return new CommandOutput
-              (
-                  Response.create(Response.unableToOpenDataConnection, command, "Can't open data connection"),
-                  LogMessage.create(LogMessage.unableToUploadFile, logParameters)
-              );
-        }
+            if(isCreated)
+              discardFile(filePath);
 
-        serverData.controlConnectionOutput.println(Response.create(Response.openDataConnection, command));
+            return new CommandOutput(Response.create(Response.tmpActionNotTaken, command, "Unable to open \"" + filePath.getFileName() + "\" file"));
+        }
 
         try
         {
-            Utils.transferData(dataConnection.getInputStream(), new FileOutputStream(pathnameObj, isAppendEnable), serverData.transferDataType);
-            dataConnection.close();
+            dataConnection = openDataConnection();
         }
         catch(IOException excp)
-        { return new CommandOutput(Response.create(Response.transferAborted, command), LogMessage.create(LogMessage.unableToUploadFile, logParameters)); }
+        {
+            discardUpload(fileChannel, uploadPath, targetPath, (isCreated) ? filePath : null);
+            return new CommandOutput
+              (
+                  Response.create(Response.unableToOpenDataConnection, command, "Can't open data connection"),
+                  LogMessage.create(LogMessage.unableToUploadFile, logParameters)
+              );
+        }
 
-        return new CommandOutput(Response.create(Response.transferSuccess, command), LogMessage.create(LogMessage.fileUploaded, logParameters));
+        monitor = new TransferMonitor(serverData.transferShaper);
+        monitor.closeOnTimeout(dataConnection, serverData.dataRcvTimeout);
+        dedupStore = (!isInPlace && serverData.storageBackends.isDeduplicated(pathname)) ? blobStore : null;
+        digest = (dedupStore != null) ? new FileDigest(BlobStore.ALGORITHM) : (startPosition == 0) ? createTransferDigest(null, null) : null;
+        serverData.socketTuner.adaptDataBuffers(monitor, dataConnection, false, serverData.roundTripTime);
+        return startTransfer
+          (
+              command, pathname, dataConnection, monitor,
+              () -> receiveFile(fileChannel, startPosition, uploadPath, targetPath, dataConnection, monitor, digest, dedupStore, logParameters)
+          );
     }
 
     /*
-        Method from RNFR command: allows the client to select the file to rename.
+        Method for receiving a file, executed in the background by the STOR, APPE and STOU commands.
         Input:
-          1. the pathname of the file to rename sent by the client.
+          1. the file, which is closed at the end of the transfer.
+          2. the position of the file from which to write.
+          3. the pathname of the file.
+          4. the final pathname of the file, null if the file is written in place.
+          5. the data connection.
+          6. the monitor of the transfer.
+          7. the digest of the file, null if no checksum is computed.
+          8. the blob store which deduplicates the file, null if the file is not deduplicated.
+          9. the parameters of the log messages.
         Return values:
           1. an instance of the CommandOutput class will contain the response for the client and the log message
+        The success response is sent after the file has been committed according to the durability policy.
+        A failed upload of STOU also deletes the file reserving its name, which is still empty.
     */
-    private CommandOutput executeRNFR(String pathname)
+    private CommandOutput receiveFile(FileChannel fileChannel, long startPosition, Path uploadPath, Path targetPath, Socket dataConnection,
+                                      TransferMonitor monitor, FileDigest digest, BlobStore dedupStore, String[] logParameters)
     {
-        File pathnameObj;
-        String savedCurrentCommand;
+        try
+        {
+            fileChannel.truncate(startPosition);
 
-        savedCurrentCommand = serverData.currentCommand;
-        serverData.currentCommand = "";
+            if(Utils.isAsciiType(serverData.transferDataType) || !serverData.transferMode.equals("S"))
+              Utils.transferData
+                (
+                    getDataInputChannel(dataConnection), fileChannel.position(startPosition),
+                    serverData.transferDataType, AsciiConverter.NETWORK_TO_NATIVE, serverData.bufferPool, monitor, digest
+                );
 
-        if(!serverData.isUserLoggedIn)
-          return new CommandOutput(Response.create(Response.notLoggedIn, "RNFR", "You need to log in"));
+            else
+              Utils.receiveFile(dataConnection.getChannel(), fileChannel, startPosition, serverData.bufferPool, monitor, digest);
 
-        if(pathname == null)
-          return new CommandOutput(Response.create(Response.unrecognizedParameter, "RNFR"));
+            closeDataConnection(dataConnection);
+        }
+        catch(IOException excp)
+        {
+            abortDataConnection(dataConnection);
+            discardUpload(fileChannel, uploadPath, targetPath, (logParameters[2].equals("STOU")) ? targetPath : null);
+            return new CommandOutput(Response.create(Response.transferAborted, logParameters[2]), LogMessage.create(LogMessage.unableToUploadFile, logParameters));
+        }
+        finally
+        { monitor.stop(); }
 
-        if(!serverData.renamePermission)
-          return new CommandOutput(Response.create(Response.actionNotTaken, "RNFR", "Permission denied"));
+        try
+        {
+            if(dedupStore != null)
+              dedupStore.commit(uploadPath, targetPath, digest, serverData.uploadCommitter);
+
+            else
+              serverData.uploadCommitter.commit(uploadPath, targetPath);
+        }
+        catch(IOException excp)
+        {
+            discardUpload(fileChannel, uploadPath, targetPath, (logParameters[2].equals("STOU")) ? targetPath : null);
+            return new CommandOutput
+              (
+                  Response.create(Response.tmpActionNotTaken, logParameters[2], "Unable to save the file"),
+                  LogMessage.create(LogMessage.unableToUploadFile, logParameters)
+              );
+        }
+
+        cacheChecksum((targetPath != null) ? targetPath : uploadPath, digest, null);
+        invalidateCaches((targetPath != null) ? targetPath : uploadPath);
+
+        return new CommandOutput
+          (
+              transferEndResponse(logParameters[2]),
+              LogMessage.create
+                (
+                    LogMessage.fileUploaded, logParameters[0], logParameters[1], logParameters[2], logParameters[3],
+                    Long.toString(monitor.getBytes()), Long.toString(monitor.getElapsedTime()), Long.toString(monitor.getRate())
+                )
+          );
+    }
+
+    /*
+        Method for discarding a failed upload: the file is closed and, if it's a temporary file, deleted.
+        Input:
+          1. the file.
+          2. the pathname of the file.
+          3. the final pathname of the file, null if the file is written in place.
+          4. the file created empty by the command, deleted too, null if none.
+    */
+    private void discardUpload(FileChannel fileChannel, Path uploadPath, Path targetPath, Path createdPath)
+    {
+        try
+        {
+            fileChannel.close();
+
+            if(targetPath != null)
+              Files.deleteIfExists(uploadPath);
+        }
+        catch(IOException excp)
+        { /* the upload fails anyway */ }
+
+        if(createdPath != null)
+          discardFile(createdPath);
+    }
+
+    //Method for deleting a file created by a failed upload.
+    private void discardFile(Path file)
+    {
+        try
+        {
+            Files.deleteIfExists(file);
+        }
+        catch(IOException excp)
+        { /* the upload fails anyway */ }
+    }
+
+    /*
+        Method for creating the digest computed by a transfer, according to the "transferchecksum" parameter.
+        Input:
+          1. the pathname of the file to send, null for the uploads.
+          2. the attributes of the file to send, null for the uploads.
+        Return values:
+          1. the digest, null if no checksum is computed or if the checksum of the file to send is already in the cache.
+    */
+    private FileDigest createTransferDigest(Path file, BasicFileAttributes attributes)
+    {
+        if(serverData.transferChecksum.equals("NONE") || (file != null && serverData.checksumCache.get(file, attributes, serverData.transferChecksum) != null))
+          return null;
+
+        return new FileDigest(serverData.transferChecksum);
+    }
+
+    /*
+        Method for adding the checksum computed by a transfer to the cache.
+        Input:
+          1. the pathname of the file.
+          2. the digest of the file, null if no checksum has been computed.
+          3. the attributes of the file before the transfer, null for the uploads.
+        The checksum is added only if it covers the whole file and, for the downloads, if the file hasn't changed during the transfer.
+    */
+    private void cacheChecksum(Path file, FileDigest digest, BasicFileAttributes startAttributes)
+    {
+        BasicFileAttributes attributes;
+
+        if(digest == null)
+          return;
+
+        try
+        {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        }
+        catch(IOException excp)
+        { return; }
+
+        if(attributes.size() != digest.getSize())
+          return;
+
+        if(startAttributes != null && !attributes.lastModifiedTime().equals(startAttributes.lastModifiedTime()))
+          return;
+
+        serverData.checksumCache.put(file, attributes, digest.getAlgorithm(), digest.getValue());
+    }
+
+    /*
+        Method for obtaining the checksum of a file: from the cache if present, otherwise the file is read and the checksum added to the cache.
+        Input:
+          1. the command.
+          2. the name of the algorithm.
+          3. the pathname sent by the client.
+          4. the method creating the response from the pathname of the file, its size and its checksum.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput computeChecksum(String command, String algorithm, String pathname, ChecksumResponse checksumResponse)
+    {
+        VirtualFile file;
+        BasicFileAttributes attributes;
+        FileDigest digest;
+        String checksum;
+
+        if(!serverData.isUserLoggedIn)
+          return new CommandOutput(Response.create(Response.notLoggedIn, command, "You need to log in"));
+
+        if(pathname == null)
+          return new CommandOutput(Response.create(Response.unrecognizedParameter, command));
+
+        if(!serverData.readPermission)
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "Permission denied"));
+
+        file = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+
+        if(!file.isFile())
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "Unable to read the file"));
+
+        attributes = file.getAttributes();
+
+        try
+        {
+            if((checksum = serverData.checksumCache.get(file.getPath(), attributes, algorithm)) == null)
+            {
+                digest = Utils.digestFile(FileChannel.open(file.getPath()), algorithm, serverData.bufferPool);
+                checksum = digest.getValue();
+                cacheChecksum(file.getPath(), digest, attributes);
+            }
+        }
+        catch(IOException excp)
+        { return new CommandOutput(Response.create(Response.actionNotTaken, command, "Unable to read the file")); }
 
-        pathname = Utils.getCorrectPath(serverData.userRootDirectory, serverData.userWorkingDirectory, pathname);
-        pathnameObj = new File(serverData.serverRootDirectory + pathname);
+        return new CommandOutput(checksumResponse.create(pathname, attributes.size(), checksum));
+    }
+
+    /*
+        Method for HASH command (draft-ietf-ftpext2-hash): sends the checksum of a file, computed with the algorithm selected by OPTS HASH.
+        Input:
+          1. the file pathname sent by the client.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput executeHASH(String pathname)
+    {
+        String algorithm = serverData.hashAlgorithm;
 
-        if(!pathnameObj.exists() || !pathnameObj.isFile())
+        return computeChecksum("HASH", algorithm, pathname, (filename, size, checksum) ->
+          Response.create(Response.fileInformation, algorithm + " 0-" + size + " " + checksum + " " + filename));
+    }
+
+    /*
+        Method for XCRC, XMD5 and XSHA256 commands: sends the checksum of a file, computed with the algorithm of the command.
+        Input:
+          1. the file pathname sent by the client.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+        The checksum of a part of the file is not supported: the parameter is the pathname only.
+    */
+    private CommandOutput executeChecksumCommand(String pathname)
+    {
+        String command = serverData.currentCommand.split(" ", 2)[0].toUpperCase();
+
+        return computeChecksum(command, checksumCommands.get(command), pathname, (filename, size, checksum) ->
+          Response.create(Response.actionTaken, command, checksum));
+    }
+
+    /*
+        Method for OPTS command (RFC 2389): sets the options of a command. Only the HASH and MLST commands have options:
+        "OPTS HASH" sends the selected algorithm, "OPTS HASH <algorithm>" selects it,
+        "OPTS MLST <fact>;<fact>;..." selects the facts of the MLST and MLSD lines (RFC 3659), ignoring the unsupported ones.
+        Input:
+          1. the command name and its options sent by the client.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput executeOPTS(String parameters)
+    {
+        String[] optionTokens;
+        String algorithm;
+        List<String> selectedFacts;
+
+        if(parameters == null)
+          return new CommandOutput(Response.create(Response.unrecognizedParameter, "OPTS"));
+
+        optionTokens = parameters.split(" ", 2);
+
+        if(optionTokens[0].equalsIgnoreCase("MLST"))
+        {
+            selectedFacts = (optionTokens.length == 2) ? Arrays.asList(optionTokens[1].trim().toLowerCase().split(";")) : List.of();
+            serverData.mlstFacts = serverData.supportedFacts.stream().filter(selectedFacts::contains).toList();
+            return new CommandOutput(Response.create(Response.genericSuccess, "OPTS MLST", String.join(";", serverData.mlstFacts)));
+        }
+
+        if(!optionTokens[0].equalsIgnoreCase("HASH"))
+          return new CommandOutput(Response.create(Response.unrecognizedParameter, "OPTS"));
+
+        if(optionTokens.length == 2)
+        {
+            if(!FileDigest.ALGORITHMS.contains(algorithm = optionTokens[1].trim().toUpperCase()))
+              return new CommandOutput(Response.create(Response.parameterNotImplemented, "OPTS HASH", algorithm));
+
+            serverData.hashAlgorithm = algorithm;
+        }
+
+        return new CommandOutput(Response.create(Response.genericSuccess, "OPTS HASH", serverData.hashAlgorithm));
+    }
+
+    /*
+        Method from RNFR command: allows the client to select the file to rename.
+        Input:
+          1. the pathname of the file to rename sent by the client.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput executeRNFR(String pathname)
+    {
+        VirtualFile file;
+        String savedCurrentCommand;
+
+        savedCurrentCommand = serverData.currentCommand;
+        serverData.currentCommand = "";
+
+        if(!serverData.isUserLoggedIn)
+          return new CommandOutput(Response.create(Response.notLoggedIn, "RNFR", "You need to log in"));
+
+        if(pathname == null)
+          return new CommandOutput(Response.create(Response.unrecognizedParameter, "RNFR"));
+
+        if(!serverData.renamePermission)
+          return new CommandOutput(Response.create(Response.actionNotTaken, "RNFR", "Permission denied"));
+
+        file = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+
+        if(!file.isFile())
           return new CommandOutput(Response.create(Response.actionNotTaken, "RNFR", "Unable to find the specified file"));
 
         serverData.currentCommand = savedCurrentCommand;
-        serverData.fileToRename = pathname;
+        serverData.fileToRename = file;
         return new CommandOutput(Response.create(Response.waitMoreCommand, "RNFR", "RNTO"));
     }
 
@@ -494,8 +1226,7 @@ public class CommandHandler
     */
     private CommandOutput executeRNTO(String newFilename)
     {
-        File fileToRenameObj;
-        File newFilenameObj;
+        VirtualFile fileToRename, newFile;
         String[] logParameters = {serverData.userAddress, serverData.username, "", ""};
 
         if(newFilename == null)
@@ -507,10 +1238,24 @@ public class CommandHandler
         if(newFilename.contains("/"))
           return new CommandOutput(Response.create(Response.fileNameNotAllowed, "RNTO"));
 
-        fileToRenameObj = new File(serverData.serverRootDirectory + serverData.fileToRename);
-        newFilenameObj = new File(serverData.serverRootDirectory + Paths.get(serverData.fileToRename).getParent().toString() + '/' + newFilename);
-        fileToRenameObj.renameTo(newFilenameObj);
-        logParameters[2] = fileToRenameObj.toString(); logParameters[3] = newFilenameObj.toString();
+        fileToRename = serverData.fileToRename;
+        newFile = serverData.fileSystem.resolve(fileToRename.getParentPathname(), newFilename);
+
+        if(newFile.isDenied())
+          return new CommandOutput(Response.create(Response.actionNotTaken, "RNTO", "Permission denied"));
+
+        try
+        {
+            Files.move(fileToRename.getEntryPath(), newFile.getEntryPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException excp)
+        { return new CommandOutput(Response.create(Response.actionNotTaken, "RNTO", "Unable to rename the file")); }
+
+        LinkTimes.rename(fileToRename.getEntryPath(), newFile.getEntryPath());
+        invalidateCaches(fileToRename.getEntryPath());
+        invalidateCaches(newFile.getEntryPath());
+        serverData.fileSystem.invalidate(fileToRename);
+        logParameters[2] = fileToRename.getEntryPath().toString(); logParameters[3] = newFile.getEntryPath().toString();
         return new CommandOutput(Response.create(Response.actionTaken, "RNTO", "File renamed"), LogMessage.create(LogMessage.fileRenamed, logParameters));
     }
 
@@ -524,7 +1269,7 @@ public class CommandHandler
     */
     private CommandOutput removeFile(String pathname)
     {
-        File pathnameObj;
+        VirtualFile file;
         String command = serverData.currentCommand.split(" ", 2)[0].toUpperCase();
         String type = ((command.equals("DELE")) ? "file" : "directory");
         String[] logParameters = {serverData.userAddress, serverData.username, command, "", type};
@@ -538,21 +1283,29 @@ public class CommandHandler
         if(!serverData.deletePermission)
           return new CommandOutput(Response.create(Response.actionNotTaken, command, "Permission denied"));
 
-        logParameters[3] = pathname = Utils.getCorrectPath(serverData.userRootDirectory, serverData.userWorkingDirectory, pathname);
-        pathnameObj = new File(serverData.serverRootDirectory + pathname);
+        file = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+        logParameters[3] = pathname = file.getPathname();
 
-        if(!pathnameObj.exists() || (command.equals("DELE") && !pathnameObj.isFile()) || (command.equals("RMD") && pathnameObj.isFile()))
+        if(!file.exists() || (command.equals("DELE") && !file.isFile()) || (command.equals("RMD") && file.isFile()))
           return new CommandOutput(Response.create(Response.actionNotTaken, command, "Unable to find the specified " + type));
 
-        if(!pathname.equals(serverData.userRootDirectory) && pathnameObj.delete())
-          return new CommandOutput
-            (
-                Response.create(Response.actionTaken, command, pathname + " " + type + " deleted"),
-                LogMessage.create(LogMessage.fileDeleted, logParameters)
-            );
+        if(pathname.equals(serverData.userRootDirectory))
+          return new CommandOutput(Response.create(Response.tmpActionNotTaken, command, "Unable to delete the specified " + type));
 
-        return new CommandOutput(Response.create(Response.tmpActionNotTaken, command, "Unable to delete the specified " + type));
+        try
+        {
+            Files.delete(file.getEntryPath());
+        }
+        catch(IOException excp)
+        { return new CommandOutput(Response.create(Response.tmpActionNotTaken, command, "Unable to delete the specified " + type)); }
 
+        invalidateCaches(file.getEntryPath());
+        serverData.fileSystem.invalidate(file);
+        return new CommandOutput
+          (
+              Response.create(Response.actionTaken, command, pathname + " " + type + " deleted"),
+              LogMessage.create(LogMessage.fileDeleted, logParameters)
+          );
     }
 
     /*
@@ -561,19 +1314,38 @@ public class CommandHandler
           1. the pathname of the directory sent by the client.
         Return values:
           1. an instance of the CommandOutput class will contain the response for the client and the log message
-        Implements the NLST and LIST commands.
+        Implements the NLST, LIST and MLSD commands. MLSD lists only directories.
+        LIST and NLST accept "ls" options before the pathname: "-R" lists the directory recursively, the others are ignored.
+        The directory is read while the list is sent, so the memory used doesn't depend on the number of files.
+        The lists of the directories are cached: a cached list is sent without reading the directory.
     */
     private CommandOutput listFile(String pathname)
     {
-        File pathnameObj;
+        VirtualFile file;
+        Path directoryPath;
         Socket dataConnection;
-        String[] filenameArray;
-        String fileInfo = "", command = serverData.currentCommand.split(" ", 2)[0].toUpperCase();
+        TransferMonitor monitor;
+        DirectoryStream<Path> directoryStream;
+        ByteBuffer cachedListing;
+        long listingVersion;
+        boolean isDirectory, isHiddenVisible = serverData.seeHidenFilePermission;
+        String[] options;
+        String command = serverData.currentCommand.split(" ", 2)[0].toUpperCase();
+        String listingFormat = getListingFormat(command);
 
         if(!serverData.isUserLoggedIn)
           return new CommandOutput(Response.create(Response.notLoggedIn, command, "You need to log in"));
 
-        if(pathname == null)
+        if(pathname != null && pathname.startsWith("-") && !command.equals("MLSD"))
+        {
+            options = pathname.split(" ", 2);
+            pathname = (options.length == 2) ? options[1].trim() : null;
+
+            if(options[0].contains("R") && command.equals("LIST"))
+              return listTree(command, pathname);
+        }
+
+        if(pathname == null || pathname.isEmpty())
           pathname = ".";
 
         if(!serverData.listPermission)
@@ -582,52 +1354,408 @@ public class CommandHandler
         if(!serverData.isServerModeSet)
           return new CommandOutput(Response.create(Response.unableToOpenDataConnection, command, "Use PORT or PASV first"));
 
-        pathname = Utils.getCorrectPath(serverData.userRootDirectory, serverData.userWorkingDirectory, pathname);
-        pathnameObj = new File(serverData.serverRootDirectory + pathname);
+        file = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+        pathname = file.getPathname();
 
-        if(!pathnameObj.exists())
+        if(!file.exists())
           return new CommandOutput(Response.create(Response.actionNotTaken, command, "Directory not found"));
 
+        //a file is listed alone, as its directory entry, and its list is not cached.
+        isDirectory = file.isDirectory();
+        directoryPath = (isDirectory) ? file.getPath() : file.getEntryPath();
+
+        if(!isDirectory && command.equals("MLSD"))
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "Not a directory"));
+
+        cachedListing = (isDirectory) ? serverData.listingCache.get(directoryPath, listingFormat, isHiddenVisible) : null;
+        listingVersion = (isDirectory && cachedListing == null) ? serverData.listingCache.startListing(directoryPath) : -1;
+
         try
         {
-            if(!serverData.serverMode)
-                dataConnection = new Socket(serverData.ipToConnectTo, serverData.portToConnectTo);
+            directoryStream = (isDirectory && cachedListing == null) ? Files.newDirectoryStream(directoryPath) : null;
+        }
+        catch(IOException excp)
+        {
+            serverData.listingCache.endListing(directoryPath, listingVersion, listingFormat, isHiddenVisible, null);
+            return new CommandOutput(Response.create(Response.genericTmpError, command));
+        }
 
-            else
-                dataConnection = serverData.socketToListenTo.accept();
+        try
+        {
+            dataConnection = openDataConnection();
+        }
+        catch(IOException excp)
+        {
+            closeDirectoryStream(directoryStream);
+            serverData.listingCache.endListing(directoryPath, listingVersion, listingFormat, isHiddenVisible, null);
+            return new CommandOutput(Response.create(Response.unableToOpenDataConnection, command, "Can't open data connection"));
+        }
 
-            dataConnection.setSoTimeout(serverData.dataRcvTimeout);
+        monitor = new TransferMonitor();
+
+        if(cachedListing != null)
+          return startTransfer(command, pathname, dataConnection, monitor, () -> sendCachedFileList(command, cachedListing, dataConnection, monitor));
+
+        return startTransfer
+          (
+              command, pathname, dataConnection, monitor,
+              () -> sendFileList(command, directoryPath, directoryStream, listingVersion, isHiddenVisible, dataConnection, monitor)
+          );
+    }
+
+    /*
+        Method for the recursive lists: sends the list of a directory and of all the directories under it.
+        Input:
+          1. the command: "LIST" for LIST -R, "SITE TREE".
+          2. the pathname of the directory sent by the client, null for the working directory.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+        LIST -R writes the LIST lines of each directory after a header with its path, as "ls -lR".
+        SITE TREE writes the MLSD lines of all the entries, each named by its path under the directory.
+        The hidden files and directories are listed, and entered, only with the permission to see them.
+    */
+    private CommandOutput listTree(String command, String pathname)
+    {
+        VirtualFile directory;
+        Path directoryPath;
+        Socket dataConnection;
+        TransferMonitor monitor;
+        TreeListing treeListing;
+        String displayName = (pathname == null || pathname.isEmpty()) ? "." : pathname;
+        boolean isTree = command.equals("SITE TREE");
+
+        if(!serverData.isUserLoggedIn)
+          return new CommandOutput(Response.create(Response.notLoggedIn, command, "You need to log in"));
+
+        if(!serverData.listPermission)
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "Permission denied"));
+
+        if(!serverData.isServerModeSet)
+          return new CommandOutput(Response.create(Response.unableToOpenDataConnection, command, "Use PORT or PASV first"));
+
+        directory = serverData.fileSystem.resolve(serverData.userWorkingDirectory, displayName);
+        pathname = directory.getPathname();
+
+        if(!directory.isDirectory())
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "Directory not found"));
+
+        directoryPath = directory.getPath();
+
+        treeListing = new TreeListing
+          (
+              serverData.listingPool, 4 * serverData.listingPool.getParallelism(), serverData.bufferPool,
+              (isTree) ? "MLSD" : "LIST", serverData.seeHidenFilePermission, isTree
+          );
+        treeListing.setFacts(serverData.mlstFacts, getFactPermissions(false), getFactPermissions(true));
+
+        try
+        {
+            dataConnection = openDataConnection();
         }
         catch(IOException excp)
         { return new CommandOutput(Response.create(Response.unableToOpenDataConnection, command, "Can't open data connection")); }
 
-        if(pathnameObj.isFile())
+        monitor = new TransferMonitor();
+        return startTransfer(command, pathname, dataConnection, monitor, () ->
+          {
+              WritableByteChannel dataChannel;
+
+              try
+              {
+                  dataChannel = getDataOutputChannel(dataConnection);
+                  treeListing.write(directoryPath, (isTree) ? "" : displayName, dataChannel, monitor);
+                  dataChannel.close(); //ends the "B" and "Z" streams before the data connection is closed
+                  closeDataConnection(dataConnection);
+              }
+              catch(IOException excp)
+              {
+                  abortDataConnection(dataConnection);
+                  return new CommandOutput(Response.create(Response.transferAborted, command));
+              }
+              finally
+              { monitor.stop(); }
+
+              return new CommandOutput(transferEndResponse(command));
+          });
+    }
+
+    /*
+        Method for SITE command: executes the commands specific to this server. Only SITE TREE is implemented.
+        Input:
+          1. the command and its parameters sent by the client.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput executeSITE(String parameters)
+    {
+        String[] siteTokens = (parameters != null) ? parameters.split(" ", 2) : new String[] {""};
+
+        if(!siteTokens[0].equalsIgnoreCase("TREE"))
+          return superfluousCommand(parameters);
+
+        return listTree("SITE TREE", (siteTokens.length == 2) ? siteTokens[1].trim() : null);
+    }
+
+    /*
+        Method for sending a file list, executed in the background by the LIST, NLST and MLSD commands.
+        Input:
+          1. the name of the command.
+          2. the pathname of the directory, or of the file listed.
+          3. the entries of the directory, which are closed at the end, null if a file is listed.
+          4. the version of the directory returned by the listing cache, -1 if the list is not cached.
+          5. true if the hidden files are listed.
+          6. the data connection.
+          7. the monitor of the transfer.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput sendFileList(String command, Path directoryPath, DirectoryStream<Path> directoryStream, long listingVersion,
+                                       boolean isHiddenVisible, Socket dataConnection, TransferMonitor monitor)
+    {
+        byte[] listing = null;
+
+        try(ListingWriter listingWriter = new ListingWriter(getDataOutputChannel(dataConnection), serverData.bufferPool, monitor, command))
         {
-            filenameArray = new String[1];
-            filenameArray[0] = "";
+            if(command.equals("MLSD"))
+              listingWriter.setFacts(serverData.mlstFacts, getFactPermissions(false), getFactPermissions(true));
+
+            if(listingVersion >= 0)
+              listingWriter.keepCopy(serverData.listingCache.getMaxListingSize());
+
+            if(directoryStream == null)
+              listingWriter.writeEntry(directoryPath);
+
+            else
+              for(Path entry : directoryStream)
+              {
+                  if(!isHiddenVisible && entry.getFileName().toString().charAt(0) == '.')
+                    continue;
+
+                  listingWriter.writeEntry(entry);
+              }
+
+            listingWriter.finish();
+            listing = listingWriter.getCopy();
+            closeDataConnection(dataConnection);
+        }
+        catch(IOException | DirectoryIteratorException excp)
+        {
+            abortDataConnection(dataConnection);
+            return new CommandOutput(Response.create(Response.transferAborted, command));
         }
-        else if((filenameArray = pathnameObj.list()) == null)
-        { return new CommandOutput(Response.create(Response.genericTmpError, command)); }
+        finally
+        {
+            closeDirectoryStream(directoryStream);
+            serverData.listingCache.endListing(directoryPath, listingVersion, getListingFormat(command), isHiddenVisible, listing);
+            monitor.stop();
+        }
+
+        return new CommandOutput(transferEndResponse(command));
+    }
 
-        serverData.controlConnectionOutput.println(Response.create(Response.openDataConnection, command));
+    /*
+        Method for sending a cached file list, executed in the background by the LIST, NLST and MLSD commands.
+        Input:
+          1. the name of the command.
+          2. the list.
+          3. the data connection.
+          4. the monitor of the transfer.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput sendCachedFileList(String command, ByteBuffer listing, Socket dataConnection, TransferMonitor monitor)
+    {
+        WritableByteChannel dataChannel;
 
         try
         {
-            for(String fileName : filenameArray)
-            {
-                if(!serverData.seeHidenFilePermission && fileName.charAt(0) == '.')
-                  continue;
+            dataChannel = getDataOutputChannel(dataConnection);
+            monitor.addBytes(listing.remaining());
 
-                fileInfo += Utils.getFileAttributes(serverData.serverRootDirectory + pathname + '/' + fileName, command);
-            }
+            while(listing.hasRemaining())
+              dataChannel.write(listing);
 
-            Utils.transferData(new ByteArrayInputStream(fileInfo.getBytes()), dataConnection.getOutputStream(), "A");
-            dataConnection.close();
+            dataChannel.close(); //ends the "B" and "Z" streams before the data connection is closed
+            closeDataConnection(dataConnection);
+        }
+        catch(IOException excp)
+        {
+            abortDataConnection(dataConnection);
+            return new CommandOutput(Response.create(Response.transferAborted, command));
+        }
+        finally
+        { monitor.stop(); }
+
+        return new CommandOutput(transferEndResponse(command));
+    }
+
+    /*
+        Method for MLST command (RFC 3659): sends the facts of a file or directory on the control connection.
+        Input:
+          1. the pathname sent by the client, null for the working directory.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+        The facts are the ones selected by OPTS MLST, read with a single call.
+    */
+    private CommandOutput executeMLST(String pathname)
+    {
+        VirtualFile file;
+        StringBuilder factLine = new StringBuilder(" ");
+
+        if(!serverData.isUserLoggedIn)
+          return new CommandOutput(Response.create(Response.notLoggedIn, "MLST", "You need to log in"));
+
+        if(pathname == null)
+          pathname = ".";
+
+        if(!serverData.listPermission)
+          return new CommandOutput(Response.create(Response.actionNotTaken, "MLST", "Permission denied"));
+
+        file = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+
+        if(!file.exists() || !ListingWriter.appendFacts(factLine, file.getPath(), serverData.mlstFacts, getFactPermissions(false), getFactPermissions(true)))
+          return new CommandOutput(Response.create(Response.actionNotTaken, "MLST", "File not found"));
+
+        factLine.append(' ').append(pathname).append("\r\n");
+        return new CommandOutput(Response.createMultiline(Response.actionTaken, "Listing " + pathname, factLine.toString()));
+    }
+
+    /*
+        Method for SIZE and MDTM commands (RFC 3659): send the size or the last modification time of a file.
+        Input:
+          1. the file pathname sent by the client.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+        The attributes are read from the metadata cache, so checking many files doesn't cost a file system call for each one.
+        The size is the size of the stored file, also in the ascii types.
+    */
+    private CommandOutput executeFileInformation(String pathname)
+    {
+        VirtualFile file;
+        BasicFileAttributes attributes;
+        String command = serverData.currentCommand.split(" ", 2)[0].toUpperCase();
+
+        if(!serverData.isUserLoggedIn)
+          return new CommandOutput(Response.create(Response.notLoggedIn, command, "You need to log in"));
+
+        if(pathname == null)
+          return new CommandOutput(Response.create(Response.unrecognizedParameter, command));
+
+        if(!serverData.listPermission)
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "Permission denied"));
+
+        file = serverData.fileSystem.resolveCached(serverData.userWorkingDirectory, pathname);
+
+        if((attributes = file.getAttributes()) == null)
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "File not found"));
+
+        if(!attributes.isRegularFile())
+          return new CommandOutput(Response.create(Response.actionNotTaken, command, "Not a regular file"));
+
+        if(command.equals("SIZE"))
+          return new CommandOutput(Response.create(Response.fileInformation, String.valueOf(attributes.size())));
+
+        return new CommandOutput(Response.create(Response.fileInformation, ListingWriter.formatFactTime(LinkTimes.get(file.getPath(), attributes.fileKey(), attributes.lastModifiedTime()))));
+    }
+
+    /*
+        Method for obtaining the value of the "perm" fact (RFC 3659) from the permissions of the user.
+        Input:
+          1. true for the directories, false for the files.
+        Return values:
+          1. the permitted operations: "r" (RETR), "a" (APPE), "w" (STOR), "e" (CWD), "l" (LIST), "c" (STOR in the directory),
+             "m" (MKD), "d" (DELE, RMD), "p" (DELE in the directory), "f" (RNFR).
+    */
+    private String getFactPermissions(boolean isDirectory)
+    {
+        String permissions = (isDirectory) ? "e" : "";
+
+        if(!isDirectory && serverData.readPermission)
+          permissions += "r";
+
+        if(isDirectory && serverData.listPermission)
+          permissions += "l";
+
+        if(serverData.writePermission)
+          permissions += (isDirectory) ? "cm" : "aw";
+
+        if(serverData.deletePermission)
+          permissions += (isDirectory) ? "dp" : "d";
+
+        if(serverData.renamePermission)
+          permissions += "f";
+
+        return permissions;
+    }
+
+    /*
+        Method for obtaining the format of a file list, which identifies the list in the listing cache.
+        Input:
+          1. the command ("LIST", "NLST" or "MLSD").
+        Return values:
+          1. the command, followed for MLSD by the selected facts and the permissions of the user, which are part of the list.
+    */
+    private String getListingFormat(String command)
+    {
+        if(!command.equals("MLSD"))
+          return command;
+
+        return command + " " + String.join(";", serverData.mlstFacts) + " " + getFactPermissions(false) + "/" + getFactPermissions(true);
+    }
+
+    /*
+        Method for dropping the cached lists and attributes changed by a command.
+        Input:
+          1. the pathname of the file or directory created, changed, renamed or deleted.
+        The lists of its parent directory are dropped, and if it's a directory, its lists and the lists of the directories under it.
+    */
+    private void invalidateCaches(Path changedPath)
+    {
+        serverData.listingCache.invalidateTree(changedPath);
+        serverData.listingCache.invalidate(changedPath.getParent());
+        serverData.metadataCache.invalidate(changedPath);
+    }
+
+    /*
+        Method for creating a directory and the missing parent directories.
+        Input:
+          1. the directory.
+        Return values:
+          1. true if the directory has been created.
+    */
+    private boolean createDirectories(Path directory)
+    {
+        Path createdPath = directory;
+
+        //the cached lists change from the directory containing the first directory created.
+        while(createdPath.getParent() != null && !Files.exists(createdPath.getParent()))
+          createdPath = createdPath.getParent();
+
+        try
+        {
+            Files.createDirectories(directory);
         }
         catch(IOException excp)
-        { return new CommandOutput(Response.create(Response.transferAborted, command)); }
+        { return false; }
 
-        return new CommandOutput(Response.create(Response.transferSuccess, command));
+        invalidateCaches(createdPath);
+        return true;
+    }
+
+    /*
+        Method for closing the entries of a directory.
+        Input:
+          1. the entries, null if none.
+    */
+    private void closeDirectoryStream(DirectoryStream<Path> directoryStream)
+    {
+        try
+        {
+            if(directoryStream != null)
+              directoryStream.close();
+        }
+        catch(IOException excp)
+        { /* the directory has been read anyway */ }
     }
 
     /*
@@ -639,6 +1767,7 @@ public class CommandHandler
     */
     private CommandOutput executeMKD(String pathname)
     {
+        VirtualFile directory;
         String[] logParameters = {serverData.userAddress, serverData.username, ""};
 
         if(!serverData.isUserLoggedIn)
@@ -650,9 +1779,10 @@ public class CommandHandler
         if(!serverData.writePermission)
           return new CommandOutput(Response.create(Response.actionNotTaken, "MKD", "Permission denied"));
 
-        logParameters[2] = pathname = Utils.getCorrectPath(serverData.userRootDirectory, serverData.userWorkingDirectory, pathname);
+        directory = serverData.fileSystem.resolve(serverData.userWorkingDirectory, pathname);
+        logParameters[2] = directory.getPathname();
 
-        if(!new File(serverData.serverRootDirectory + pathname).mkdirs())
+        if(directory.isDenied() || directory.exists() || !createDirectories(directory.getPath()))
           return new CommandOutput(Response.create(Response.actionNotTaken, "MKD", "Unable to create directory"));
 
         return new CommandOutput
@@ -698,6 +1828,51 @@ public class CommandHandler
     private CommandOutput executeHELP(String parameters)
     { return new CommandOutput(Response.create(Response.helpOK)); }
 
+    /*
+        Method for ABOR command: aborts the transfer running in the background.
+        The parameter is superfluous and set to null. It's just there to fit into the FunctionPointer interface.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+        The data connection is closed, so the aborted transfer is answered with 426 before the 226 response of ABOR.
+    */
+    private CommandOutput executeABOR(String parameters)
+    {
+        DataTransfer transfer = serverData.activeTransfer;
+
+        if(transfer == null)
+          return new CommandOutput(Response.create(Response.noTransferInProgress, "ABOR", "No transfer to abort"));
+
+        transfer.abort();
+        transfer.await();
+        return new CommandOutput(Response.create(Response.transferSuccess, "ABOR"));
+    }
+
+    /*
+        Method for STAT command: sends the progress of the transfer running in the background, or the status of the session.
+        Input:
+          1. the parameter sent by the client, which must be null.
+        Return values:
+          1. an instance of the CommandOutput class will contain the response for the client and the log message
+    */
+    private CommandOutput executeSTAT(String parameters)
+    {
+        DataTransfer transfer = serverData.activeTransfer;
+        String status;
+
+        if(parameters != null)
+          return new CommandOutput(Response.create(Response.parameterNotImplemented, "STAT", "Pathname parameter"));
+
+        if(transfer != null)
+          return new CommandOutput(Response.create(Response.transferStatus, "Transferring " + transfer.getStatus()));
+
+        status = " Connected from " + serverData.userAddress + "\r\n" +
+                 ((serverData.isUserLoggedIn) ? " Logged in as " + serverData.username : " Not logged in") + "\r\n" +
+                 " TYPE: " + serverData.transferDataType + ", STRU: F, MODE: " + serverData.transferMode + "\r\n" +
+                 ((serverData.blockDataConnection != null) ? " Data connection open" : " No data connection") + "\r\n";
+
+        return new CommandOutput(Response.create(Response.serverStatus, "Status:", status));
+    }
+
     /*
         Function fot NOOP command: no operation.
         The parameter is superfluous and set to null. It's just there to fit into the FunctionPointer interface.
@@ -707,49 +1882,67 @@ public class CommandHandler
     private CommandOutput executeNOOP(String parameters)
     { return new CommandOutput(Response.create(Response.genericSuccess, "NOOP", "No operation done")); }
 
-    //Method for initializing hashmap of function pointers.
-    private void initFunctionArray()
-    {
-        commandsArray = new HashMap<String, FunctionPointer>();
-
-        commandsArray.put("TYPE", this::executeTYPE);     commandsArray.put("USER", this::executeUSER);
-        commandsArray.put("PASS", this::executePASS);     commandsArray.put("CWD",  this::changeDirectory);
-        commandsArray.put("CDUP", this::changeDirectory); commandsArray.put("REIN", this::executeREIN);
-        commandsArray.put("QUIT", this::executeQUIT);     commandsArray.put("PORT", this::executePORT);
-        commandsArray.put("PASV", this::executePASV);     commandsArray.put("STRU", this::executeSTRU);
-        commandsArray.put("MODE", this::executeMODE);     commandsArray.put("RETR", this::executeRETR);
-        commandsArray.put("STOR", this::storeFile);       commandsArray.put("STOU", this::storeFile);
-        commandsArray.put("APPE", this::storeFile);       commandsArray.put("RNFR", this::executeRNFR);
-        commandsArray.put("RNTO", this::executeRNTO);     commandsArray.put("DELE", this::removeFile);
-        commandsArray.put("LIST", this::listFile);        commandsArray.put("NLST", this::listFile);
-        commandsArray.put("RMD",  this::removeFile);      commandsArray.put("MKD",  this::executeMKD);
-        commandsArray.put("PWD",  this::executePWD);      commandsArray.put("SYST", this::executeSYST);
-        commandsArray.put("HELP", this::executeHELP);     commandsArray.put("NOOP", this::executeNOOP);
-
-        commandsArray.put("ALLO", this::superfluousCommand);
-        commandsArray.put("SITE", this::superfluousCommand);
-        commandsArray.put("ACCT", this::superfluousCommand);
-
-        commandsArray.put("SMNT", this::notImplementedCommand); commandsArray.put("REST", this::notImplementedCommand);
-        commandsArray.put("ABOR", this::notImplementedCommand); commandsArray.put("STAT", this::notImplementedCommand);
-        commandsArray.put("ADAT", this::notImplementedCommand); commandsArray.put("AUTH", this::notImplementedCommand);
-        commandsArray.put("AVBL", this::notImplementedCommand); commandsArray.put("CCC",  this::notImplementedCommand);
-        commandsArray.put("CONF", this::notImplementedCommand); commandsArray.put("CSID", this::notImplementedCommand);
-        commandsArray.put("DSIZ", this::notImplementedCommand); commandsArray.put("ENC",  this::notImplementedCommand);
-        commandsArray.put("EPRT", this::notImplementedCommand); commandsArray.put("EPSV", this::notImplementedCommand);
-        commandsArray.put("FEAT", this::notImplementedCommand); commandsArray.put("HOST", this::notImplementedCommand);
-        commandsArray.put("LANG", this::notImplementedCommand); commandsArray.put("LPRT", this::notImplementedCommand);
-        commandsArray.put("LPSV", this::notImplementedCommand); commandsArray.put("MDTM", this::notImplementedCommand);
-        commandsArray.put("MFCT", this::notImplementedCommand); commandsArray.put("MFMT", this::notImplementedCommand);
-        commandsArray.put("MFF",  this::notImplementedCommand); commandsArray.put("MIC",  this::notImplementedCommand);
-        commandsArray.put("MLSD", this::notImplementedCommand); commandsArray.put("MLST", this::notImplementedCommand);
-        commandsArray.put("OPTS", this::notImplementedCommand); commandsArray.put("PBSZ", this::notImplementedCommand);
-        commandsArray.put("PROT", this::notImplementedCommand); commandsArray.put("RMDA", this::notImplementedCommand);
-        commandsArray.put("SIZE", this::notImplementedCommand); commandsArray.put("SPSV", this::notImplementedCommand);
-        commandsArray.put("THMB", this::notImplementedCommand); commandsArray.put("XCUP", this::notImplementedCommand);
-        commandsArray.put("XMKD", this::notImplementedCommand); commandsArray.put("XPWD", this::notImplementedCommand);
-        commandsArray.put("XRMD", this::notImplementedCommand); commandsArray.put("XRCP", this::notImplementedCommand);
-        commandsArray.put("XRSQ", this::notImplementedCommand); commandsArray.put("XSEM", this::notImplementedCommand);
-        commandsArray.put("XSEN", this::notImplementedCommand);
+    /*
+        Method for initializing hashmap of function pointers.
+        The hashmap is shared by all the sessions: each function receives the CommandHandler of the session that executes it.
+    */
+    private static HashMap<String, FunctionPointer> initFunctionArray()
+    {
+        HashMap<String, FunctionPointer> commandsArray = new HashMap<String, FunctionPointer>();
+
+        commandsArray.put("TYPE", CommandHandler::executeTYPE);     commandsArray.put("USER", CommandHandler::executeUSER);
+        commandsArray.put("PASS", CommandHandler::executePASS);     commandsArray.put("CWD",  CommandHandler::changeDirectory);
+        commandsArray.put("CDUP", CommandHandler::changeDirectory); commandsArray.put("REIN", CommandHandler::executeREIN);
+        commandsArray.put("QUIT", CommandHandler::executeQUIT);     commandsArray.put("PORT", CommandHandler::executePORT);
+        commandsArray.put("PASV", CommandHandler::executePASV);     commandsArray.put("STRU", CommandHandler::executeSTRU);
+        commandsArray.put("MODE", CommandHandler::executeMODE);     commandsArray.put("RETR", CommandHandler::executeRETR);
+        commandsArray.put("STOR", CommandHandler::storeFile);       commandsArray.put("STOU", CommandHandler::storeFile);
+        commandsArray.put("APPE", CommandHandler::storeFile);       commandsArray.put("RNFR", CommandHandler::executeRNFR);
+        commandsArray.put("RNTO", CommandHandler::executeRNTO);     commandsArray.put("DELE", CommandHandler::removeFile);
+        commandsArray.put("LIST", CommandHandler::listFile);        commandsArray.put("NLST", CommandHandler::listFile);
+        commandsArray.put("RMD",  CommandHandler::removeFile);      commandsArray.put("MKD",  CommandHandler::executeMKD);
+        commandsArray.put("PWD",  CommandHandler::executePWD);      commandsArray.put("SYST", CommandHandler::executeSYST);
+        commandsArray.put("HELP", CommandHandler::executeHELP);     commandsArray.put("NOOP", CommandHandler::executeNOOP);
+        commandsArray.put("REST", CommandHandler::executeREST);     commandsArray.put("FEAT", CommandHandler::executeFEAT);
+        commandsArray.put("ABOR", CommandHandler::executeABOR);     commandsArray.put("STAT", CommandHandler::executeSTAT);
+        commandsArray.put("OPTS", CommandHandler::executeOPTS);     commandsArray.put("HASH", CommandHandler::executeHASH);
+        commandsArray.put("XCRC", CommandHandler::executeChecksumCommand);
+        commandsArray.put("XMD5", CommandHandler::executeChecksumCommand);
+        commandsArray.put("XSHA256", CommandHandler::executeChecksumCommand);
+        commandsArray.put("MLSD", CommandHandler::listFile);        commandsArray.put("MLST", CommandHandler::executeMLST);
+        commandsArray.put("SIZE", CommandHandler::executeFileInformation);
+        commandsArray.put("SITE", CommandHandler::executeSITE);
+        commandsArray.put("MDTM", CommandHandler::executeFileInformation);
+
+        commandsArray.put("ALLO", CommandHandler::superfluousCommand);
+        commandsArray.put("ACCT", CommandHandler::superfluousCommand);
+
+        commandsArray.put("SMNT", CommandHandler::notImplementedCommand);
+        commandsArray.put("ADAT", CommandHandler::notImplementedCommand); commandsArray.put("AUTH", CommandHandler::notImplementedCommand);
+        commandsArray.put("AVBL", CommandHandler::notImplementedCommand); commandsArray.put("CCC",  CommandHandler::notImplementedCommand);
+        commandsArray.put("CONF", CommandHandler::notImplementedCommand); commandsArray.put("CSID", CommandHandler::notImplementedCommand);
+        commandsArray.put("DSIZ", CommandHandler::notImplementedCommand); commandsArray.put("ENC",  CommandHandler::notImplementedCommand);
+        commandsArray.put("EPRT", CommandHandler::notImplementedCommand); commandsArray.put("EPSV", CommandHandler::notImplementedCommand);
+        commandsArray.put("HOST", CommandHandler::notImplementedCommand);
+        commandsArray.put("LANG", CommandHandler::notImplementedCommand); commandsArray.put("LPRT", CommandHandler::notImplementedCommand);
+        commandsArray.put("LPSV", CommandHandler::notImplementedCommand);
+        commandsArray.put("MFCT", CommandHandler::notImplementedCommand); commandsArray.put("MFMT", CommandHandler::notImplementedCommand);
+        commandsArray.put("MFF",  CommandHandler::notImplementedCommand); commandsArray.put("MIC",  CommandHandler::notImplementedCommand);
+        commandsArray.put("PBSZ", CommandHandler::notImplementedCommand);
+        commandsArray.put("PROT", CommandHandler::notImplementedCommand); commandsArray.put("RMDA", CommandHandler::notImplementedCommand);
+        commandsArray.put("SPSV", CommandHandler::notImplementedCommand);
+        commandsArray.put("THMB", CommandHandler::notImplementedCommand); commandsArray.put("XCUP", CommandHandler::notImplementedCommand);
+        commandsArray.put("XMKD", CommandHandler::notImplementedCommand); commandsArray.put("XPWD", CommandHandler::notImplementedCommand);
+        commandsArray.put("XRMD", CommandHandler::notImplementedCommand); commandsArray.put("XRCP", CommandHandler::notImplementedCommand);
+        commandsArray.put("XRSQ", CommandHandler::notImplementedCommand); commandsArray.put("XSEM", CommandHandler::notImplementedCommand);
+        commandsArray.put("XSEN", CommandHandler::notImplementedCommand);
+
+        return commandsArray;
+    }
+
+    //Interface for creating the response of a checksum command from the pathname sent by the client, the size of the file and its checksum.
+    private interface ChecksumResponse
+    {
+        String create(String pathname, long size, String checksum);
     }
 }
@@ -0,0 +1,125 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the event loops of the "nio" control engine.
+    Each event loop serves the control connections of many sessions with a single thread and a single Selector.
+    The operations on the Selector are performed only by the event loop thread:
+    the other threads request them through the register() and updateInterestOps() methods.
+*/
+public class ControlEventLoop implements Runnable
+{
+    //size of the read buffer, shared by all the sessions of the event loop.
+    private static final int  READ_BUFFER_SIZE       = 16384;
+    //interval between two checks of the control connection timeouts, in milliseconds.
+    private static final long TIMEOUT_CHECK_INTERVAL = 1000;
+
+    private final Selector                                 selector;
+    private final ByteBuffer                               readBuffer;
+    private final ConcurrentLinkedQueue<NioControlSession> sessionsToRegister;
+    private final ConcurrentLinkedQueue<NioControlSession> sessionsToUpdate;
+
+    public ControlEventLoop() throws IOException
+    {
+        selector = Selector.open();
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        sessionsToRegister = new ConcurrentLinkedQueue<NioControlSession>();
+        sessionsToUpdate = new ConcurrentLinkedQueue<NioControlSession>();
+    }
+
+    /*
+        Method for assigning a new session to the event loop.
+        Input:
+          1. the session, whose control connection must be in non-blocking mode.
+    */
+    public void register(NioControlSession session)
+    {
+        sessionsToRegister.add(session);
+        selector.wakeup();
+    }
+
+    /*
+        Method for requesting the update of the operations of interest of a session.
+        Input:
+          1. the session.
+    */
+    public void updateInterestOps(NioControlSession session)
+    {
+        sessionsToUpdate.add(session);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        long nextTimeoutCheck = System.currentTimeMillis() + TIMEOUT_CHECK_INTERVAL;
+        long currentTime;
+
+        while(true)
+        {
+            try
+            {
+                selector.select(TIMEOUT_CHECK_INTERVAL);
+            }
+            catch(IOException excp)
+            {
+                System.out.print(LogMessage.create(LogMessage.eventLoopError));
+                return;
+            }
+
+            registerSessions();
+            updateSessions();
+
+            for(SelectionKey selectionKey : selector.selectedKeys())
+            {
+                NioControlSession session = (NioControlSession) selectionKey.attachment();
+
+                if(selectionKey.isValid() && selectionKey.isWritable())
+                  session.onWritable();
+
+                if(selectionKey.isValid() && selectionKey.isReadable())
+                  session.onReadable(readBuffer);
+            }
+
+            selector.selectedKeys().clear();
+
+            if((currentTime = System.currentTimeMillis()) >= nextTimeoutCheck)
+            {
+                for(SelectionKey selectionKey : selector.keys())
+                {
+                    if(selectionKey.isValid())
+                      ((NioControlSession) selectionKey.attachment()).checkTimeout(currentTime);
+                }
+
+                nextTimeoutCheck = currentTime + TIMEOUT_CHECK_INTERVAL;
+            }
+        }
+    }
+
+    //Method for registering the new sessions on the Selector.
+    private void registerSessions()
+    {
+        NioControlSession session;
+
+        while((session = sessionsToRegister.poll()) != null)
+        {
+            try
+            {
+                session.onRegistered(session.getControlChannel().register(selector, SelectionKey.OP_READ, session));
+            }
+            catch(ClosedChannelException excp)
+            { System.out.print(LogMessage.create(LogMessage.controlConnectionError, session.userAddress)); }
+        }
+    }
+
+    //Method for updating the operations of interest of the sessions that requested it.
+    private void updateSessions()
+    {
+        NioControlSession session;
+
+        while((session = sessionsToUpdate.poll()) != null)
+          session.updateInterestOps();
+    }
+}
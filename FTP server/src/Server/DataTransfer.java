@@ -0,0 +1,123 @@
+import java.net.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/*
+    Class for a transfer executed in the background, while the session keeps reading the control connection
+    so that the client can abort the transfer (ABOR) or ask for its progress (STAT).
+    At the end of the transfer the response is sent to the client by the thread that executed it.
+*/
+public class DataTransfer implements Runnable
+{
+    private final JFtpWorker              session;
+    private final String                  command;
+    private final String                  pathname;
+    private final Socket                  dataConnection;
+    private final TransferMonitor         monitor;
+    private final Supplier<CommandOutput> transferTask;
+    private final CountDownLatch          completion = new CountDownLatch(1);
+    private Thread                        transferThread; //null when the transfer is not running
+    private boolean                       isAborted;
+    private boolean                       isFinished;
+
+    /*
+        Input:
+          1. the session which started the transfer.
+          2. the name of the command.
+          3. the pathname transferred.
+          4. the data connection.
+          5. the monitor of the transfer.
+          6. the transfer, which returns the response for the client and the log message.
+    */
+    public DataTransfer(JFtpWorker session, String command, String pathname, Socket dataConnection, TransferMonitor monitor,
+                        Supplier<CommandOutput> transferTask)
+    {
+        this.session = session;
+        this.command = command;
+        this.pathname = pathname;
+        this.dataConnection = dataConnection;
+        this.monitor = monitor;
+        this.transferTask = transferTask;
+    }
+
+    @Override
+    public void run()
+    {
+        CommandOutput commandOutput = null;
+
+        synchronized(this)
+        {
+            transferThread = Thread.currentThread();
+
+            if(isAborted)
+              transferThread.interrupt();
+        }
+
+        try
+        {
+            commandOutput = transferTask.get();
+        }
+        finally
+        {
+            //after this point the thread isn't interrupted anymore: the flag must not reach the control connection.
+            synchronized(this)
+            {
+                isFinished = true;
+                transferThread = null;
+            }
+
+            Thread.interrupted();
+
+            try
+            {
+                session.endTransfer((commandOutput != null) ? commandOutput : new CommandOutput(Response.create(Response.transferAborted, command)));
+            }
+            finally
+            { completion.countDown(); }
+        }
+    }
+
+    /*
+        Method for aborting the transfer: the data connection is closed, so the transfer fails and releases its buffers
+        at once, and the thread is interrupted in case it's waiting for a buffer or for bandwidth.
+    */
+    public void abort()
+    {
+        synchronized(this)
+        {
+            if(isFinished)
+              return;
+
+            isAborted = true;
+
+            if(transferThread != null)
+              transferThread.interrupt();
+        }
+
+        try
+        {
+            dataConnection.close();
+        }
+        catch(IOException excp)
+        { /* the transfer is aborted anyway */ }
+    }
+
+    //Method for waiting until the transfer has ended and its response has been sent.
+    public void await()
+    {
+        try
+        {
+            completion.await();
+        }
+        catch(InterruptedException excp)
+        { Thread.currentThread().interrupt(); }
+    }
+
+    //Method for obtaining the progress of the transfer.
+    public String getStatus()
+    {
+        return command + " \"" + pathname + "\": " + monitor.getBytes() + " bytes in " + monitor.getElapsedTime() + "ms (" +
+               monitor.getRate() + " KB/s)";
+    }
+}
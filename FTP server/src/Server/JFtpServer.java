@@ -1,5 +1,9 @@
 import java.net.*;
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 
 //FTP server main class.
 public class JFtpServer
@@ -9,6 +13,10 @@ public class JFtpServer
         ServerConfiguration configuration;
         File serverRootDirectoryObj, userlistFileObj;
         ServerSocket listenSocket;
+        ServerSocketChannel listenChannel;
+        ServerContext context;
+        StorageBackends storageBackends;
+        byte[] tooManySessionsResponse, bannedClientResponse;
 
         if(args.length != 1)
         {
@@ -68,9 +76,101 @@ public class JFtpServer
         if(configuration.dataRcvTimeout < 0)
           configuration.dataRcvTimeout = 0;
 
+        if(!configuration.sessionExecutor.matches("virtual|platform"))
+        {
+            System.out.print(ErrorMessage.create(ErrorMessage.invalidSessionExecutor, args[0]));
+            return;
+        }
+
+        if(configuration.sessionPoolSize < 1)
+          configuration.sessionPoolSize = 1;
+
+        if(configuration.maxSessions < 0)
+          configuration.maxSessions = 0;
+
+        if(configuration.maxSessionsPerIp < 0)
+          configuration.maxSessionsPerIp = 0;
+
+        if(!configuration.controlEngine.matches("blocking|nio"))
+        {
+            System.out.print(ErrorMessage.create(ErrorMessage.invalidControlEngine, args[0]));
+            return;
+        }
+
+        if(!configuration.uploadDurability.matches("none|fsync|groupcommit"))
+        {
+            System.out.print(ErrorMessage.create(ErrorMessage.invalidUploadDurability, args[0]));
+            return;
+        }
+
+        if(!configuration.transferChecksum.equals("NONE") && !FileDigest.ALGORITHMS.contains(configuration.transferChecksum))
+        {
+            System.out.print(ErrorMessage.create(ErrorMessage.invalidTransferChecksum, args[0]));
+            return;
+        }
+
+        if(!ListingWriter.FACTS.containsAll(configuration.mlstFacts))
+        {
+            System.out.print(ErrorMessage.create(ErrorMessage.invalidMlstFacts, args[0]));
+            return;
+        }
+
+        configuration.mlstFacts = ListingWriter.FACTS.stream().filter(configuration.mlstFacts::contains).toList();
+
+        if(configuration.transferChunkSize < Utils.BUFFER_SIZE)
+          configuration.transferChunkSize = Utils.BUFFER_SIZE;
+
+        if(configuration.eventLoopThreads < 1)
+          configuration.eventLoopThreads = Runtime.getRuntime().availableProcessors();
+
+        if(configuration.treeListingThreads < 1)
+          configuration.treeListingThreads = Runtime.getRuntime().availableProcessors();
+
+        if(configuration.loginFailureDelay < 0)
+          configuration.loginFailureDelay = 0;
+
+        if(configuration.loginBanFailures < 0)
+          configuration.loginBanFailures = 0;
+
+        if(configuration.loginBanTime < 0)
+          configuration.loginBanTime = 0;
+
+        if(configuration.dataSendBuffer < 0)
+          configuration.dataSendBuffer = 0;
+
+        if(configuration.dataReceiveBuffer < 0)
+          configuration.dataReceiveBuffer = 0;
+
+        for(String storageEntry : configuration.storage)
+        {
+            if(!storageEntry.matches("[^:]*:(disk|memory|dedup)"))
+            {
+                System.out.print(ErrorMessage.create(ErrorMessage.invalidStorage, args[0]));
+                return;
+            }
+
+            if(storageEntry.endsWith(":dedup") && configuration.blobDirectory == null)
+            {
+                System.out.print(ErrorMessage.create(ErrorMessage.missingBlobDirectory, args[0]));
+                return;
+            }
+        }
+
+        if(configuration.memoryStorageSize < 0)
+          configuration.memoryStorageSize = 0;
+
+        configuration.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, configuration.compressionLevel));
+
         try
         {
-            listenSocket = new ServerSocket(configuration.listenPort);
+            if(configuration.controlEngine.equals("nio"))
+            {
+                listenChannel = ServerSocketChannel.open();
+                listenChannel.bind(new InetSocketAddress(configuration.listenPort));
+                listenSocket = listenChannel.socket();
+            }
+            else
+              listenSocket = new ServerSocket(configuration.listenPort);
         }
         catch(IllegalArgumentException excp)
         {
@@ -80,25 +180,195 @@ public class JFtpServer
         catch(IOException excp)
         { System.out.print(LogMessage.create(LogMessage.unableToStartServer)); return; }
 
+        try
+        {
+            storageBackends = new StorageBackends(configuration);
+        }
+        catch(FileSystemException excp)
+        {
+            System.out.print(ErrorMessage.create(ErrorMessage.unableToLoadStorage, excp.getFile(), excp.getReason()));
+            return;
+        }
+
+        try
+        {
+            context = new ServerContext(configuration, storageBackends);
+        }
+        catch(IOException excp)
+        {
+            System.out.print(ErrorMessage.create(ErrorMessage.unableToReadUserlist, configuration.userlistFile));
+            return;
+        }
+
+        tooManySessionsResponse = (Response.create(Response.serviceNotAvailable, "Too many sessions, try again later") + "\r\n").getBytes();
+        bannedClientResponse = (Response.create(Response.serviceNotAvailable, "Too many failed logins, try again later") + "\r\n").getBytes();
+
         System.out.print
           (
               LogMessage.create(LogMessage.configurationInfo, configuration.serverIp, Integer.toString(configuration.listenPort),
               (configuration.controlTimeout == 0) ? "no timeout" : configuration.controlTimeout + "ms = " + "(" + configuration.controlTimeout/60000 + "m:" + (configuration.controlTimeout/1000)%60 + "s)",
               (configuration.dataAcceptTimeout == 0) ? "no timeout" : configuration.dataAcceptTimeout + "ms = " + "(" + configuration.dataAcceptTimeout/60000 + "m:" + (configuration.dataAcceptTimeout/1000)%60 + "s)",
               (configuration.dataRcvTimeout == 0) ? "no timeout" : configuration.dataRcvTimeout + "ms = " + "(" + configuration.dataRcvTimeout/60000 + "m:" + (configuration.dataRcvTimeout/1000)%60 + "s)",
-              configuration.userlistFile, configuration.rootDirectory)
+              configuration.userlistFile, configuration.rootDirectory, configuration.sessionExecutor,
+              (configuration.maxSessions == 0) ? "no limit" : Integer.toString(configuration.maxSessions),
+              (configuration.maxSessionsPerIp == 0) ? "no limit" : Integer.toString(configuration.maxSessionsPerIp),
+              (configuration.controlEngine.equals("nio")) ? "nio (" + configuration.eventLoopThreads + " event loops)" : "blocking")
           );
 
+        if(configuration.controlEngine.equals("nio"))
+          acceptNioSessions(listenSocket.getChannel(), context, tooManySessionsResponse, bannedClientResponse);
+
+        else
+          acceptBlockingSessions(listenSocket, context, tooManySessionsResponse, bannedClientResponse);
+
+        //listenSocket.close();
+    }
+
+    /*
+        Method for accepting the clients with the "blocking" control engine.
+        Input:
+          1. the listening socket.
+          2. the objects shared by the sessions.
+          3. the encoded 421 response for the rejected clients.
+          4. the encoded 421 response for the banned clients.
+        Each session reads its control connection with its own thread.
+    */
+    private static void acceptBlockingSessions(ServerSocket listenSocket, ServerContext context, byte[] tooManySessionsResponse, byte[] bannedClientResponse)
+    {
+        Socket clientConnection;
+
         while(true)
         {
             try
             {
-                new JFtpWorker(listenSocket.accept(), configuration).start();
+                clientConnection = listenSocket.accept();
             }
             catch(IOException excp)
-            { System.out.print(LogMessage.create(LogMessage.unableToAcceptRequest)); }
+            { System.out.print(LogMessage.create(LogMessage.unableToAcceptRequest)); continue; }
+
+            if(context.loginThrottle.isBanned(clientConnection.getInetAddress()))
+            {
+                closeClient(clientConnection, bannedClientResponse);
+                continue;
+            }
+
+            if(!context.sessionLimiter.tryAcquire(clientConnection.getInetAddress()))
+            {
+                rejectClient(clientConnection, tooManySessionsResponse);
+                continue;
+            }
+
+            try
+            {
+                context.sessionExecutor.execute(new JFtpWorker(clientConnection, context));
+            }
+            catch(RejectedExecutionException excp)
+            {
+                context.sessionLimiter.release(clientConnection.getInetAddress());
+                rejectClient(clientConnection, tooManySessionsResponse);
+            }
+        }
+    }
+
+    /*
+        Method for accepting the clients with the "nio" control engine.
+        Input:
+          1. the listening channel.
+          2. the objects shared by the sessions.
+          3. the encoded 421 response for the rejected clients.
+          4. the encoded 421 response for the banned clients.
+        The control connections are assigned in turn to a fixed set of event loops,
+        and only the execution of the commands takes place on the session executor.
+    */
+    private static void acceptNioSessions(ServerSocketChannel listenChannel, ServerContext context, byte[] tooManySessionsResponse, byte[] bannedClientResponse)
+    {
+        ControlEventLoop[] eventLoops = new ControlEventLoop[context.configuration.eventLoopThreads];
+        SocketChannel clientChannel;
+        int nextEventLoop = 0;
+
+        try
+        {
+            for(int i = 0; i < eventLoops.length; i++)
+            {
+                eventLoops[i] = new ControlEventLoop();
+                new Thread(eventLoops[i], "jftp-event-loop-" + i).start();
+            }
         }
+        catch(IOException excp)
+        { System.out.print(LogMessage.create(LogMessage.unableToStartServer)); return; }
 
-        //listenSocket.close();
+        while(true)
+        {
+            try
+            {
+                clientChannel = listenChannel.accept();
+            }
+            catch(IOException excp)
+            { System.out.print(LogMessage.create(LogMessage.unableToAcceptRequest)); continue; }
+
+            if(context.loginThrottle.isBanned(clientChannel.socket().getInetAddress()))
+            {
+                closeClient(clientChannel.socket(), bannedClientResponse);
+                continue;
+            }
+
+            if(!context.sessionLimiter.tryAcquire(clientChannel.socket().getInetAddress()))
+            {
+                rejectClient(clientChannel.socket(), tooManySessionsResponse);
+                continue;
+            }
+
+            try
+            {
+                clientChannel.configureBlocking(false);
+                eventLoops[nextEventLoop].register(new NioControlSession(clientChannel, context, eventLoops[nextEventLoop]));
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+            }
+            catch(IOException excp)
+            {
+                context.sessionLimiter.release(clientChannel.socket().getInetAddress());
+                rejectClient(clientChannel.socket(), tooManySessionsResponse);
+            }
+        }
+    }
+
+    /*
+        Method for rejecting a client that exceeds the session limits.
+        Input:
+          1. the control connection of the client.
+          2. the encoded 421 response to send.
+        The response is written directly on the socket, without creating any session object.
+    */
+    private static void rejectClient(Socket clientConnection, byte[] response)
+    {
+        System.out.print(LogMessage.create(LogMessage.sessionRejected, clientConnection.getInetAddress().getHostAddress()));
+        closeClient(clientConnection, response);
+    }
+
+    /*
+        Method for closing the control connection of a client which is not served.
+        Input:
+          1. the control connection of the client.
+          2. the encoded response to send before closing it.
+        The banned clients are closed without any log message, so a client flooding the server doesn't flood the log.
+        The connection is closed even if the response can't be sent, for example because the client has already gone.
+    */
+    private static void closeClient(Socket clientConnection, byte[] response)
+    {
+        try
+        {
+            clientConnection.getOutputStream().write(response);
+        }
+        catch(IOException excp)
+        { /* the client is closed anyway */ }
+        finally
+        {
+            try
+            {
+                clientConnection.close();
+            }
+            catch(IOException excp)
+            { System.out.print(LogMessage.create(LogMessage.controlConnectionCloseError)); }
+        }
     }
 }
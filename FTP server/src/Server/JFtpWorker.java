@@ -1,9 +1,14 @@
 import java.net.*;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
-//Class for the various threads created by the FTP server.
-public class JFtpWorker extends Thread
+//Class for the client sessions executed by the FTP server.
+public class JFtpWorker implements Runnable
 {
+    //commands executed while a transfer is running, the others wait for its end.
+    private static final Set<String> concurrentCommands = Set.of("ABOR", "STAT", "NOOP");
+
     //Ftp server information
     protected String         serverIp;
     protected Socket         controlConnection;
@@ -17,14 +22,46 @@ public class JFtpWorker extends Thread
     protected String         lastCommand;
     protected String         currentCommand;
     protected String         transferDataType;
-    protected String         serverRootDirectory;
-    protected String         fileToRename;
+    protected StorageBackends storageBackends;
+    protected VirtualFile    fileToRename;     //file selected by RNFR
     protected int            controlTimeout;
     protected int            dataAcceptTimeout;
     protected int            dataRcvTimeout;
+    protected BufferPool     bufferPool;
+    protected SessionLimiter sessionLimiter;
+    protected LoginThrottle  loginThrottle;
+    protected CommandHandler commandHandler;
+    protected String         executedCommand;  //name of the last executed command
+    protected long           restartOffset;    //offset set by the REST command, 0 = no restart
+    protected String         transferMode;     //"S" = stream, "Z" = deflate
+    protected int            compressionLevel;
+    protected DeflaterChannel deflaterChannel; //reused by all the transfers of the session in "Z" mode, null until used
+    protected InflaterChannel inflaterChannel; //reused by all the transfers of the session in "Z" mode, null until used
+    protected BlockOutputStream blockOutputStream; //reused by all the transfers of the session in "B" mode, null until used
+    protected BlockInputStream blockInputStream; //reused by all the transfers of the session in "B" mode, null until used
+    protected Socket         blockDataConnection; //data connection kept open between the transfers in "B" mode, null if none
+    protected SocketTuner    socketTuner;
+    protected long           roundTripTime;    //estimated round trip time of the data connections in nanoseconds, 0 = unknown
+    protected long           passiveModeTime;  //time of the last PASV command, from System.nanoTime
+    protected BandwidthManager bandwidthManager;
+    protected TransferShaper transferShaper;   //bandwidth limits of the logged in user, null if none
+    protected ExecutorService transferExecutor;
+    protected UploadCommitter uploadCommitter;
+    protected ChecksumCache  checksumCache;
+    protected ListingCache   listingCache;
+    protected MetadataCache  metadataCache;
+    protected ForkJoinPool   listingPool;
+    protected String         hashAlgorithm;    //algorithm used by the HASH command
+    protected String         transferChecksum; //algorithm computed during the transfers, "NONE" = no checksum
+    protected List<String>   supportedFacts;   //facts of the MLST and MLSD lines allowed by the configuration
+    protected List<String>   mlstFacts;        //facts selected by OPTS MLST
+    protected volatile DataTransfer activeTransfer; //transfer running in the background, null if none
+    protected long           responseDelay;    //milliseconds for which the response of the current command is delayed, 0 = no delay
+    protected boolean        isClosing;        //true = the session is closed after the response of the current command
 
     //Connected user information
-    protected String         userlistFile;
+    protected UserDirectory  userDirectory;
+    protected VirtualFileSystem fileSystem;          //file system of the user, null until the first USER command
     protected boolean        isUserLoggedIn;         //true = logged, false = not logged
     protected String         username;
     protected String         userPassword;
@@ -37,58 +74,283 @@ public class JFtpWorker extends Thread
     protected String         userWorkingDirectory;
     protected String         userRootDirectory;
     protected String         userAddress;
+    protected long           userBandwidth;          //bytes per second, 0 = no limit
+    protected int            userWeight;             //weight in the split of the global bandwidth
 
-    public JFtpWorker(Socket controlConnection, ServerConfiguration serverConfiguration) throws IOException
+    public JFtpWorker(Socket controlConnection, ServerContext context)
     {
+        ServerConfiguration serverConfiguration = context.configuration;
+        InetSocketAddress remoteAddress = (InetSocketAddress)controlConnection.getRemoteSocketAddress();
+
         this.controlConnection = controlConnection;
-        controlConnectionInput = new BufferedReader(new InputStreamReader(controlConnection.getInputStream()));
-        controlConnectionOutput = new PrintWriter(controlConnection.getOutputStream(), true);
+        sessionLimiter = context.sessionLimiter;
+        loginThrottle = context.loginThrottle;
+        bufferPool = context.bufferPool;
+        bandwidthManager = context.bandwidthManager;
+        transferExecutor = context.transferExecutor;
+        uploadCommitter = context.uploadCommitter;
+        checksumCache = context.checksumCache;
+        listingCache = context.listingCache;
+        metadataCache = context.metadataCache;
+        listingPool = context.listingPool;
+        transferChecksum = serverConfiguration.transferChecksum;
+        supportedFacts = mlstFacts = serverConfiguration.mlstFacts;
         serverIp = serverConfiguration.serverIp;
-        serverRootDirectory = serverConfiguration.rootDirectory;
-        userlistFile = serverConfiguration.userlistFile;
+        storageBackends = context.storageBackends;
+        userDirectory = context.userDirectory;
         controlTimeout = serverConfiguration.controlTimeout;
         dataAcceptTimeout = serverConfiguration.dataAcceptTimeout;
         dataRcvTimeout = serverConfiguration.dataRcvTimeout;
+        compressionLevel = serverConfiguration.compressionLevel;
+        socketTuner = new SocketTuner(serverConfiguration);
         transferDataType = "A";
+        transferMode = "S";
+        hashAlgorithm = "SHA-256";
         isUserLoggedIn = false;
         isServerModeSet = false;
+        userAddress = remoteAddress.getAddress().getHostAddress() + ":" + remoteAddress.getPort();
+        commandHandler = new CommandHandler(this);
+        executedCommand = "";
     }
 
     @Override
     public void run()
+    {
+        try
+        {
+            serveClient();
+        }
+        finally
+        {
+            releaseTransferResources();
+            sessionLimiter.release(controlConnection.getInetAddress());
+        }
+    }
+
+    //Method for closing the data connection kept open in "B" mode.
+    protected void closeBlockDataConnection()
+    {
+        if(blockDataConnection == null)
+          return;
+
+        try
+        {
+            blockDataConnection.close();
+        }
+        catch(IOException excp)
+        { /* the data connection is discarded anyway */ }
+
+        blockDataConnection = null;
+    }
+
+    //Method for obtaining the bandwidth limits of the user who has just logged in.
+    protected synchronized void openTransferShaper()
+    {
+        closeTransferShaper();
+        transferShaper = bandwidthManager.openShaper(username, controlConnection.getInetAddress(), userBandwidth, userWeight);
+    }
+
+    //Method for releasing the bandwidth limits of the user when the session logs out.
+    protected synchronized void closeTransferShaper()
+    {
+        if(transferShaper == null)
+          return;
+
+        bandwidthManager.closeShaper(controlConnection.getInetAddress());
+        transferShaper = null;
+    }
+
+    /*
+        Method for releasing the resources kept between the transfers at the end of the session:
+        the data connection of the "B" mode, the native memory of the compressor and the decompressor of the "Z" mode
+        and the bandwidth limits of the user. The transfer running in the background, if any, is aborted first.
+    */
+    protected void releaseTransferResources()
+    {
+        DataTransfer transfer = activeTransfer;
+
+        if(transfer != null)
+        {
+            transfer.abort();
+            transfer.await();
+        }
+
+        synchronized(this)
+        {
+            closeBlockDataConnection();
+            closeTransferShaper();
+
+            if(deflaterChannel != null)
+              deflaterChannel.end();
+
+            if(inflaterChannel != null)
+              inflaterChannel.end();
+
+            deflaterChannel = null;
+            inflaterChannel = null;
+        }
+    }
+
+    /*
+        Method for starting a transfer in the background.
+        Input:
+          1. the transfer.
+    */
+    protected void startTransfer(DataTransfer transfer)
+    {
+        activeTransfer = transfer;
+
+        try
+        {
+            transferExecutor.execute(transfer);
+        }
+        catch(RejectedExecutionException excp)
+        {
+            //the transfer fails and sends its response.
+            transfer.abort();
+            transfer.run();
+        }
+    }
+
+    /*
+        Method called by the thread of the transfer when it ends.
+        Input:
+          1. the response for the client and the log message.
+    */
+    protected void endTransfer(CommandOutput commandOutput)
+    {
+        sendResponse(commandOutput.getResponse());
+        System.out.print(commandOutput.getLog());
+        activeTransfer = null;
+    }
+
+    //Method for waiting until the transfer running in the background, if any, has ended.
+    protected void awaitTransfer()
+    {
+        DataTransfer transfer = activeTransfer;
+
+        if(transfer != null)
+          transfer.await();
+    }
+
+    /*
+        Method for sending a response to the client via control connection.
+        Input:
+          1. the response, without the final CRLF.
+    */
+    protected void sendResponse(String response)
+    { controlConnectionOutput.println(response); }
+
+    /*
+        Method for sending a response to the client after a delay.
+        Input:
+          1. the response, without the final CRLF.
+          2. the delay in milliseconds.
+        The session waits without reading other commands. With virtual threads the waiting session doesn't hold any
+        platform thread.
+    */
+    protected void sendDelayedResponse(String response, long delay)
+    {
+        try
+        {
+            Thread.sleep(delay);
+        }
+        catch(InterruptedException excp)
+        { Thread.currentThread().interrupt(); }
+
+        sendResponse(response);
+    }
+
+    /*
+        Method for executing a command received from the client and sending the response.
+        Input:
+          1. the command line, without the final CRLF.
+        Return values:
+          1. false if the session must be closed (QUIT command, banned client), true otherwise.
+    */
+    protected boolean processCommand(String commandLine)
     {
         CommandOutput commandOutput;
-        CommandHandler commandHandler = new CommandHandler(this);
-        String userIp = ((InetSocketAddress)controlConnection.getRemoteSocketAddress()).getAddress().getHostAddress();
-        int userPort = ((InetSocketAddress)controlConnection.getRemoteSocketAddress()).getPort();
-        String command = "";
+        String commandName;
+
+        //the clients send ABOR preceded by the Telnet "interrupt process" and "data mark" sequences.
+        commandLine = commandLine.replaceFirst("^[^\\p{Alpha}]+", "");
+        commandName = commandLine.split(" ", 2)[0].toUpperCase();
 
-        userAddress = userIp + ":" + userPort;
+        if(!concurrentCommands.contains(commandName))
+          awaitTransfer();
+
+        lastCommand = executedCommand;
+        currentCommand = commandLine;
+
+        responseDelay = 0;
+
+        //an unexpected error fails only the command, so the session keeps answering.
+        try
+        {
+            commandOutput = commandHandler.executeCommand();
+        }
+        catch(RuntimeException excp)
+        {
+            commandOutput = new CommandOutput
+              (
+                  Response.create(Response.genericError, commandName, "Internal error"),
+                  LogMessage.create(LogMessage.commandError, userAddress, commandName, excp.toString())
+              );
+        }
+
+        //the response of a transfer is sent when it ends.
+        if(commandOutput.getResponse() != null && responseDelay > 0)
+          sendDelayedResponse(commandOutput.getResponse(), responseDelay);
+
+        else if(commandOutput.getResponse() != null)
+          sendResponse(commandOutput.getResponse());
+
+        System.out.print(commandOutput.getLog());
+
+        executedCommand = currentCommand.split(" ", 2)[0].toUpperCase();
+        return !executedCommand.equals("QUIT") && !isClosing;
+    }
+
+    //Method that reads and executes the commands sent by the client until the session ends.
+    private void serveClient()
+    {
+        String commandLine;
 
         System.out.print(LogMessage.create(LogMessage.clientConnected, userAddress));
-        controlConnectionOutput.println(Response.create(Response.readyForUser, Utils.welcomeMessage));
 
         try
         {
+            controlConnectionInput = new BufferedReader(new InputStreamReader(controlConnection.getInputStream()));
+            controlConnectionOutput = new PrintWriter(controlConnection.getOutputStream(), true);
+            controlConnectionOutput.println(Response.create(Response.readyForUser, Utils.welcomeMessage));
             controlConnection.setSoTimeout(controlTimeout);
+            socketTuner.configureControlConnection(controlConnection);
 
-            do
+            while(true)
             {
-                lastCommand = command;
+                try
+                {
+                    commandLine = controlConnectionInput.readLine();
+                }
+                catch(SocketTimeoutException excp)
+                {
+                    //the control connection is idle while a transfer is running.
+                    if(activeTransfer == null)
+                      throw excp;
 
-                if((currentCommand = controlConnectionInput.readLine()) == null)
+                    continue;
+                }
+
+                if(commandLine == null)
                 {
                     System.out.print(LogMessage.create(LogMessage.clientDisconnected, userAddress));
                     break;
                 }
 
-                commandOutput = commandHandler.executeCommand();
-                controlConnectionOutput.println(commandOutput.getResponse());
-                System.out.print(commandOutput.getLog());
-
-                command = currentCommand.split(" ", 2)[0].toUpperCase();
+                if(!processCommand(commandLine))
+                  break;
             }
-            while(!command.equals("QUIT"));
         }
         catch(SocketTimeoutException excp)
         {
@@ -0,0 +1,246 @@
+import java.net.*;
+
+/*
+    Class used to slow down and ban the clients that try to guess the passwords.
+    The failed logins are counted for each client IP address and for each username, and every count decays exponentially
+    (it halves every FAILURE_HALF_LIFE milliseconds), so the old failures are forgotten without any cleaning thread.
+    Each failure is answered after a delay that doubles with the count, and an address whose count reaches the ban threshold
+    is refused at accept time for a while. The usernames are never banned, so a client can't lock out the owner of an account.
+    The counts are kept in a table of fixed size made of small sets of SET_SIZE entries, each with its own lock:
+    the memory is bounded and the sessions of different clients rarely wait for each other. When a set is full, the entry
+    with the lowest count is replaced, so a flood of new keys can only evict the keys that failed less.
+*/
+public class LoginThrottle
+{
+    //entries of each set of the tables.
+    private static final int    SET_SIZE = 8;
+    //milliseconds after which a count of failures halves.
+    private static final double FAILURE_HALF_LIFE = 300000;
+    //maximum delay of a response, unless the base delay is longer.
+    private static final long   MAX_DELAY = 30000;
+
+    private final long         baseDelay;   //delay after the first failure, 0 = no delay
+    private final int          banFailures; //failures of an address that ban it, 0 = no ban
+    private final long         banTime;
+    private final FailureTable addressFailures;
+    private final FailureTable usernameFailures;
+
+    /*
+        Input:
+          1. the delay in milliseconds of the response to the first failure, 0 = no delay.
+          2. the failures of an address that ban it, 0 = no ban.
+          3. the milliseconds for which an address is banned.
+          4. the maximum number of addresses and usernames tracked.
+    */
+    public LoginThrottle(long baseDelay, int banFailures, long banTime, int maxEntries)
+    {
+        this.baseDelay = baseDelay;
+        this.banFailures = banFailures;
+        this.banTime = banTime;
+        addressFailures = new FailureTable(maxEntries / 2);
+        usernameFailures = new FailureTable(maxEntries / 2);
+    }
+
+    /*
+        Method for checking whether a client is banned.
+        Input:
+          1. the address of the client.
+    */
+    public boolean isBanned(InetAddress clientAddress)
+    { return banFailures > 0 && addressFailures.isBanned(clientAddress, System.currentTimeMillis()); }
+
+    /*
+        Method for recording a failed login.
+        Input:
+          1. the address of the client.
+          2. the username, null if it doesn't exist (it's counted only for the address).
+        Return values:
+          1. the delay in milliseconds of the response, -1 if the client has been banned.
+    */
+    public long recordFailure(InetAddress clientAddress, String username)
+    {
+        long currentTime = System.currentTimeMillis();
+        double failures;
+
+        failures = addressFailures.add(clientAddress, currentTime);
+
+        if(banFailures > 0 && failures >= banFailures)
+        {
+            addressFailures.ban(clientAddress, currentTime + banTime);
+            return -1;
+        }
+
+        if(username != null)
+          failures = Math.max(failures, usernameFailures.add(username, currentTime));
+
+        if(baseDelay == 0)
+          return 0;
+
+        return Math.max(baseDelay, Math.min(MAX_DELAY, baseDelay << Math.min(30, Math.round(failures) - 1)));
+    }
+
+    /*
+        Method for recording a successful login: the failures of the username are forgotten.
+        The failures of the address are kept, otherwise a client owning an account could clear them.
+        Input:
+          1. the username.
+    */
+    public void recordSuccess(String username)
+    { usernameFailures.remove(username); }
+
+    /*
+        Class for a table of decaying counts. The entry of a key can only be in the set chosen by its hash;
+        the arrays hold all the sets one after the other.
+    */
+    private static class FailureTable
+    {
+        private final Object[] locks;
+        private final Object[] keys;
+        private final double[] failures;
+        private final long[]   updateTimes;
+        private final long[]   banEndTimes;
+        private final int      setMask;
+
+        FailureTable(int maxEntries)
+        {
+            int sets = Integer.highestOneBit(Math.max(1, maxEntries / SET_SIZE));
+
+            setMask = sets - 1;
+            locks = new Object[sets];
+            keys = new Object[sets * SET_SIZE];
+            failures = new double[sets * SET_SIZE];
+            updateTimes = new long[sets * SET_SIZE];
+            banEndTimes = new long[sets * SET_SIZE];
+
+            for(int i = 0; i < sets; i++)
+              locks[i] = new Object();
+        }
+
+        /*
+            Method for adding a failure to the count of a key.
+            Input:
+              1. the key.
+              2. the current time in milliseconds.
+            Return values:
+              1. the count, decayed until now, including the new failure.
+        */
+        double add(Object key, long currentTime)
+        {
+            int set = setOf(key), entry;
+
+            synchronized(locks[set])
+            {
+                if((entry = find(set, key)) < 0)
+                  entry = replace(set, key, currentTime);
+
+                failures[entry] = decay(entry, currentTime) + 1;
+                updateTimes[entry] = currentTime;
+                return failures[entry];
+            }
+        }
+
+        /*
+            Method for banning a key.
+            Input:
+              1. the key, which must have a count.
+              2. the time in milliseconds at which the ban ends.
+        */
+        void ban(Object key, long banEndTime)
+        {
+            int set = setOf(key), entry;
+
+            synchronized(locks[set])
+            {
+                if((entry = find(set, key)) >= 0)
+                  banEndTimes[entry] = banEndTime;
+            }
+        }
+
+        //Method for checking whether a key is banned at the given time.
+        boolean isBanned(Object key, long currentTime)
+        {
+            int set = setOf(key), entry;
+
+            synchronized(locks[set])
+            { return (entry = find(set, key)) >= 0 && banEndTimes[entry] > currentTime; }
+        }
+
+        //Method for removing the count of a key.
+        void remove(Object key)
+        {
+            int set = setOf(key), entry;
+
+            synchronized(locks[set])
+            {
+                if((entry = find(set, key)) >= 0)
+                  keys[entry] = null;
+            }
+        }
+
+        //Method for obtaining the set of a key.
+        private int setOf(Object key)
+        {
+            int hash = key.hashCode();
+
+            return (hash ^ (hash >>> 16)) & setMask;
+        }
+
+        /*
+            Method for searching a key in its set. The lock of the set must be held.
+            Return values:
+              1. the index of the entry, -1 if not found.
+        */
+        private int find(int set, Object key)
+        {
+            for(int i = set * SET_SIZE; i < (set + 1) * SET_SIZE; i++)
+            {
+                if(key.equals(keys[i]))
+                  return i;
+            }
+
+            return -1;
+        }
+
+        /*
+            Method for assigning an entry of a set to a new key. The lock of the set must be held.
+            The entry chosen is a free one, otherwise the one with the lowest count among those not banned,
+            otherwise the one whose ban ends first.
+            Return values:
+              1. the index of the entry, with no failures.
+        */
+        private int replace(int set, Object key, long currentTime)
+        {
+            int victim = -1;
+            boolean isVictimBanned = true;
+
+            for(int i = set * SET_SIZE; i < (set + 1) * SET_SIZE; i++)
+            {
+                if(keys[i] == null)
+                {
+                    victim = i;
+                    break;
+                }
+
+                if(banEndTimes[i] > currentTime)
+                {
+                    if(isVictimBanned && (victim < 0 || banEndTimes[i] < banEndTimes[victim]))
+                      victim = i;
+                }
+                else if(isVictimBanned || decay(i, currentTime) < decay(victim, currentTime))
+                {
+                    victim = i;
+                    isVictimBanned = false;
+                }
+            }
+
+            keys[victim] = key;
+            failures[victim] = 0;
+            banEndTimes[victim] = 0;
+            return victim;
+        }
+
+        //Method for obtaining the count of an entry decayed until the given time.
+        private double decay(int entry, long currentTime)
+        { return failures[entry] * Math.pow(0.5, (currentTime - updateTimes[entry]) / FAILURE_HALF_LIFE); }
+    }
+}
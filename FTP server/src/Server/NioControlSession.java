@@ -0,0 +1,498 @@
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the client sessions served by the "nio" control engine.
+    The control connection is read by a ControlEventLoop, which hands every complete command line
+    to the session executor. While a command is executing, the control connection is not read,
+    so the commands of a session are always executed one at a time and in order.
+*/
+public class NioControlSession extends JFtpWorker
+{
+    //maximum length of a command line, CRLF included.
+    private static final int MAX_COMMAND_LENGTH = 4096;
+    //initial size of the buffer used to store a partial command line.
+    private static final int INPUT_BUFFER_SIZE = 256;
+
+    private final SocketChannel      controlChannel;
+    private final ControlEventLoop   eventLoop;
+    private final ExecutorService    commandExecutor;
+    private final ScheduledExecutorService responseScheduler;
+    private final InetAddress        clientAddress;
+    private SelectionKey             selectionKey;
+    private ByteBuffer               pendingInput;     //null when there is no pending input
+    private ArrayDeque<ByteBuffer>   pendingOutput;    //null when there is no pending output
+    private String                   delayedResponse;  //response of the last command to send after a delay, null if none
+    private boolean                  isDiscardingLine; //true = the current line is too long and is being discarded
+    private boolean                  isClosed;
+    private boolean                  closeAfterFlush;
+    private volatile boolean         isExecuting;      //true = a command is being executed
+    private volatile long            lastActivity;
+
+    public NioControlSession(SocketChannel controlChannel, ServerContext context, ControlEventLoop eventLoop)
+    {
+        super(controlChannel.socket(), context);
+        this.controlChannel = controlChannel;
+        this.eventLoop = eventLoop;
+        commandExecutor = context.sessionExecutor;
+        responseScheduler = context.responseScheduler;
+        clientAddress = controlChannel.socket().getInetAddress();
+    }
+
+    //Method for obtaining the control connection of the session.
+    SocketChannel getControlChannel()
+    { return controlChannel; }
+
+    /*
+        Method called by the event loop when the control connection has been registered.
+        Input:
+          1. the selection key of the control connection.
+    */
+    void onRegistered(SelectionKey selectionKey)
+    {
+        this.selectionKey = selectionKey;
+        lastActivity = System.currentTimeMillis();
+
+        System.out.print(LogMessage.create(LogMessage.clientConnected, userAddress));
+
+        try
+        {
+            socketTuner.configureControlConnection(controlChannel.socket());
+        }
+        catch(SocketException excp)
+        {
+            System.out.print(LogMessage.create(LogMessage.controlConnectionError, userAddress));
+            close();
+            return;
+        }
+
+        sendResponse(Response.create(Response.readyForUser, Utils.welcomeMessage));
+    }
+
+    /*
+        Method called by the event loop when the control connection can be read.
+        Input:
+          1. the read buffer of the event loop, shared by all its sessions.
+        If a complete command line has been received, the reading is suspended and the command is executed.
+    */
+    void onReadable(ByteBuffer readBuffer)
+    {
+        int size;
+
+        try
+        {
+            readBuffer.clear();
+
+            if((size = controlChannel.read(readBuffer)) < 0)
+            {
+                System.out.print(LogMessage.create(LogMessage.clientDisconnected, userAddress));
+                close();
+                return;
+            }
+        }
+        catch(IOException excp)
+        {
+            System.out.print(LogMessage.create(LogMessage.controlConnectionError, userAddress));
+            close();
+            return;
+        }
+
+        if(size == 0)
+          return;
+
+        lastActivity = System.currentTimeMillis();
+        readBuffer.flip();
+        appendInput(readBuffer);
+
+        if(hasCommandLine())
+        {
+            isExecuting = true;
+            updateInterestOps();
+            commandExecutor.execute(this::executeCommands);
+        }
+    }
+
+    /*
+        Method called by the event loop when the pending responses can be written.
+    */
+    void onWritable()
+    {
+        synchronized(this)
+        {
+            if(!flushOutput())
+              return;
+
+            if(closeAfterFlush && pendingOutput == null)
+            {
+                close();
+                return;
+            }
+        }
+
+        updateInterestOps();
+    }
+
+    /*
+        Method called by the event loop to check the control connection timeout.
+        Input:
+          1. the current time in milliseconds.
+    */
+    void checkTimeout(long currentTime)
+    {
+        if(controlTimeout == 0 || isExecuting || activeTransfer != null || currentTime - lastActivity < controlTimeout)
+          return;
+
+        sendResponse(Response.create(Response.closeConnection, "Client forcibly disconnected"));
+        System.out.print(LogMessage.create(LogMessage.timeoutExpired, userAddress));
+        close();
+    }
+
+    //Method called by the event loop to update the operations of interest of the control connection.
+    void updateInterestOps()
+    {
+        try
+        {
+            selectionKey.interestOps(interestOps());
+        }
+        catch(CancelledKeyException excp)
+        { /* the control connection has been closed by another thread */ }
+    }
+
+    //the control timeout starts again at the end of a transfer running in the background.
+    @Override
+    protected void endTransfer(CommandOutput commandOutput)
+    {
+        lastActivity = System.currentTimeMillis();
+        super.endTransfer(commandOutput);
+    }
+
+    /*
+        Method for sending a response to the client via control connection.
+        Input:
+          1. the response, without the final CRLF.
+        The response is written immediately if possible, otherwise it is queued and written by the event loop.
+    */
+    @Override
+    protected void sendResponse(String response)
+    {
+        ByteBuffer responseBuffer = ByteBuffer.wrap((response + "\r\n").getBytes());
+
+        synchronized(this)
+        {
+            if(isClosed)
+              return;
+
+            if(pendingOutput == null)
+            {
+                try
+                {
+                    controlChannel.write(responseBuffer);
+                }
+                catch(IOException excp)
+                {
+                    System.out.print(LogMessage.create(LogMessage.controlConnectionError, userAddress));
+                    close();
+                    return;
+                }
+
+                if(!responseBuffer.hasRemaining())
+                  return;
+
+                pendingOutput = new ArrayDeque<ByteBuffer>();
+            }
+
+            pendingOutput.add(responseBuffer);
+        }
+
+        eventLoop.updateInterestOps(this);
+    }
+
+    /*
+        Method for sending a response to the client after a delay.
+        Input:
+          1. the response, without the final CRLF.
+          2. the delay in milliseconds.
+        The response is only recorded: the session executor thread is released, and the response is sent by
+        the response scheduler, which then resumes the execution of the commands.
+    */
+    @Override
+    protected void sendDelayedResponse(String response, long delay)
+    { delayedResponse = response; }
+
+    /*
+        Method executed by the session executor: executes all the complete command lines received.
+        If an unexpected error escapes, the session is closed: otherwise it would stay executing forever,
+        never answering nor timing out, and keep its socket and its session slot.
+    */
+    private void executeCommands()
+    {
+        String commandLine;
+        boolean isSessionClosed;
+
+        try
+        {
+            while((commandLine = takeCommandLine()) != null)
+            {
+                if(!processCommand(commandLine))
+                {
+                    releaseTransferResources();
+
+                    synchronized(this)
+                    {
+                        if(pendingOutput != null)
+                        {
+                            closeAfterFlush = true;
+                            return;
+                        }
+                    }
+
+                    close();
+                    return;
+                }
+
+                //the control connection is not read until the delayed response has been sent.
+                if(delayedResponse != null)
+                {
+                    try
+                    {
+                        responseScheduler.schedule(this::resumeCommands, responseDelay, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    catch(RejectedExecutionException excp)
+                    {
+                        sendResponse(delayedResponse);
+                        delayedResponse = null;
+                    }
+                }
+            }
+        }
+        catch(RuntimeException excp)
+        {
+            System.out.print(LogMessage.create(LogMessage.commandError, userAddress, "Session", excp.toString()));
+            close(); //releases nothing while executing
+            isExecuting = false;
+            releaseTransferResources();
+            return;
+        }
+
+        lastActivity = System.currentTimeMillis();
+        isExecuting = false;
+
+        synchronized(this)
+        {
+            isSessionClosed = isClosed;
+        }
+
+        if(isSessionClosed)
+          releaseTransferResources();
+
+        else
+          eventLoop.updateInterestOps(this);
+    }
+
+    //Method executed by the response scheduler: sends the delayed response and executes the next commands.
+    private void resumeCommands()
+    {
+        String response = delayedResponse;
+
+        delayedResponse = null;
+        sendResponse(response);
+        commandExecutor.execute(this::executeCommands);
+    }
+
+    /*
+        Method for appending the received bytes to the pending input.
+        Input:
+          1. the buffer containing the received bytes.
+        The lines longer than MAX_COMMAND_LENGTH are discarded.
+    */
+    private void appendInput(ByteBuffer input)
+    {
+        ByteBuffer newPendingInput;
+        int lineFeedIndex;
+
+        if(isDiscardingLine)
+        {
+            if((lineFeedIndex = indexOfLineFeed(input, input.position())) < 0)
+              return;
+
+            input.position(lineFeedIndex + 1);
+            isDiscardingLine = false;
+        }
+
+        if(!input.hasRemaining())
+          return;
+
+        if(pendingInput == null)
+          pendingInput = ByteBuffer.allocate(Math.max(INPUT_BUFFER_SIZE, input.remaining()));
+
+        else if(pendingInput.remaining() < input.remaining())
+        {
+            newPendingInput = ByteBuffer.allocate(Math.max(pendingInput.capacity() << 1, pendingInput.position() + input.remaining()));
+            pendingInput.flip();
+            pendingInput = newPendingInput.put(pendingInput);
+        }
+
+        pendingInput.put(input);
+
+        if(pendingInput.position() > MAX_COMMAND_LENGTH && !hasCommandLine())
+        {
+            pendingInput = null;
+            isDiscardingLine = true;
+            sendResponse(Response.create(Response.genericError, "Command", "Command line too long"));
+        }
+    }
+
+    //Method for checking whether the pending input contains a complete command line.
+    private boolean hasCommandLine()
+    {
+        if(pendingInput == null)
+          return false;
+
+        pendingInput.flip();
+
+        try
+        {
+            return indexOfLineFeed(pendingInput, 0) >= 0;
+        }
+        finally
+        { pendingInput.compact(); }
+    }
+
+    /*
+        Method for extracting the first complete command line from the pending input.
+        Return values:
+          1. the command line without the final CRLF (or LF), null if there is no complete command line.
+    */
+    private String takeCommandLine()
+    {
+        String commandLine;
+        int lineFeedIndex, lineLength;
+
+        if(pendingInput == null)
+          return null;
+
+        pendingInput.flip();
+
+        if((lineFeedIndex = indexOfLineFeed(pendingInput, 0)) < 0)
+        {
+            pendingInput.compact();
+            return null;
+        }
+
+        lineLength = (lineFeedIndex > 0 && pendingInput.get(lineFeedIndex - 1) == '\r') ? lineFeedIndex - 1 : lineFeedIndex;
+        commandLine = new String(pendingInput.array(), 0, lineLength);
+        pendingInput.position(lineFeedIndex + 1);
+
+        if(pendingInput.hasRemaining())
+          pendingInput.compact();
+
+        else
+          pendingInput = null;
+
+        return commandLine;
+    }
+
+    /*
+        Method for searching for a line feed in a buffer.
+        Input:
+          1. the buffer, ready to be read.
+          2. the index from which to start the search.
+        Return values:
+          1. the index of the line feed, -1 if the buffer doesn't contain it.
+    */
+    private static int indexOfLineFeed(ByteBuffer buffer, int fromIndex)
+    {
+        for(int i = fromIndex; i < buffer.limit(); i++)
+        {
+            if(buffer.get(i) == '\n')
+              return i;
+        }
+
+        return -1;
+    }
+
+    /*
+        Method for writing the pending responses.
+        Return values:
+          1. false if the control connection has been closed, true otherwise.
+    */
+    private boolean flushOutput()
+    {
+        if(isClosed)
+          return false;
+
+        try
+        {
+            while(pendingOutput != null)
+            {
+                controlChannel.write(pendingOutput.peek());
+
+                if(pendingOutput.peek().hasRemaining())
+                  break;
+
+                pendingOutput.poll();
+
+                if(pendingOutput.isEmpty())
+                  pendingOutput = null;
+            }
+        }
+        catch(IOException excp)
+        {
+            System.out.print(LogMessage.create(LogMessage.controlConnectionError, userAddress));
+            close();
+            return false;
+        }
+
+        return true;
+    }
+
+    //Method for obtaining the operations of interest of the control connection.
+    private synchronized int interestOps()
+    { return ((isExecuting) ? 0 : SelectionKey.OP_READ) | ((pendingOutput != null) ? SelectionKey.OP_WRITE : 0); }
+
+    //Method for closing the control connection and releasing the session.
+    private void close()
+    {
+        synchronized(this)
+        {
+            if(isClosed)
+              return;
+
+            isClosed = true;
+            pendingOutput = null;
+        }
+
+        //while a command is executing the transfer resources are in use: they are released at the end of the execution.
+        if(!isExecuting)
+          releaseTransferResourcesLater();
+
+        try
+        {
+            controlChannel.close();
+        }
+        catch(IOException excp)
+        { System.out.print(LogMessage.create(LogMessage.controlConnectionCloseError)); }
+
+        sessionLimiter.release(clientAddress);
+    }
+
+    /*
+        Method for releasing the transfer resources on the session executor, since it waits for the end of the transfer
+        running in the background and close() is usually called by the event loop, which must not block.
+        If the executor has been shut down, the resources are released by the calling thread.
+    */
+    private void releaseTransferResourcesLater()
+    {
+        try
+        {
+            commandExecutor.execute(this::releaseTransferResources);
+        }
+        catch(RejectedExecutionException excp)
+        { releaseTransferResources(); }
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the objects shared by all the sessions of the server, created once at startup from the configuration
+    and passed to each session.
+*/
+public class ServerContext
+{
+    public final ServerConfiguration configuration;
+    public final UserDirectory       userDirectory;
+    public final ExecutorService     sessionExecutor;  //runs the sessions ("blocking" engine) or their commands ("nio" engine)
+    public final ExecutorService     transferExecutor; //runs the transfers in the background
+    public final SessionLimiter      sessionLimiter;
+    public final LoginThrottle       loginThrottle;
+    public final ScheduledExecutorService responseScheduler; //sends the delayed responses of the "nio" sessions
+    public final BufferPool          bufferPool;
+    public final BandwidthManager    bandwidthManager;
+    public final UploadCommitter     uploadCommitter;
+    public final ChecksumCache       checksumCache;
+    public final ListingCache        listingCache;
+    public final MetadataCache       metadataCache;
+    public final ForkJoinPool        listingPool;      //reads the directories of the recursive lists
+    public final StorageBackends     storageBackends;
+
+    /*
+        Input:
+          1. the checked server configuration.
+          2. the storage backends, loaded from the configuration.
+        Throws IOException if the users file can't be read.
+    */
+    public ServerContext(ServerConfiguration configuration, StorageBackends storageBackends) throws IOException
+    {
+        this.configuration = configuration;
+        userDirectory = new UserDirectory(configuration.userlistFile);
+        sessionExecutor = Utils.createSessionExecutor(configuration);
+        transferExecutor = Utils.createTransferExecutor(configuration, sessionExecutor);
+        sessionLimiter = new SessionLimiter(configuration.maxSessions, configuration.maxSessionsPerIp);
+        loginThrottle = new LoginThrottle
+          (configuration.loginFailureDelay, configuration.loginBanFailures, configuration.loginBanTime, configuration.loginThrottleEntries);
+        responseScheduler = Executors.newSingleThreadScheduledExecutor(task ->
+          {
+              Thread schedulerThread = new Thread(task, "jftp-response-scheduler");
+
+              schedulerThread.setDaemon(true);
+              return schedulerThread;
+          });
+        bufferPool = new BufferPool(configuration.transferChunkSize, configuration.bufferPoolMemory);
+        bandwidthManager = new BandwidthManager(configuration.globalBandwidth, configuration.ipBandwidth);
+        uploadCommitter = new UploadCommitter(configuration.uploadDurability);
+        checksumCache = new ChecksumCache(configuration.checksumCacheEntries);
+        listingCache = new ListingCache(configuration.listingCacheMemory);
+        metadataCache = new MetadataCache(configuration.metadataCacheEntries, configuration.metadataCacheTtl);
+        listingPool = new ForkJoinPool(configuration.treeListingThreads);
+        this.storageBackends = storageBackends;
+    }
+}
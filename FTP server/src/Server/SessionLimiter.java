@@ -0,0 +1,70 @@
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+//Class used to limit the number of concurrent sessions, both globally and for each client IP address.
+public class SessionLimiter
+{
+    private final int                                     maxSessions;      //0 = no limit
+    private final int                                     maxSessionsPerIp; //0 = no limit
+    private final AtomicInteger                           activeSessions;
+    private final ConcurrentHashMap<InetAddress, Integer> sessionsPerIp;
+
+    public SessionLimiter(int maxSessions, int maxSessionsPerIp)
+    {
+        this.maxSessions = maxSessions;
+        this.maxSessionsPerIp = maxSessionsPerIp;
+        activeSessions = new AtomicInteger();
+        sessionsPerIp = new ConcurrentHashMap<InetAddress, Integer>();
+    }
+
+    /*
+        Method for admitting a new session.
+        Input:
+          1. the address of the client.
+        Return value:
+          1. true if the session can be started, false if a limit has been reached.
+        Every successful call must be followed by a call to release() when the session ends.
+    */
+    public boolean tryAcquire(InetAddress clientAddress)
+    {
+        boolean[] isAdmitted = {true};
+
+        if(maxSessions > 0 && activeSessions.incrementAndGet() > maxSessions)
+        {
+            activeSessions.decrementAndGet();
+            return false;
+        }
+
+        if(maxSessionsPerIp > 0)
+        {
+            sessionsPerIp.compute(clientAddress, (address, counter) ->
+              {
+                  if(counter == null)
+                    return 1;
+
+                  isAdmitted[0] = counter < maxSessionsPerIp;
+                  return (isAdmitted[0]) ? counter + 1 : counter;
+              });
+
+            if(!isAdmitted[0] && maxSessions > 0)
+              activeSessions.decrementAndGet();
+        }
+
+        return isAdmitted[0];
+    }
+
+    /*
+        Method for releasing a session admitted by tryAcquire().
+        Input:
+          1. the address of the client.
+    */
+    public void release(InetAddress clientAddress)
+    {
+        if(maxSessions > 0)
+          activeSessions.decrementAndGet();
+
+        if(maxSessionsPerIp > 0)
+          sessionsPerIp.computeIfPresent(clientAddress, (address, counter) -> (counter == 1) ? null : counter - 1);
+    }
+}
@@ -0,0 +1,168 @@
+import java.nio.*;
+
+/*
+    Class for converting the end of lines of the data transferred in the ascii types ("A", "A N").
+    The conversion is made in both directions:
+      1. NATIVE_TO_NETWORK: the LF not preceded by CR are replaced by CRLF (used when sending data).
+      2. NETWORK_TO_NATIVE: the CRLF are replaced by LF (used when receiving data).
+    The native end of line is LF, since the server runs only on POSIX systems.
+    The data is converted chunk by chunk and the state is kept between chunks,
+    so a CR at the end of a chunk followed by a LF at the start of the next one is handled correctly.
+    The end of lines are searched for eight bytes at a time, and the runs of bytes between them are copied in bulk.
+*/
+public class AsciiConverter
+{
+    public static final int NATIVE_TO_NETWORK = 0;
+    public static final int NETWORK_TO_NATIVE = 1;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private final int direction;
+    private boolean   isLastByteCR; //NATIVE_TO_NETWORK: true = the last byte of the previous chunk was a CR
+    private boolean   isCRPending;  //NETWORK_TO_NATIVE: true = a CR at the end of the previous chunk has not been written yet
+
+    public AsciiConverter(int direction)
+    { this.direction = direction; }
+
+    /*
+        Method for converting a chunk of data.
+        Input:
+          1. the source buffer.
+          2. the index of the source buffer from which to convert.
+          3. the number of bytes to convert.
+          4. the destination buffer, which can be the source buffer itself.
+          5. the index of the destination buffer from which to write: the region that starts there must not overlap
+             the bytes to convert, and must be at least twice as large as them.
+        Return values:
+          1. the number of bytes written in the destination buffer.
+        The positions and the limits of the buffers are not changed.
+    */
+    public int convert(ByteBuffer source, int sourceOffset, int size, ByteBuffer destination, int destinationOffset)
+    {
+        if(direction == NATIVE_TO_NETWORK)
+          return convertToNetwork(source, sourceOffset, sourceOffset + size, destination, destinationOffset);
+
+        return convertToNative(source, sourceOffset, sourceOffset + size, destination, destinationOffset);
+    }
+
+    /*
+        Method for completing the conversion at the end of the data.
+        Input:
+          1. the destination buffer.
+          2. the index of the destination buffer from which to write, followed by at least one byte.
+        Return values:
+          1. the number of bytes written in the destination buffer.
+    */
+    public int finish(ByteBuffer destination, int destinationOffset)
+    {
+        if(!isCRPending)
+          return 0;
+
+        isCRPending = false;
+        destination.put(destinationOffset, CR);
+        return 1;
+    }
+
+    //Method for replacing the LF not preceded by CR with CRLF.
+    private int convertToNetwork(ByteBuffer source, int sourceIndex, int sourceEnd, ByteBuffer destination, int destinationOffset)
+    {
+        int sourceStart = sourceIndex, destinationIndex = destinationOffset, lineFeedIndex;
+
+        while(sourceIndex < sourceEnd)
+        {
+            lineFeedIndex = indexOf(source, sourceIndex, sourceEnd, LF);
+            destination.put(destinationIndex, source, sourceIndex, lineFeedIndex - sourceIndex);
+            destinationIndex += lineFeedIndex - sourceIndex;
+
+            if(lineFeedIndex == sourceEnd)
+              break;
+
+            if(!((lineFeedIndex > sourceStart) ? source.get(lineFeedIndex - 1) == CR : isLastByteCR))
+              destination.put(destinationIndex++, CR);
+
+            destination.put(destinationIndex++, LF);
+            sourceIndex = lineFeedIndex + 1;
+        }
+
+        if(sourceEnd > sourceStart)
+          isLastByteCR = source.get(sourceEnd - 1) == CR;
+
+        return destinationIndex - destinationOffset;
+    }
+
+    //Method for replacing the CRLF with LF.
+    private int convertToNative(ByteBuffer source, int sourceIndex, int sourceEnd, ByteBuffer destination, int destinationOffset)
+    {
+        int destinationIndex = destinationOffset, carriageReturnIndex;
+
+        if(isCRPending && sourceIndex < sourceEnd)
+        {
+            isCRPending = false;
+
+            if(source.get(sourceIndex) != LF)
+              destination.put(destinationIndex++, CR);
+        }
+
+        while(sourceIndex < sourceEnd)
+        {
+            carriageReturnIndex = indexOf(source, sourceIndex, sourceEnd, CR);
+            destination.put(destinationIndex, source, sourceIndex, carriageReturnIndex - sourceIndex);
+            destinationIndex += carriageReturnIndex - sourceIndex;
+
+            if(carriageReturnIndex == sourceEnd)
+              break;
+
+            if(carriageReturnIndex == sourceEnd - 1)
+            {
+                isCRPending = true;
+                break;
+            }
+
+            if(source.get(carriageReturnIndex + 1) != LF)
+              destination.put(destinationIndex++, CR);
+
+            sourceIndex = carriageReturnIndex + 1;
+        }
+
+        return destinationIndex - destinationOffset;
+    }
+
+    /*
+        Method for searching for a byte in a buffer.
+        Input:
+          1. the buffer.
+          2. the index from which to start the search.
+          3. the index at which to stop the search (excluded).
+          4. the byte to search for.
+        Return values:
+          1. the index of the first occurrence of the byte, or the end index if the byte is not found.
+        Eight bytes are compared at a time: after the XOR with the byte repeated eight times, the bytes equal to
+        the searched one become zero, and the zero bytes are marked exactly (without the false positives of the
+        classic "has zero byte" test, so that the first one can be found in both byte orders).
+    */
+    private static int indexOf(ByteBuffer buffer, int fromIndex, int toIndex, byte value)
+    {
+        long pattern = LOW_BITS * (value & 0xFF), word, zeroBytes;
+        boolean isLittleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+        int i = fromIndex;
+
+        for(; i + Long.BYTES <= toIndex; i += Long.BYTES)
+        {
+            word = buffer.getLong(i) ^ pattern;
+
+            if((zeroBytes = ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word | LOW_SEVEN_BITS)) != 0)
+              return i + (((isLittleEndian) ? Long.numberOfTrailingZeros(zeroBytes) : Long.numberOfLeadingZeros(zeroBytes)) >>> 3);
+        }
+
+        for(; i < toIndex; i++)
+        {
+            if(buffer.get(i) == value)
+              return i;
+        }
+
+        return toIndex;
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the content-addressed store of the uploads of the "dedup" directories: each distinct content is kept once,
+    as a blob named after its SHA-256 digest, and the uploaded files are hard links to their blob.
+    The digest is computed while the upload streams into its temporary file. At the end, a new content becomes a blob
+    with a second link to the temporary file, which then gets its final name as usual. A content already in the store
+    is linked to the existing blob, and the temporary file is deleted without being forced: its data usually leaves
+    the page cache before the kernel writes it back, so a repeated upload costs only a link and a rename on the disk.
+    The files with the same content share their inode, whose modification time is never changed after the first upload:
+    the time of each later upload is recorded for its pathname by LinkTimes, so the other files keep their own time.
+    A file written in place (APPE, REST) is first copied out of its blob, so the other files with the same content don't change.
+    The blobs linked only by the store are deleted by a sweep, at startup and then periodically.
+    If the hard links can't be created (for example because the blob directory is on another file system),
+    the uploads are stored as plain files.
+*/
+public class BlobStore
+{
+    public static final String ALGORITHM = "SHA-256";
+
+    //name of the journal of the modification times, in the directory of the blobs.
+    private static final String LINK_TIMES = "link-times";
+
+    //milliseconds between the sweeps of the unused blobs.
+    private static final long SWEEP_INTERVAL = 600000;
+
+    private final Path blobDirectory;
+
+    /*
+        Input:
+          1. the pathname of the directory of the blobs, created if it doesn't exist.
+        Throws IOException if the directory can't be created or the journal of the modification times can't be opened.
+    */
+    public BlobStore(Path blobDirectory) throws IOException
+    {
+        Thread sweeperThread;
+
+        this.blobDirectory = Files.createDirectories(blobDirectory.toAbsolutePath().normalize());
+        LinkTimes.open(this.blobDirectory.resolve(LINK_TIMES));
+
+        sweeperThread = new Thread(this::sweepBlobs, "jftp-blob-sweeper");
+        sweeperThread.setDaemon(true);
+        sweeperThread.start();
+    }
+
+    /*
+        Method for committing an upload written to a temporary file.
+        Input:
+          1. the temporary file, closed.
+          2. the final pathname of the file.
+          3. the digest of the whole file, computed with ALGORITHM.
+          4. the committer which makes the file visible and durable.
+        When the method returns, the file has its final name, linked to the blob of its content if possible.
+    */
+    public void commit(Path file, Path target, FileDigest digest, UploadCommitter uploadCommitter) throws IOException
+    {
+        Path blob = getBlob(digest.getValue()), link;
+
+        try
+        {
+            Files.createDirectories(blob.getParent());
+            Files.createLink(blob, file);
+            uploadCommitter.commit(file, target);
+            return;
+        }
+        catch(FileAlreadyExistsException excp)
+        { /* the content is already in the store */ }
+        catch(IOException | UnsupportedOperationException excp)
+        {
+            uploadCommitter.commit(file, target);
+            return;
+        }
+
+        link = target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".link");
+
+        try
+        {
+            Files.createLink(link, blob);
+        }
+        catch(IOException | UnsupportedOperationException excp)
+        {
+            uploadCommitter.commit(file, target); //the blob has just been swept
+            return;
+        }
+
+        try
+        {
+            LinkTimes.put(target, Files.readAttributes(link, BasicFileAttributes.class).fileKey(), FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch(IOException excp)
+        {
+            Files.deleteIfExists(link);
+            uploadCommitter.commit(file, target); //without its own time, the file can't share the blob
+            return;
+        }
+
+        try
+        {
+            Files.delete(file);
+            uploadCommitter.commit(link, target);
+        }
+        catch(IOException excp)
+        {
+            Files.deleteIfExists(link);
+            throw excp;
+        }
+    }
+
+    /*
+        Method for preparing a file to be written in place: if it's linked to a blob, it's replaced by a copy of its own.
+        Input:
+          1. the pathname of the file.
+        The copy replaces the file atomically, so the readers see either the file or its copy, which keeps the time of the file.
+    */
+    public void detach(Path file) throws IOException
+    {
+        Map<String, Object> attributes;
+        Path copy;
+
+        try
+        {
+            if(!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) ||
+               (Integer)(attributes = Files.readAttributes(file, "unix:nlink,fileKey,lastModifiedTime", LinkOption.NOFOLLOW_LINKS)).get("nlink") < 2)
+              return;
+        }
+        catch(UnsupportedOperationException excp)
+        { return; } //no hard links on this platform
+
+        copy = file.resolveSibling("." + file.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+
+        try
+        {
+            Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.setLastModifiedTime(copy, LinkTimes.get(file, attributes.get("fileKey"), (FileTime)attributes.get("lastModifiedTime")));
+            Files.move(copy, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException excp)
+        {
+            Files.deleteIfExists(copy);
+            throw excp;
+        }
+    }
+
+    /*
+        Method for obtaining the pathname of a blob.
+        Input:
+          1. the digest of the content.
+        Return value:
+          1. the pathname, in a subdirectory named after the first two digits of the digest.
+    */
+    private Path getBlob(String digest)
+    { return blobDirectory.resolve(digest.substring(0, 2)).resolve(digest); }
+
+    //Method executed by the sweeper thread.
+    private void sweepBlobs()
+    {
+        long count;
+
+        while(true)
+        {
+            count = 0;
+
+            try(DirectoryStream<Path> subdirectories = Files.newDirectoryStream(blobDirectory))
+            {
+                for(Path subdirectory : subdirectories)
+                {
+                    if(!Files.isDirectory(subdirectory, LinkOption.NOFOLLOW_LINKS))
+                      continue; //the journal of the modification times
+
+                    try(DirectoryStream<Path> blobs = Files.newDirectoryStream(subdirectory))
+                    {
+                        for(Path blob : blobs)
+                        {
+                            if((Integer)Files.getAttribute(blob, "unix:nlink", LinkOption.NOFOLLOW_LINKS) == 1 && Files.deleteIfExists(blob))
+                              count++;
+                        }
+                    }
+                    catch(IOException excp)
+                    { /* the blobs of this subdirectory are swept the next time */ }
+                }
+            }
+            catch(IOException | UnsupportedOperationException excp)
+            { return; }
+
+            if(count > 0)
+              System.out.print(LogMessage.create(LogMessage.blobsSwept, Long.toString(count)));
+
+            LinkTimes.compact();
+
+            try
+            {
+                Thread.sleep(SWEEP_INTERVAL);
+            }
+            catch(InterruptedException excp)
+            { return; }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/*
+    Class for receiving data in the block transfer mode ("B", RFC 959).
+    The end of the data is the block with the EOF descriptor: after it the stream returns -1,
+    and the close method doesn't close the data connection, which can be used for the next transfers.
+    The restart marker blocks don't contain data of the file and are skipped.
+    The stream is created once for each session and opened on the data connection of each transfer. It's also a channel,
+    which reads the data through a buffer of its own, also used to skip the restart markers and to read single bytes.
+*/
+public class BlockInputStream extends FilterInputStream implements ReadableByteChannel
+{
+    private static final int RESTART_MARKER_DESCRIPTOR = 16;
+
+    private final byte[] header = new byte[BlockOutputStream.HEADER_SIZE];
+    private final byte[] buffer = new byte[Utils.BUFFER_SIZE];
+    private int          remaining; //bytes of the current block not read yet
+    private boolean      isLastBlock;
+    private boolean      isClosed = true;
+
+    public BlockInputStream()
+    { super(null); }
+
+    /*
+        Method for starting a transfer.
+        Input:
+          1. the input stream of the data connection.
+        Return values:
+          1. the stream, open.
+    */
+    public BlockInputStream open(InputStream source)
+    {
+        in = source;
+        remaining = 0;
+        isLastBlock = false;
+        isClosed = false;
+        return this;
+    }
+
+    @Override
+    public int read() throws IOException
+    { return (read(buffer, 0, 1) < 0) ? -1 : buffer[0] & 0xFF; }
+
+    @Override
+    public int read(byte[] data, int offset, int length) throws IOException
+    {
+        int size;
+
+        if(length == 0)
+          return 0;
+
+        while(remaining == 0)
+        {
+            if(isLastBlock)
+              return -1;
+
+            readHeader();
+        }
+
+        if((size = in.read(data, offset, Math.min(length, remaining))) < 0)
+          throw new EOFException("Data connection closed inside a block");
+
+        remaining -= size;
+        return size;
+    }
+
+    @Override
+    public int read(ByteBuffer data) throws IOException
+    {
+        int size;
+
+        if(isClosed)
+          throw new ClosedChannelException();
+
+        if((size = read(buffer, 0, Math.min(buffer.length, data.remaining()))) > 0)
+          data.put(buffer, 0, size);
+
+        return size;
+    }
+
+    @Override
+    public int available() throws IOException
+    { return Math.min(remaining, in.available()); }
+
+    @Override
+    public boolean isOpen()
+    { return !isClosed; }
+
+    //The data connection stays open.
+    @Override
+    public void close()
+    { isClosed = true; }
+
+    //Method for reading the header of the next block, skipping the restart markers.
+    private void readHeader() throws IOException
+    {
+        int descriptor, count;
+
+        readFully(header, header.length);
+        descriptor = header[0] & 0xFF;
+        remaining = ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+        isLastBlock = (descriptor & BlockOutputStream.EOF_DESCRIPTOR) != 0;
+
+        if((descriptor & RESTART_MARKER_DESCRIPTOR) != 0)
+        {
+            while(remaining > 0)
+            {
+                count = Math.min(remaining, buffer.length);
+                readFully(buffer, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    /*
+        Method for reading an exact number of bytes.
+        Input:
+          1. the destination array.
+          2. the number of bytes to read.
+    */
+    private void readFully(byte[] data, int length) throws IOException
+    {
+        int count = 0, size;
+
+        while(count < length)
+        {
+            if((size = in.read(data, count, length - count)) < 0)
+              throw new EOFException("Data connection closed inside a block");
+
+            count += size;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/*
+    Class for sending data in the block transfer mode ("B", RFC 959).
+    The data is sent in blocks made of a header (a descriptor byte and a 16 bit byte count) followed by the data.
+    The last block has the EOF descriptor, so the end of the data doesn't depend on closing the data connection,
+    which is therefore not closed by the close method and can be used for the next transfers.
+    The stream is created once for each session and opened on the data connection of each transfer, so the block
+    is reused by all the transfers. It's also a channel, which copies the data from the buffer directly into the block.
+*/
+public class BlockOutputStream extends FilterOutputStream implements WritableByteChannel
+{
+    public static final int MAX_BLOCK_SIZE = 65535;
+    public static final int HEADER_SIZE = 3;
+    public static final int EOF_DESCRIPTOR = 64;
+
+    //header and data of the block being filled.
+    private final byte[] block = new byte[HEADER_SIZE + MAX_BLOCK_SIZE];
+    private int          size;
+    private boolean      isClosed = true;
+
+    public BlockOutputStream()
+    { super(null); }
+
+    /*
+        Method for starting a transfer.
+        Input:
+          1. the output stream of the data connection.
+        Return values:
+          1. the stream, open.
+    */
+    public BlockOutputStream open(OutputStream destination)
+    {
+        out = destination;
+        size = 0;
+        isClosed = false;
+        return this;
+    }
+
+    @Override
+    public void write(int data) throws IOException
+    {
+        if(size == MAX_BLOCK_SIZE)
+          sendBlock(0);
+
+        block[HEADER_SIZE + size++] = (byte)data;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException
+    {
+        int count;
+
+        while(length > 0)
+        {
+            if(size == MAX_BLOCK_SIZE)
+              sendBlock(0);
+
+            count = Math.min(length, MAX_BLOCK_SIZE - size);
+            System.arraycopy(data, offset, block, HEADER_SIZE + size, count);
+            size += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer data) throws IOException
+    {
+        int length = data.remaining(), count;
+
+        if(isClosed)
+          throw new ClosedChannelException();
+
+        while(data.hasRemaining())
+        {
+            if(size == MAX_BLOCK_SIZE)
+              sendBlock(0);
+
+            count = Math.min(data.remaining(), MAX_BLOCK_SIZE - size);
+            data.get(block, HEADER_SIZE + size, count);
+            size += count;
+        }
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen()
+    { return !isClosed; }
+
+    //Method for sending the last block, with the EOF descriptor. The data connection stays open.
+    @Override
+    public void close() throws IOException
+    {
+        if(isClosed)
+          return;
+
+        isClosed = true;
+        sendBlock(EOF_DESCRIPTOR);
+        out.flush();
+    }
+
+    /*
+        Method for sending the block being filled, with a single write.
+        Input:
+          1. the descriptor of the block.
+    */
+    private void sendBlock(int descriptor) throws IOException
+    {
+        block[0] = (byte)descriptor;
+        block[1] = (byte)(size >>> 8);
+        block[2] = (byte)size;
+        out.write(block, 0, HEADER_SIZE + size);
+        size = 0;
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+    Class for the direct buffers used by the data transfers, shared by all the sessions of the server.
+    All the buffers have the same size (the size class), they are allocated only when needed and never freed,
+    so after the first transfers the transfer path doesn't allocate memory anymore.
+    The memory used by the buffers is capped: when all the buffers are in use, the transfers
+    wait for a buffer to be returned instead of allocating a new one.
+*/
+public class BufferPool
+{
+    private final int                        bufferSize;
+    private final int                        maxBuffers;
+    private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+    private final AtomicInteger              allocatedBuffers = new AtomicInteger();
+
+    /*
+        Input:
+          1. the size of the buffers.
+          2. the maximum memory used by the buffers, at least one buffer is always allowed.
+    */
+    public BufferPool(int bufferSize, long maxMemory)
+    {
+        this.bufferSize = bufferSize;
+        maxBuffers = (int)Math.max(1, Math.min(Integer.MAX_VALUE, maxMemory / bufferSize));
+        freeBuffers = new ArrayBlockingQueue<ByteBuffer>(maxBuffers);
+    }
+
+    //Method for obtaining the size of the buffers.
+    public int getBufferSize()
+    { return bufferSize; }
+
+    /*
+        Method for borrowing a buffer.
+        Return values:
+          1. a cleared buffer in the native byte order, which must be returned with the release method.
+        If the memory cap has been reached and all the buffers are in use, it waits for a buffer to be returned.
+    */
+    public ByteBuffer acquire() throws IOException
+    {
+        ByteBuffer buffer;
+        int allocated;
+
+        if((buffer = freeBuffers.poll()) != null)
+          return buffer;
+
+        while((allocated = allocatedBuffers.get()) < maxBuffers)
+        {
+            if(allocatedBuffers.compareAndSet(allocated, allocated + 1))
+              return ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        }
+
+        try
+        {
+            return freeBuffers.take();
+        }
+        catch(InterruptedException excp)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a transfer buffer");
+        }
+    }
+
+    /*
+        Method for returning a borrowed buffer.
+        Input:
+          1. the buffer.
+    */
+    public void release(ByteBuffer buffer)
+    { freeBuffers.offer(buffer.clear()); }
+}
@@ -0,0 +1,81 @@
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the checksums of the files computed by the transfers and by the HASH commands, shared by all the sessions.
+    A checksum is keyed by the pathname, the size and the last modification time of the file, so a file changed
+    in any way is hashed again, while a repeated request costs a lookup. The least recently used checksums are evicted
+    when the cache is full.
+*/
+public class ChecksumCache
+{
+    private final LinkedHashMap<String, String> checksums; //null = no cache
+
+    /*
+        Input:
+          1. the maximum number of checksums kept (0 = no cache).
+    */
+    public ChecksumCache(int maxEntries)
+    {
+        if(maxEntries <= 0)
+        {
+            checksums = null;
+            return;
+        }
+
+        checksums = new LinkedHashMap<String, String>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+            { return size() > maxEntries; }
+        };
+    }
+
+    /*
+        Method for searching the checksum of a file.
+        Input:
+          1. the pathname of the file.
+          2. the attributes of the file.
+          3. the name of the algorithm.
+        Return value:
+          1. the checksum, null if it's not in the cache.
+    */
+    public String get(Path file, BasicFileAttributes attributes, String algorithm)
+    {
+        if(checksums == null)
+          return null;
+
+        synchronized(checksums)
+        {
+            return checksums.get(createKey(file, attributes, algorithm));
+        }
+    }
+
+    /*
+        Method for adding the checksum of a file.
+        Input:
+          1. the pathname of the file.
+          2. the attributes of the file when the checksum was computed.
+          3. the name of the algorithm.
+          4. the checksum.
+    */
+    public void put(Path file, BasicFileAttributes attributes, String algorithm, String checksum)
+    {
+        if(checksums == null)
+          return;
+
+        synchronized(checksums)
+        {
+            checksums.put(createKey(file, attributes, algorithm), checksum);
+        }
+    }
+
+    //Method for creating the key of a checksum. The files outside the default file system are keyed by their URI.
+    private static String createKey(Path file, BasicFileAttributes attributes, String algorithm)
+    {
+        return algorithm + ' ' + attributes.size() + ' ' + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) + ' ' +
+               ((file.getFileSystem() == FileSystems.getDefault()) ? file.toAbsolutePath().normalize() : file.toUri());
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.zip.*;
+
+/*
+    Class for sending data compressed with deflate in the "Z" transfer mode.
+    The channel is created once for each session and opened on the data connection of each transfer, so the compressor
+    and its output buffer are reused by all the transfers. The data is compressed directly from the buffer passed to write.
+    The close method ends the compressed data without closing the data connection.
+*/
+public class DeflaterChannel implements WritableByteChannel
+{
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private final Deflater deflater;
+    private final byte[]   output = new byte[Utils.BUFFER_SIZE]; //compressed data to send
+    private OutputStream   destination;                           //null if closed
+
+    /*
+        Input:
+          1. the compression level, from 0 to 9.
+    */
+    public DeflaterChannel(int compressionLevel)
+    { deflater = new Deflater(compressionLevel); }
+
+    /*
+        Method for starting a transfer.
+        Input:
+          1. the output stream of the data connection.
+        Return values:
+          1. the channel, open.
+    */
+    public DeflaterChannel open(OutputStream destination)
+    {
+        deflater.reset();
+        this.destination = destination;
+        return this;
+    }
+
+    @Override
+    public int write(ByteBuffer data) throws IOException
+    {
+        int length = data.remaining();
+
+        if(destination == null)
+          throw new ClosedChannelException();
+
+        deflater.setInput(data);
+
+        try
+        {
+            while(!deflater.needsInput())
+              deflate();
+        }
+        finally
+        { deflater.setInput(NO_INPUT); } //the buffer is not kept, since it may be reused for something else before the next write
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen()
+    { return destination != null; }
+
+    //Method for sending the end of the compressed data. The data connection stays open.
+    @Override
+    public void close() throws IOException
+    {
+        if(destination == null)
+          return;
+
+        try
+        {
+            deflater.finish();
+
+            while(!deflater.finished())
+              deflate();
+
+            destination.flush();
+        }
+        finally
+        { destination = null; }
+    }
+
+    //Method for releasing the native memory of the compressor at the end of the session.
+    public void end()
+    { deflater.end(); }
+
+    //Method for sending the data compressed so far.
+    private void deflate() throws IOException
+    {
+        int size = deflater.deflate(output, 0, output.length);
+
+        if(size > 0)
+          destination.write(output, 0, size);
+    }
+}
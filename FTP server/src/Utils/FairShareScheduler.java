@@ -0,0 +1,115 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/*
+    Class for sharing the global bandwidth among the users in proportion to their weights (start-time fair queuing).
+    Every chunk of a transfer receives a start tag, which is the finish tag of the previous chunk of the same user
+    (or the current virtual time, if the user was idle), and advances the finish tag of the user by its size divided by
+    the weight of the user. The chunks are released in order of start tag, at the global rate: so under contention
+    each user receives bandwidth in proportion to its weight, however many connections it has opened,
+    while a user alone can use all the bandwidth.
+*/
+public class FairShareScheduler
+{
+    //bandwidth that a transfer can use at once after being idle, in nanoseconds at the global rate.
+    private static final long BURST_TIME = 10000000;
+
+    private final double                   nanosPerByte;
+    private final ReentrantLock            lock = new ReentrantLock();
+    private final Condition                turnChanged = lock.newCondition();
+    private final PriorityQueue<FairShare> waitingShares = new PriorityQueue<FairShare>();
+    private double                         virtualTime;
+    private long                           nextReleaseTime;
+    private long                           sequenceNumber;
+
+    /*
+        Input:
+          1. the global rate in bytes per second.
+    */
+    public FairShareScheduler(long rate)
+    {
+        nanosPerByte = 1e9 / rate;
+        nextReleaseTime = System.nanoTime();
+    }
+
+    /*
+        Method for waiting for the turn of a chunk.
+        Input:
+          1. the share of the session which transferred the chunk.
+          2. the size of the chunk.
+    */
+    public void consume(FairShare share, long count) throws InterruptedIOException
+    {
+        long now;
+
+        lock.lock();
+
+        try
+        {
+            share.startTag = Math.max(virtualTime, share.user.finishTag);
+            share.sequenceNumber = sequenceNumber++;
+            share.user.finishTag = share.startTag + count / share.user.weight;
+            waitingShares.add(share);
+
+            while(true)
+            {
+                now = System.nanoTime();
+
+                if(waitingShares.peek() != share)
+                  turnChanged.await();
+
+                else if(now < nextReleaseTime)
+                  turnChanged.awaitNanos(nextReleaseTime - now);
+
+                else
+                  break;
+            }
+
+            waitingShares.poll();
+            virtualTime = share.startTag;
+            nextReleaseTime = Math.max(nextReleaseTime, now - BURST_TIME) + (long)(count * nanosPerByte);
+            turnChanged.signalAll();
+        }
+        catch(InterruptedException excp)
+        {
+            waitingShares.remove(share);
+            turnChanged.signalAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+        finally
+        { lock.unlock(); }
+    }
+}
+
+//class for the state of a user in the fair share scheduler.
+class FairShareUser
+{
+    final double weight;
+    double       finishTag; //guarded by the lock of the scheduler
+
+    FairShareUser(int weight)
+    { this.weight = weight; }
+}
+
+//class for the chunk of a session waiting in the fair share scheduler.
+class FairShare implements Comparable<FairShare>
+{
+    final FairShareUser user;
+    double              startTag;       //guarded by the lock of the scheduler
+    long                sequenceNumber; //guarded by the lock of the scheduler
+
+    FairShare(FairShareUser user)
+    { this.user = user; }
+
+    @Override
+    public int compareTo(FairShare other)
+    {
+        if(startTag != other.startTag)
+          return (startTag < other.startTag) ? -1 : 1;
+
+        return Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+}
@@ -0,0 +1,83 @@
+import java.nio.*;
+import java.security.*;
+import java.util.*;
+import java.util.zip.*;
+
+/*
+    Class for computing the checksum of a file while its data streams through the transfer buffers.
+    The algorithms are named as in the HASH command: "CRC32", "MD5", "SHA-1", "SHA-256" and "SHA-512".
+*/
+public class FileDigest
+{
+    public static final List<String> ALGORITHMS = List.of("CRC32", "MD5", "SHA-1", "SHA-256", "SHA-512");
+
+    private final String        algorithm;
+    private final CRC32         crc;           //null if the algorithm is not "CRC32"
+    private final MessageDigest messageDigest; //null if the algorithm is "CRC32"
+    private long                size;
+    private String              value;         //null until computed
+
+    /*
+        Input:
+          1. the name of the algorithm, one of ALGORITHMS.
+    */
+    public FileDigest(String algorithm)
+    {
+        this.algorithm = algorithm;
+
+        if(algorithm.equals("CRC32"))
+        {
+            crc = new CRC32();
+            messageDigest = null;
+            return;
+        }
+
+        crc = null;
+
+        try
+        {
+            messageDigest = MessageDigest.getInstance(algorithm);
+        }
+        catch(NoSuchAlgorithmException excp)
+        { throw new IllegalArgumentException(algorithm); }
+    }
+
+    /*
+        Method for adding data to the checksum.
+        Input:
+          1. the buffer containing the data between its position and its limit, which are not changed.
+    */
+    public void update(ByteBuffer buffer)
+    {
+        int position = buffer.position();
+
+        size += buffer.remaining();
+
+        if(crc != null)
+          crc.update(buffer);
+        else
+          messageDigest.update(buffer);
+
+        buffer.position(position);
+    }
+
+    //Method for obtaining the name of the algorithm.
+    public String getAlgorithm()
+    { return algorithm; }
+
+    //Method for obtaining the number of bytes added to the checksum.
+    public long getSize()
+    { return size; }
+
+    /*
+        Method for obtaining the checksum of the data added, in lowercase hexadecimal digits.
+        No data can be added after this call.
+    */
+    public String getValue()
+    {
+        if(value == null)
+          value = (crc != null) ? String.format("%08x", crc.getValue()) : HexFormat.of().formatHex(messageDigest.digest());
+
+        return value;
+    }
+}
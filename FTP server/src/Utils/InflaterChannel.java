@@ -0,0 +1,83 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.zip.*;
+
+/*
+    Class for receiving data compressed with deflate in the "Z" transfer mode.
+    The channel is created once for each session and opened on the data connection of each transfer, so the decompressor
+    and its input buffer are reused by all the transfers. The data is decompressed directly into the buffer passed to read.
+    The end of the data is the end of the compressed stream; the close method doesn't close the data connection.
+*/
+public class InflaterChannel implements ReadableByteChannel
+{
+    private final Inflater inflater = new Inflater();
+    private final byte[]   input = new byte[Utils.BUFFER_SIZE]; //compressed data received
+    private InputStream    source;                             //null if closed
+
+    /*
+        Method for starting a transfer.
+        Input:
+          1. the input stream of the data connection.
+        Return values:
+          1. the channel, open.
+    */
+    public InflaterChannel open(InputStream source)
+    {
+        inflater.reset();
+        this.source = source;
+        return this;
+    }
+
+    @Override
+    public int read(ByteBuffer data) throws IOException
+    {
+        int size;
+
+        if(source == null)
+          throw new ClosedChannelException();
+
+        if(!data.hasRemaining())
+          return 0;
+
+        try
+        {
+            while((size = inflater.inflate(data)) == 0)
+            {
+                if(inflater.finished() || inflater.needsDictionary())
+                  return -1;
+
+                if(inflater.needsInput())
+                  fill();
+            }
+        }
+        catch(DataFormatException excp)
+        { throw new ZipException((excp.getMessage() == null) ? "Invalid ZLIB data format" : excp.getMessage()); }
+
+        return size;
+    }
+
+    @Override
+    public boolean isOpen()
+    { return source != null; }
+
+    //The data connection stays open.
+    @Override
+    public void close()
+    { source = null; }
+
+    //Method for releasing the native memory of the decompressor at the end of the session.
+    public void end()
+    { inflater.end(); }
+
+    //Method for reading the next compressed data from the data connection.
+    private void fill() throws IOException
+    {
+        int size;
+
+        if((size = source.read(input, 0, input.length)) < 0)
+          throw new EOFException("Unexpected end of ZLIB input stream");
+
+        inflater.setInput(input, 0, size);
+    }
+}
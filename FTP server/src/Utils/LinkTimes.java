@@ -0,0 +1,199 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the modification times of the files linked to a blob of the BlobStore. The files with the same content share
+    their inode, whose modification time is the time of the first upload of the content and is never changed afterwards,
+    so an upload doesn't change the time of the other files. Each upload linked to an existing blob records its own time here,
+    under the pathname of the file and the key of its inode: LIST, MLSD, MLST and MDTM show the recorded time as long as
+    the pathname is linked to that inode. A file replaced or written in place gets an inode of its own, so its record is ignored.
+    The records are appended to a journal in the blob directory, so they survive the restarts, and the journal is rewritten
+    without the records no longer valid at each sweep of the blobs. Like the uploads, the journal is not forced:
+    a file whose record is lost in a crash shows the time of the first upload of its content.
+    The records are shared by all the sessions, so the listings read them without a reference to the blob store.
+*/
+public class LinkTimes
+{
+    private static final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<String, Record>();
+    private static Path                                    journal;       //null if no directory is deduplicated
+    private static BufferedWriter                          journalWriter; //guarded by LinkTimes.class
+
+    /*
+        Method for loading the records and opening the journal, called once by the blob store.
+        Input:
+          1. the pathname of the journal, created if it doesn't exist.
+        The lines which can't be parsed (the last one, if the server stopped while writing it) are skipped.
+    */
+    static synchronized void open(Path journal) throws IOException
+    {
+        String line;
+        String[] lineTokens;
+
+        if(Files.exists(journal))
+        {
+            try(BufferedReader journalReader = Files.newBufferedReader(journal, StandardCharsets.UTF_8))
+            {
+                while((line = journalReader.readLine()) != null)
+                {
+                    lineTokens = line.split(" ", 3);
+
+                    try
+                    {
+                        if(lineTokens.length == 3)
+                          records.put(lineTokens[2], new Record(lineTokens[1], FileTime.fromMillis(Long.parseLong(lineTokens[0]))));
+                    }
+                    catch(NumberFormatException excp)
+                    { /* the line is skipped */ }
+                }
+            }
+        }
+
+        LinkTimes.journal = journal;
+        journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /*
+        Method for obtaining the modification time of a file shown to the clients.
+        Input:
+          1. the pathname of the file.
+          2. the key of the inode of the file.
+          3. the modification time of the inode.
+        Return value:
+          1. the time recorded for the pathname if it's still linked to the same inode, otherwise the time of the inode.
+    */
+    public static FileTime get(Path file, Object fileKey, FileTime modifiedTime)
+    {
+        Record record;
+
+        if(records.isEmpty() || (record = records.get(file.toString())) == null || !record.fileKey.equals(String.valueOf(fileKey)))
+          return modifiedTime;
+
+        return record.modifiedTime;
+    }
+
+    /*
+        Method for recording the modification time of a file linked to a blob.
+        Input:
+          1. the pathname of the file.
+          2. the key of the inode of the blob.
+          3. the modification time of the file.
+        Throws IOException if the record can't be added to the journal.
+    */
+    static synchronized void put(Path file, Object fileKey, FileTime modifiedTime) throws IOException
+    {
+        Record record = new Record(String.valueOf(fileKey), modifiedTime);
+
+        append(file.toString(), record);
+        records.put(file.toString(), record);
+    }
+
+    /*
+        Method for moving the record of a renamed file.
+        Input:
+          1. the old pathname.
+          2. the new pathname.
+    */
+    public static synchronized void rename(Path source, Path target)
+    {
+        Record record;
+
+        if(records.isEmpty() || (record = records.remove(source.toString())) == null)
+          return;
+
+        records.put(target.toString(), record);
+
+        try
+        {
+            append(target.toString(), record);
+        }
+        catch(IOException excp)
+        { /* the record is kept until the server stops */ }
+    }
+
+    /*
+        Method for dropping the records no longer valid and rewriting the journal, executed by the sweeper of the blob store.
+        The files are checked without holding the lock, so the uploads aren't delayed.
+    */
+    static void compact()
+    {
+        ArrayList<Map.Entry<String, Record>> invalidRecords = new ArrayList<Map.Entry<String, Record>>();
+        Path compactedJournal;
+
+        for(Map.Entry<String, Record> entry : records.entrySet())
+        {
+            try
+            {
+                if(!entry.getValue().fileKey.equals(String.valueOf(
+                     Files.readAttributes(Paths.get(entry.getKey()), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey())))
+                  invalidRecords.add(entry);
+            }
+            catch(IOException excp)
+            { invalidRecords.add(entry); }
+        }
+
+        synchronized(LinkTimes.class)
+        {
+            for(Map.Entry<String, Record> entry : invalidRecords)
+              records.remove(entry.getKey(), entry.getValue());
+
+            compactedJournal = journal.resolveSibling(journal.getFileName() + ".part");
+
+            try
+            {
+                try(BufferedWriter compactedWriter = Files.newBufferedWriter(compactedJournal, StandardCharsets.UTF_8))
+                {
+                    for(Map.Entry<String, Record> entry : records.entrySet())
+                      write(compactedWriter, entry.getKey(), entry.getValue());
+                }
+
+                Files.move(compactedJournal, journal, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(IOException excp)
+            { /* the old journal is kept, and compacted the next time */ }
+
+            try
+            {
+                if(journalWriter != null)
+                  journalWriter.close(); //the old journal, if it was replaced
+
+                journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            catch(IOException excp)
+            { journalWriter = null; } //the next records are kept until the server stops
+        }
+    }
+
+    //Method for appending a record to the journal, guarded by LinkTimes.class.
+    private static void append(String pathname, Record record) throws IOException
+    {
+        if(journalWriter == null)
+          throw new IOException("Journal of the modification times not open");
+
+        write(journalWriter, pathname, record);
+        journalWriter.flush();
+    }
+
+    //Method for writing the line of a record: the time in milliseconds, the key of the inode and the pathname.
+    private static void write(BufferedWriter writer, String pathname, Record record) throws IOException
+    {
+        writer.write(record.modifiedTime.toMillis() + " " + record.fileKey + " " + pathname);
+        writer.newLine();
+    }
+
+    //class for the modification time recorded for a pathname.
+    private static class Record
+    {
+        final String   fileKey;      //key of the inode, as a string since the journal stores it so
+        final FileTime modifiedTime;
+
+        Record(String fileKey, FileTime modifiedTime)
+        {
+            this.fileKey = fileKey;
+            this.modifiedTime = modifiedTime;
+        }
+    }
+}
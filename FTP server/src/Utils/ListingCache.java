@@ -0,0 +1,340 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+    Class for the encoded file lists (LIST, NLST, MLSD) of the most requested directories, shared by all the sessions,
+    so a repeated list is sent with a single write without reading the directory again.
+    The lists are kept in direct buffers, so the write doesn't copy them.
+    A list is keyed by the directory, its format (the command, and for MLSD the facts) and the visibility of the hidden files.
+    Each directory with cached lists is watched with a WatchService: any change in it drops its lists, and the sessions
+    drop them too when they change the directory (STOR, DELE, RNTO, MKD, RMD), without waiting for the event.
+    The memory used by the lists is capped: the least recently used lists are evicted, and a list larger than
+    a quarter of the cap is never cached.
+    Only the directories of the default file system are cached: the memory storage can't be watched, and is listed without I/O.
+*/
+public class ListingCache
+{
+    private final long                                  maxMemory;    //0 = no cache
+    private final LinkedHashMap<String, CachedListing>  listings;     //guarded by this
+    private final HashMap<Path, WatchedDirectory>       directories;  //guarded by this
+    private final WatchService                          watchService; //null = no cache
+    private long                                        usedMemory;   //guarded by this
+    private long                                        lastVersion;  //guarded by this
+
+    /*
+        Input:
+          1. the maximum memory used by the lists in bytes (0 = no cache).
+        If the file system can't be watched, the lists are not cached.
+    */
+    public ListingCache(long maxMemory)
+    {
+        WatchService service = null;
+        Thread watcherThread;
+
+        listings = new LinkedHashMap<String, CachedListing>(16, 0.75f, true);
+        directories = new HashMap<Path, WatchedDirectory>();
+
+        try
+        {
+            if(maxMemory > 0)
+              service = FileSystems.getDefault().newWatchService();
+        }
+        catch(IOException | UnsupportedOperationException excp)
+        { service = null; }
+
+        watchService = service;
+        this.maxMemory = (service != null) ? maxMemory : 0;
+
+        if(watchService == null)
+          return;
+
+        watcherThread = new Thread(this::watchDirectories, "jftp-listing-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    //Method for obtaining the size of the largest list that can be cached.
+    public long getMaxListingSize()
+    { return maxMemory / 4; }
+
+    /*
+        Method for searching a list.
+        Input:
+          1. the pathname of the directory.
+          2. the format of the list, as keyed by the caller.
+          3. true if the list contains the hidden files.
+        Return value:
+          1. a read-only buffer containing the encoded list, null if it's not in the cache.
+    */
+    public synchronized ByteBuffer get(Path directory, String format, boolean isHiddenVisible)
+    {
+        CachedListing listing;
+
+        if(maxMemory == 0 || directory.getFileSystem() != FileSystems.getDefault())
+          return null;
+
+        listing = listings.get(createKey(directory, format, isHiddenVisible));
+        return (listing != null) ? listing.content.duplicate() : null;
+    }
+
+    /*
+        Method to be called before reading a directory whose list may be cached: the directory is watched from now on,
+        so a change made while the list is built prevents it from being cached.
+        Input:
+          1. the pathname of the directory.
+        Return value:
+          1. the version of the directory to pass to endListing(), -1 if the list can't be cached.
+    */
+    public synchronized long startListing(Path directory)
+    {
+        WatchedDirectory watchedDirectory;
+
+        if(maxMemory == 0 || directory.getFileSystem() != FileSystems.getDefault())
+          return -1;
+
+        directory = directory.toAbsolutePath().normalize();
+
+        if((watchedDirectory = directories.get(directory)) == null)
+        {
+            try
+            {
+                watchedDirectory = new WatchedDirectory
+                  (
+                      directory.register
+                        (watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY),
+                      ++lastVersion
+                  );
+            }
+            catch(IOException | UnsupportedOperationException excp)
+            { return -1; }
+
+            directories.put(directory, watchedDirectory);
+        }
+
+        //the directory has been deleted or renamed: it's watched again when its last list is dropped.
+        if(!watchedDirectory.key.isValid())
+          return -1;
+
+        watchedDirectory.pendingListings++;
+        return watchedDirectory.version;
+    }
+
+    /*
+        Method to be called after reading a directory, for each call to startListing().
+        Input:
+          1. the pathname of the directory.
+          2. the version returned by startListing().
+          3. the format of the list, as keyed by the caller.
+          4. true if the list contains the hidden files.
+          5. the encoded list, null if it's not complete.
+        The list is cached only if the directory hasn't changed since startListing().
+    */
+    public synchronized void endListing(Path directory, long version, String format, boolean isHiddenVisible, byte[] content)
+    {
+        WatchedDirectory watchedDirectory;
+        CachedListing previous;
+        String key;
+
+        if(version < 0)
+          return;
+
+        directory = directory.toAbsolutePath().normalize();
+
+        if((watchedDirectory = directories.get(directory)) == null)
+          return;
+
+        watchedDirectory.pendingListings--;
+
+        if(content != null && watchedDirectory.version == version && content.length <= getMaxListingSize())
+        {
+            key = createKey(directory, format, isHiddenVisible);
+
+            if((previous = listings.put(key, new CachedListing(directory, content))) != null)
+              usedMemory -= previous.content.capacity();
+
+            watchedDirectory.keys.add(key);
+            usedMemory += content.length;
+            evict();
+        }
+
+        releaseDirectory(directory, watchedDirectory);
+    }
+
+    /*
+        Method for dropping the lists of a directory whose entries have been added, removed or renamed.
+        Input:
+          1. the pathname of the directory.
+        It's called by the commands which change a directory, and when the WatchService reports a change.
+        The lists of the parent directory are dropped too, since they contain the modification time of the directory.
+    */
+    public synchronized void invalidate(Path directory)
+    {
+        if(maxMemory == 0)
+          return;
+
+        directory = directory.toAbsolutePath().normalize();
+        invalidateDirectory(directory);
+
+        if(directory.getParent() != null)
+          invalidateDirectory(directory.getParent());
+    }
+
+    /*
+        Method for dropping the lists of a single directory.
+        Input:
+          1. the normalized absolute pathname of the directory.
+    */
+    private void invalidateDirectory(Path directory)
+    {
+        WatchedDirectory watchedDirectory;
+
+        if((watchedDirectory = directories.get(directory)) != null)
+          invalidate(directory, watchedDirectory);
+    }
+
+    /*
+        Method for dropping the lists of a directory and of all the directories under it.
+        Input:
+          1. the pathname of the directory.
+        It's called when a directory is deleted or renamed, since its pathname may then refer to a different directory.
+    */
+    public synchronized void invalidateTree(Path directory)
+    {
+        if(maxMemory == 0)
+          return;
+
+        directory = directory.toAbsolutePath().normalize();
+
+        for(Map.Entry<Path, WatchedDirectory> entry : new ArrayList<Map.Entry<Path, WatchedDirectory>>(directories.entrySet()))
+        {
+            if(entry.getKey().startsWith(directory))
+              invalidate(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /*
+        Method for dropping the lists of a watched directory.
+        Input:
+          1. the pathname of the directory.
+          2. the state of the directory.
+        The lists being built are not cached either.
+    */
+    private void invalidate(Path directory, WatchedDirectory watchedDirectory)
+    {
+        watchedDirectory.version = ++lastVersion;
+
+        for(String key : watchedDirectory.keys)
+          usedMemory -= listings.remove(key).content.capacity();
+
+        watchedDirectory.keys.clear();
+        releaseDirectory(directory, watchedDirectory);
+    }
+
+    //Method for evicting the least recently used lists until the memory cap is respected.
+    private void evict()
+    {
+        Iterator<Map.Entry<String, CachedListing>> listingIterator = listings.entrySet().iterator();
+        Map.Entry<String, CachedListing> entry;
+        WatchedDirectory watchedDirectory;
+
+        while(usedMemory > maxMemory && listingIterator.hasNext())
+        {
+            entry = listingIterator.next();
+            listingIterator.remove();
+            usedMemory -= entry.getValue().content.capacity();
+            watchedDirectory = directories.get(entry.getValue().directory);
+            watchedDirectory.keys.remove(entry.getKey());
+            releaseDirectory(entry.getValue().directory, watchedDirectory);
+        }
+    }
+
+    /*
+        Method for stopping to watch a directory which has no cached lists and isn't being read.
+        Input:
+          1. the pathname of the directory.
+          2. the state of the directory.
+    */
+    private void releaseDirectory(Path directory, WatchedDirectory watchedDirectory)
+    {
+        if(!watchedDirectory.keys.isEmpty() || watchedDirectory.pendingListings > 0)
+          return;
+
+        watchedDirectory.key.cancel();
+        directories.remove(directory);
+    }
+
+    //Method executed by the watcher thread: drops the lists of the directories that change.
+    private void watchDirectories()
+    {
+        WatchKey key;
+        Path directory;
+        boolean isEntryChanged;
+
+        while(true)
+        {
+            try
+            {
+                key = watchService.take();
+            }
+            catch(InterruptedException | ClosedWatchServiceException excp)
+            { return; }
+
+            directory = (Path)key.watchable();
+            isEntryChanged = false;
+
+            for(WatchEvent<?> event : key.pollEvents())
+            {
+                //an entry deleted or renamed may be a directory: the lists under its pathname are dropped too.
+                if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+                  invalidateTree(directory.resolve((Path)event.context()));
+
+                isEntryChanged |= (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+
+            //a file modified changes only the lists of its directory.
+            synchronized(this)
+            {
+                if(isEntryChanged)
+                  invalidate(directory);
+                else
+                  invalidateDirectory(directory);
+            }
+
+            key.reset();
+        }
+    }
+
+    //Method for creating the key of a list.
+    private static String createKey(Path directory, String format, boolean isHiddenVisible)
+    { return format + ((isHiddenVisible) ? " H " : " - ") + directory.toAbsolutePath().normalize(); }
+
+    //class for a cached list.
+    private static class CachedListing
+    {
+        final Path       directory;
+        final ByteBuffer content;
+
+        CachedListing(Path directory, byte[] content)
+        {
+            this.directory = directory;
+            this.content = ByteBuffer.allocateDirect(content.length).put(content).flip().asReadOnlyBuffer();
+        }
+    }
+
+    //class for a watched directory.
+    private static class WatchedDirectory
+    {
+        final WatchKey        key;
+        final HashSet<String> keys = new HashSet<String>(); //keys of the cached lists of the directory
+        long                  version;                      //changed by each invalidation
+        int                   pendingListings;              //lists being built
+
+        WatchedDirectory(WatchKey key, long version)
+        {
+            this.key = key;
+            this.version = version;
+        }
+    }
+}
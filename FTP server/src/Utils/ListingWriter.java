@@ -0,0 +1,518 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.time.*;
+import java.time.format.*;
+import java.time.zone.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Class for writing a file list (LIST, NLST, MLSD) directly to the data connection, one entry at a time.
+    The lines are written into a pooled buffer, which is written when full, so the memory used doesn't depend on the number of entries.
+    The LIST lines are formatted byte by byte, without creating objects: the owners and groups are read as numeric ids
+    and their names taken from a cache, and the dates are formatted with precomputed month and day tables.
+    The MLSD lines are built in a reused StringBuilder and encoded.
+    The attributes of each entry are read with a single call, and NLST doesn't read them at all.
+    The MLSD lines contain the facts of RFC 3659 ("type", "size", "modify", "perm", "unique"), which are also used by MLST.
+*/
+public class ListingWriter implements Closeable
+{
+    //attributes of the LIST lines, read together.
+    private static final String listAttributes = "unix:mode,nlink,uid,gid,size,lastModifiedTime,fileKey";
+    private static final byte[] permissionBytes = {'r', 'w', 'x'};
+    //names of the owners and groups, shared by all the lists.
+    private static final PrincipalNameCache userNames = new PrincipalNameCache("uid", "owner");
+    private static final PrincipalNameCache groupNames = new PrincipalNameCache("gid", "group");
+    //time zone of the modification dates, and names of the months ("MMM" in the default locale) encoded with the default charset.
+    private static final ZoneId   zone = ZoneId.systemDefault();
+    private static final byte[][] monthNames = createMonthNames();
+    //true if the default charset encodes the ASCII characters as single bytes, so ASCII file names are copied without encoder.
+    private static final boolean  isAsciiCompatible = isAsciiCompatible(Charset.defaultCharset());
+    private static final int      dayTableSize = 64; //days of the "MMM dd " table, a power of 2
+    //facts of the MLSD and MLST lines, in the order in which they are written.
+    public static final List<String> FACTS = List.of("type", "size", "modify", "perm", "unique");
+    //attributes of the facts, read together.
+    private static final String factAttributes = "unix:mode,size,lastModifiedTime,fileKey,dev,ino";
+    //formatter of the "modify" fact (RFC 3659 time-val, always in UTC).
+    private static final DateTimeFormatter factDateFormatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss.SSS").withZone(ZoneOffset.UTC);
+
+    private final WritableByteChannel destination;
+    private final BufferPool          bufferPool;
+    private final TransferMonitor     monitor;
+    private final String              command;      //"LIST", "NLST" or "MLSD"
+    private final CharsetEncoder      encoder;
+    private final StringBuilder       line = new StringBuilder(128);
+    private final Formatter           lineFormatter = new Formatter(line);
+    private ByteBuffer                buffer;
+    private ByteArrayOutputStream     copy;         //copy of the list written, null if not kept
+    private long                      maxCopySize;
+    private List<String>              facts;        //facts of the MLSD lines
+    private String                    filePermissions;
+    private String                    directoryPermissions;
+    private String                    namePrefix = ""; //written before each file name
+    //offset of the time zone, valid from offsetStart (included) to offsetEnd (excluded), in epoch seconds.
+    private int                       offset;
+    private long                      offsetStart = Long.MAX_VALUE;
+    private long                      offsetEnd = Long.MIN_VALUE;
+    //"MMM dd " of the last days listed, indexed by epoch day modulo dayTableSize.
+    private final long[]              dayTableKeys = new long[dayTableSize];
+    private final byte[][]            dayTable = new byte[dayTableSize][];
+
+    /*
+        Input:
+          1. the data channel, which is closed with the writer.
+          2. the pool of the transfer buffers.
+          3. the monitor of the transfer.
+          4. the command ("LIST", "NLST" or "MLSD").
+    */
+    public ListingWriter(WritableByteChannel destination, BufferPool bufferPool, TransferMonitor monitor, String command) throws IOException
+    {
+        this.destination = destination;
+        this.bufferPool = bufferPool;
+        this.monitor = monitor;
+        this.command = command;
+        encoder = Charset.defaultCharset().newEncoder()
+                         .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        buffer = bufferPool.acquire();
+    }
+
+    /*
+        Method for selecting the facts of the MLSD lines.
+        Input:
+          1. the facts, a subset of FACTS.
+          2. the value of the "perm" fact for the files.
+          3. the value of the "perm" fact for the directories.
+    */
+    public void setFacts(List<String> facts, String filePermissions, String directoryPermissions)
+    {
+        this.facts = facts;
+        this.filePermissions = filePermissions;
+        this.directoryPermissions = directoryPermissions;
+    }
+
+    /*
+        Method for setting a prefix written before each file name.
+        Input:
+          1. the prefix, for example the path of the directory of the files.
+    */
+    public void setNamePrefix(String namePrefix)
+    { this.namePrefix = namePrefix; }
+
+    /*
+        Method for writing a line which is not an entry, for example a header.
+        Input:
+          1. the line, without "\r\n".
+    */
+    public void writeLine(String text) throws IOException
+    {
+        line.setLength(0);
+        encode(CharBuffer.wrap(line.append(text).append("\r\n")));
+    }
+
+    /*
+        Method for keeping a copy of the list written, to be cached.
+        Input:
+          1. the maximum size of the copy: a larger list is not copied.
+    */
+    public void keepCopy(long maxCopySize)
+    {
+        this.maxCopySize = maxCopySize;
+        copy = new ByteArrayOutputStream();
+    }
+
+    /*
+        Method for obtaining the copy of the list written.
+        Return value:
+          1. the list, null if no copy has been kept or the list was too large.
+    */
+    public byte[] getCopy()
+    { return (copy != null) ? copy.toByteArray() : null; }
+
+    /*
+        Method for writing the line of a file.
+        Input:
+          1. the pathname of the file.
+        Return value:
+          1. false if the attributes of the file can't be read (for example because it has just been deleted), so it's not listed.
+    */
+    public boolean writeEntry(Path file) throws IOException
+    {
+        if(command.equals("MLSD"))
+        {
+            line.setLength(0);
+
+            if(!appendFacts(line, file, facts, filePermissions, directoryPermissions))
+              return false;
+
+            encode(CharBuffer.wrap(line.append(' ')));
+        }
+
+        else if(command.equals("LIST") && !writeLongFormat(file))
+          return false;
+
+        writeName((namePrefix.isEmpty()) ? file.getFileName().toString() : namePrefix + file.getFileName());
+        return true;
+    }
+
+    /*
+        Method for writing the LIST line of a file before its name, as "ls -l": permissions, links, owner, group, size and date.
+        Input:
+          1. the pathname of the file.
+        Return value:
+          1. false if the attributes of the file can't be read.
+    */
+    private boolean writeLongFormat(Path file) throws IOException
+    {
+        Map<String, Object> attributes;
+        PrincipalNameCache.PrincipalName userName, groupName;
+        int mode;
+
+        try
+        {
+            attributes = Files.readAttributes(file, listAttributes);
+        }
+        catch(IOException | UnsupportedOperationException excp)
+        { return false; }
+
+        userName = userNames.get((Integer)attributes.get("uid"), file);
+        groupName = groupNames.get((Integer)attributes.get("gid"), file);
+        mode = (Integer)attributes.get("mode");
+
+        //the fixed fields take less than 128 bytes.
+        reserve(128 + userName.bytes.length + groupName.bytes.length);
+        buffer.put(((mode & 0170000) == 0040000) ? (byte)'d' : (byte)'-');
+
+        for(int bit = 8; bit >= 0; bit--)
+          buffer.put(((mode & (1 << bit)) != 0) ? permissionBytes[2 - bit % 3] : (byte)'-');
+
+        putSpaces(2);
+        putNumber((Integer)attributes.get("nlink"), 3);
+        putSpaces(2);
+        putName(userName);
+        putSpaces(2);
+        putName(groupName);
+        putSpaces(2);
+        putNumber((Long)attributes.get("size"), 8);
+        putSpaces(2);
+        putDate(LinkTimes.get(file, attributes.get("fileKey"), (FileTime)attributes.get("lastModifiedTime")));
+        putSpaces(2);
+        return true;
+    }
+
+    /*
+        Method for writing a file name followed by "\r\n".
+        Input:
+          1. the name.
+        The ASCII names are copied byte by byte, the others are encoded.
+    */
+    private void writeName(String name) throws IOException
+    {
+        int start, length = 0;
+
+        if(isAsciiCompatible && name.length() + 2 <= buffer.capacity())
+        {
+            reserve(name.length() + 2);
+            start = buffer.position();
+
+            for(; length < name.length() && name.charAt(length) < 0x80; length++)
+              buffer.put((byte)name.charAt(length));
+
+            if(length == name.length())
+            {
+                buffer.put((byte)'\r').put((byte)'\n');
+                return;
+            }
+
+            //a non-ASCII name is encoded from the start.
+            buffer.position(start);
+        }
+
+        line.setLength(0);
+        encode(CharBuffer.wrap(line.append(name).append("\r\n")));
+    }
+
+    /*
+        Method for writing a number right-aligned, as "%<width>d".
+        Input:
+          1. the number, not negative.
+          2. the minimum width.
+    */
+    private void putNumber(long number, int width)
+    {
+        int digits = 1, end;
+
+        for(long rest = number / 10; rest > 0; rest /= 10)
+          digits++;
+
+        putSpaces(width - digits);
+        end = buffer.position() + digits;
+
+        for(int position = end - 1; position >= end - digits; position--, number /= 10)
+          buffer.put(position, (byte)('0' + number % 10));
+
+        buffer.position(end);
+    }
+
+    /*
+        Method for writing a name left-aligned in 8 characters, as "%-8s".
+        Input:
+          1. the name.
+    */
+    private void putName(PrincipalNameCache.PrincipalName name)
+    {
+        buffer.put(name.bytes);
+        putSpaces(8 - name.name.length());
+    }
+
+    /*
+        Method for writing spaces.
+        Input:
+          1. the number of spaces, nothing if not positive.
+    */
+    private void putSpaces(int count)
+    {
+        for(int i = 0; i < count; i++)
+          buffer.put((byte)' ');
+    }
+
+    /*
+        Method for writing a date in the local time zone, as "MMM dd HH:mm".
+        Input:
+          1. the date.
+        The offset of the time zone is computed again only when the date is outside the period of the last offset,
+        and the "MMM dd " part only when the day isn't in the table of the last days.
+    */
+    private void putDate(FileTime date)
+    {
+        long seconds = Math.floorDiv(date.to(TimeUnit.MICROSECONDS), 1000000L), localSeconds, day;
+        int minuteOfDay, slot;
+
+        if(seconds < offsetStart || seconds >= offsetEnd)
+          computeOffset(seconds);
+
+        localSeconds = seconds + offset;
+        day = Math.floorDiv(localSeconds, 86400L);
+        minuteOfDay = (int)(Math.floorMod(localSeconds, 86400L) / 60);
+        slot = (int)day & (dayTableSize - 1);
+
+        if(dayTable[slot] == null || dayTableKeys[slot] != day)
+        {
+            dayTable[slot] = createDay(day);
+            dayTableKeys[slot] = day;
+        }
+
+        buffer.put(dayTable[slot]);
+        buffer.put((byte)('0' + minuteOfDay / 600)).put((byte)('0' + minuteOfDay / 60 % 10)).put((byte)':');
+        buffer.put((byte)('0' + minuteOfDay % 60 / 10)).put((byte)('0' + minuteOfDay % 10));
+    }
+
+    /*
+        Method for computing the offset of the time zone at a date, and the period in which it doesn't change.
+        Input:
+          1. the date in epoch seconds.
+    */
+    private void computeOffset(long seconds)
+    {
+        ZoneRules rules = zone.getRules();
+        Instant instant = Instant.ofEpochSecond(seconds);
+        ZoneOffsetTransition previous = rules.previousTransition(instant), next = rules.nextTransition(instant);
+
+        offset = rules.getOffset(instant).getTotalSeconds();
+        offsetStart = (previous != null) ? previous.toEpochSecond() : Long.MIN_VALUE;
+        offsetEnd = (next != null) ? next.toEpochSecond() : Long.MAX_VALUE;
+
+        //a date at a transition may be answered with the transition before it.
+        if(offsetStart > seconds || (previous != null && previous.getOffsetAfter().getTotalSeconds() != offset))
+          offsetStart = seconds;
+    }
+
+    /*
+        Method for creating the "MMM dd " part of a date.
+        Input:
+          1. the day, in days since the epoch in the local time zone.
+    */
+    private static byte[] createDay(long day)
+    {
+        LocalDate date = LocalDate.ofEpochDay(day);
+        byte[] month = monthNames[date.getMonthValue() - 1];
+        byte[] dayBytes = Arrays.copyOf(month, month.length + 4);
+
+        dayBytes[month.length] = ' ';
+        dayBytes[month.length + 1] = (byte)('0' + date.getDayOfMonth() / 10);
+        dayBytes[month.length + 2] = (byte)('0' + date.getDayOfMonth() % 10);
+        dayBytes[month.length + 3] = ' ';
+        return dayBytes;
+    }
+
+    //Method for creating the table of the month names.
+    private static byte[][] createMonthNames()
+    {
+        DateTimeFormatter monthFormatter = DateTimeFormatter.ofPattern("MMM");
+        byte[][] names = new byte[12][];
+
+        for(int month = 1; month <= 12; month++)
+          names[month - 1] = monthFormatter.format(LocalDate.of(2000, month, 1)).getBytes(Charset.defaultCharset());
+
+        return names;
+    }
+
+    /*
+        Method for checking whether a charset encodes the ASCII characters as single bytes with the same value.
+        Input:
+          1. the charset.
+    */
+    private static boolean isAsciiCompatible(Charset charset)
+    {
+        byte[] ascii = new byte[128];
+
+        for(int i = 0; i < ascii.length; i++)
+          ascii[i] = (byte)i;
+
+        return Arrays.equals(new String(ascii, StandardCharsets.US_ASCII).getBytes(charset), ascii);
+    }
+
+    /*
+        Method for appending the facts of a file, each followed by ";".
+        Input:
+          1. the line.
+          2. the pathname of the file.
+          3. the facts, a subset of FACTS.
+          4. the value of the "perm" fact for the files.
+          5. the value of the "perm" fact for the directories.
+        Return value:
+          1. false if the attributes of the file can't be read.
+        The "size" fact is written only for the files.
+    */
+    public static boolean appendFacts(StringBuilder line, Path file, List<String> facts, String filePermissions, String directoryPermissions)
+    {
+        Map<String, Object> attributes;
+        boolean isDirectory;
+
+        try
+        {
+            attributes = Files.readAttributes(file, factAttributes);
+        }
+        catch(IOException | UnsupportedOperationException excp)
+        { return false; }
+
+        isDirectory = ((Integer)attributes.get("mode") & 0170000) == 0040000;
+
+        for(String fact : facts)
+        {
+            if(fact.equals("size") && isDirectory)
+              continue;
+
+            line.append(fact).append('=');
+
+            switch(fact)
+            {
+                case "type":
+                  line.append((isDirectory) ? "dir" : "file");
+                  break;
+
+                case "size":
+                  line.append((long)(Long)attributes.get("size"));
+                  break;
+
+                case "modify":
+                  factDateFormatter.formatTo(LinkTimes.get(file, attributes.get("fileKey"), (FileTime)attributes.get("lastModifiedTime")).toInstant(), line);
+                  break;
+
+                case "perm":
+                  line.append((isDirectory) ? directoryPermissions : filePermissions);
+                  break;
+
+                case "unique":
+                  line.append(Long.toHexString((Long)attributes.get("dev"))).append('U').append(Long.toHexString((Long)attributes.get("ino")));
+                  break;
+            }
+
+            line.append(';');
+        }
+
+        return true;
+    }
+
+    /*
+        Method for formatting a time as in the "modify" fact and in the MDTM response (RFC 3659).
+        Input:
+          1. the time.
+    */
+    public static String formatFactTime(FileTime time)
+    { return factDateFormatter.format(time.toInstant()); }
+
+    /*
+        Method for making room in the buffer, which is written to the data channel if it hasn't enough space.
+        Input:
+          1. the number of bytes needed.
+    */
+    private void reserve(int size) throws IOException
+    {
+        if(buffer.remaining() < size)
+          flush();
+    }
+
+    /*
+        Method for encoding characters into the buffer, which is written to the data channel when full.
+        Input:
+          1. the characters.
+    */
+    private void encode(CharBuffer characters) throws IOException
+    {
+        while(encoder.encode(characters, buffer, true).isOverflow())
+          flush();
+
+        while(encoder.flush(buffer).isOverflow())
+          flush();
+
+        encoder.reset();
+    }
+
+    //Method for writing the content of the buffer to the data channel.
+    private void flush() throws IOException
+    {
+        byte[] chunk;
+
+        buffer.flip();
+        monitor.addBytes(buffer.remaining());
+
+        if(copy != null && copy.size() + buffer.remaining() > maxCopySize)
+          copy = null;
+
+        if(copy != null)
+        {
+            chunk = new byte[buffer.remaining()];
+            buffer.duplicate().get(chunk);
+            copy.write(chunk, 0, chunk.length);
+        }
+
+        while(buffer.hasRemaining())
+          destination.write(buffer);
+
+        buffer.clear();
+    }
+
+    //Method for ending the list: the content of the buffer is written and the data channel closed.
+    public void finish() throws IOException
+    {
+        flush();
+        destination.close();
+    }
+
+    //Method for returning the buffer to the pool and closing the data channel, if the list has not been finished.
+    @Override
+    public void close() throws IOException
+    {
+        if(buffer != null)
+        {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+
+        destination.close();
+    }
+}
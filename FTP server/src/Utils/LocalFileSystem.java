@@ -0,0 +1,216 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/*
+    Class for the file system of a session, confined to the root directory of the user. The files are in the storage backend
+    of the user (the local disk or a MemoryFileSystem, see StorageBackends), under the storage root.
+    The pathnames are normalized as strings. The directories are resolved to their real path (symbolic links followed)
+    and checked against the real path of the root directory, so a symbolic link can't lead outside it: the real paths
+    are cached for the session, so a command on a known directory costs a single call, which reads the attributes of the file.
+    A cached real path expires after a short time, which bounds how long a directory replaced outside the server goes unnoticed.
+    A symbolic link in the last component of a pathname is followed when the file is located, and denied if its target is outside the root.
+    The files are read and written through their real location, which is also the key of the shared caches.
+*/
+public class LocalFileSystem implements VirtualFileSystem
+{
+    //directories whose real path is cached.
+    private static final int  MAX_DIRECTORIES = 64;
+    //nanoseconds after which a cached real path is resolved again.
+    private static final long DIRECTORY_TIME_TO_LIVE = 5000000000L;
+
+    private final Path                                      storageRoot;       //server root directory in the storage backend
+    private final String                                    rootDirectory;     //root directory of the user, under the server root directory
+    private final Path                                      realRootDirectory;
+    private final MetadataCache                             metadataCache;
+    private final LinkedHashMap<String, ResolvedDirectory> directories;       //guarded by itself
+
+    /*
+        Input:
+          1. the server root directory in the storage backend of the user.
+          2. the root directory of the user, a normalized pathname under the server root directory.
+          3. the cache of the attributes read by resolveCached().
+        Throws IOException if the root directory of the user doesn't exist or is not a directory.
+    */
+    public LocalFileSystem(Path storageRoot, String rootDirectory, MetadataCache metadataCache) throws IOException
+    {
+        this.storageRoot = storageRoot;
+        this.rootDirectory = rootDirectory;
+        this.metadataCache = metadataCache;
+        realRootDirectory = storageRoot.resolve(rootDirectory.substring(1)).toRealPath();
+
+        if(!Files.isDirectory(realRootDirectory))
+          throw new NotDirectoryException(realRootDirectory.toString());
+
+        directories = new LinkedHashMap<String, ResolvedDirectory>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResolvedDirectory> eldest)
+            { return size() > MAX_DIRECTORIES; }
+        };
+    }
+
+    @Override
+    public VirtualFile resolve(String workingDirectory, String pathname)
+    { return locate(normalize(workingDirectory, pathname), false); }
+
+    @Override
+    public VirtualFile resolveCached(String workingDirectory, String pathname)
+    { return locate(normalize(workingDirectory, pathname), true); }
+
+    @Override
+    public void invalidate(VirtualFile file)
+    {
+        String prefix = file.getPathname() + "/";
+
+        synchronized(directories)
+        { directories.keySet().removeIf(directory -> directory.equals(file.getPathname()) || directory.startsWith(prefix)); }
+    }
+
+    /*
+        Method for normalizing a pathname, as Utils.getCorrectPath() without creating any Path.
+        Input:
+          1. the working directory.
+          2. the pathname sent by the client.
+        Return value:
+          1. the pathname without "." and ".." components, the root directory if it leads outside it.
+    */
+    private String normalize(String workingDirectory, String pathname)
+    {
+        ArrayList<String> names = new ArrayList<String>();
+        StringBuilder normalizedPathname = new StringBuilder();
+        String fullPathname = (!pathname.isEmpty() && pathname.charAt(0) == '/') ? rootDirectory + pathname : workingDirectory + '/' + pathname;
+        int start = 0, end;
+
+        while(start < fullPathname.length())
+        {
+            if((end = fullPathname.indexOf('/', start)) < 0)
+              end = fullPathname.length();
+
+            if(end - start == 2 && fullPathname.startsWith("..", start))
+            {
+                if(!names.isEmpty())
+                  names.remove(names.size() - 1);
+            }
+            else if(end > start && !(end - start == 1 && fullPathname.charAt(start) == '.'))
+              names.add(fullPathname.substring(start, end));
+
+            start = end + 1;
+        }
+
+        for(String name : names)
+          normalizedPathname.append('/').append(name);
+
+        pathname = (names.isEmpty()) ? "/" : normalizedPathname.toString();
+
+        if(rootDirectory.equals("/") || pathname.equals(rootDirectory) || pathname.startsWith(rootDirectory + "/"))
+          return pathname;
+
+        return rootDirectory;
+    }
+
+    /*
+        Method for locating a file and reading its attributes.
+        Input:
+          1. the normalized pathname.
+          2. true if the attributes can come from the metadata cache.
+        Return value:
+          1. the file, denied if it's outside the root directory.
+    */
+    private VirtualFile locate(String pathname, boolean isCacheAllowed)
+    {
+        Path directory, entryPath, path;
+        BasicFileAttributes attributes;
+        int nameIndex = pathname.lastIndexOf('/');
+
+        if(pathname.equals(rootDirectory))
+          entryPath = realRootDirectory;
+
+        else
+        {
+            if((directory = resolveDirectory((nameIndex == 0) ? "/" : pathname.substring(0, nameIndex))) == null)
+              return new VirtualFile(pathname, null, null, null);
+
+            entryPath = directory.resolve(pathname.substring(nameIndex + 1));
+        }
+
+        try
+        {
+            attributes = (isCacheAllowed) ? metadataCache.get(entryPath) :
+                                            Files.readAttributes(entryPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(IOException excp)
+        { return new VirtualFile(pathname, entryPath, entryPath, null); }
+
+        if(!attributes.isSymbolicLink())
+          return new VirtualFile(pathname, entryPath, entryPath, attributes);
+
+        try
+        {
+            path = entryPath.toRealPath();
+
+            if(!path.startsWith(realRootDirectory))
+              return new VirtualFile(pathname, null, null, null);
+
+            return new VirtualFile(pathname, entryPath, path, Files.readAttributes(path, BasicFileAttributes.class));
+        }
+        catch(IOException excp)
+        { return new VirtualFile(pathname, entryPath, entryPath, null); } //the target of the link doesn't exist
+    }
+
+    /*
+        Method for obtaining the real path of a directory.
+        Input:
+          1. the normalized pathname of the directory, under the root directory.
+        Return value:
+          1. the real path, null if it's outside the root directory or can't be resolved.
+        A missing directory is located under the real path of its parent, and not cached since it may be created.
+    */
+    private Path resolveDirectory(String directory)
+    {
+        ResolvedDirectory resolvedDirectory;
+        Path realPath;
+        int nameIndex;
+
+        if(directory.equals(rootDirectory))
+          return realRootDirectory;
+
+        synchronized(directories)
+        {
+            if((resolvedDirectory = directories.get(directory)) != null && System.nanoTime() - resolvedDirectory.resolveTime < DIRECTORY_TIME_TO_LIVE)
+              return resolvedDirectory.realPath;
+        }
+
+        try
+        {
+            realPath = storageRoot.resolve(directory.substring(1)).toRealPath();
+
+            if(!realPath.startsWith(realRootDirectory))
+              realPath = null;
+        }
+        catch(NoSuchFileException excp)
+        {
+            nameIndex = directory.lastIndexOf('/');
+            realPath = resolveDirectory((nameIndex == 0) ? "/" : directory.substring(0, nameIndex));
+            return (realPath == null) ? null : realPath.resolve(directory.substring(nameIndex + 1));
+        }
+        catch(IOException excp)
+        { realPath = null; }
+
+        synchronized(directories)
+        { directories.put(directory, new ResolvedDirectory(realPath)); }
+
+        return realPath;
+    }
+
+    //class for the cached real path of a directory.
+    private static class ResolvedDirectory
+    {
+        final Path realPath;  //null if outside the root directory
+        final long resolveTime = System.nanoTime();
+
+        ResolvedDirectory(Path realPath)
+        { this.realPath = realPath; }
+    }
+}
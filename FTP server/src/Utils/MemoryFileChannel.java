@@ -0,0 +1,287 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/*
+    Class for a channel on a file of a MemoryFileSystem.
+    transferTo writes the segments of the file directly to the destination, with a single gathering write when the destination
+    supports it (as the sockets do), so a download in the binary types doesn't copy the file, as sendfile does for the disk.
+    The channel can't be mapped, and its locks only check the arguments, since the files are shared by the threads of the server only.
+*/
+public class MemoryFileChannel extends FileChannel
+{
+    //maximum number of segments written by a single write of transferTo.
+    private static final int MAX_SLICES = 64;
+
+    private final MemoryFileSystem.FileNode file;
+    private final boolean                   isReadable;
+    private final boolean                   isWritable;
+    private final boolean                   isAppend;   //true = each write is made at the end of the file
+    private long                            position;   //guarded by this
+
+    /*
+        Input:
+          1. the file.
+          2. true if the channel can read.
+          3. true if the channel can write.
+          4. true if the channel writes at the end of the file.
+    */
+    MemoryFileChannel(MemoryFileSystem.FileNode file, boolean isReadable, boolean isWritable, boolean isAppend)
+    {
+        this.file = file;
+        this.isReadable = isReadable;
+        this.isWritable = isWritable;
+        this.isAppend = isAppend;
+        file.open();
+    }
+
+    //Method for checking that the channel is open and can be read.
+    private void checkReadable() throws IOException
+    {
+        if(!isOpen())
+          throw new ClosedChannelException();
+
+        if(!isReadable)
+          throw new NonReadableChannelException();
+    }
+
+    //Method for checking that the channel is open and can be written.
+    private void checkWritable() throws IOException
+    {
+        if(!isOpen())
+          throw new ClosedChannelException();
+
+        if(!isWritable)
+          throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer destination) throws IOException
+    {
+        int size;
+
+        checkReadable();
+
+        if((size = file.read(destination, position)) > 0)
+          position += size;
+
+        return size;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] destinations, int offset, int length) throws IOException
+    {
+        long total = 0;
+        int size = 0;
+
+        for(int i = offset; i < offset + length && size >= 0; i++)
+        {
+            if((size = read(destinations[i])) > 0)
+              total += size;
+        }
+
+        return (total == 0 && size < 0) ? -1 : total;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer source) throws IOException
+    {
+        int size;
+
+        checkWritable();
+
+        if(isAppend)
+          position = file.size();
+
+        size = file.write(source, position);
+        position += size;
+        return size;
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] sources, int offset, int length) throws IOException
+    {
+        long total = 0;
+
+        for(int i = offset; i < offset + length; i++)
+          total += write(sources[i]);
+
+        return total;
+    }
+
+    @Override
+    public synchronized long position() throws IOException
+    {
+        if(!isOpen())
+          throw new ClosedChannelException();
+
+        return position;
+    }
+
+    @Override
+    public synchronized FileChannel position(long newPosition) throws IOException
+    {
+        if(newPosition < 0)
+          throw new IllegalArgumentException();
+
+        if(!isOpen())
+          throw new ClosedChannelException();
+
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        if(!isOpen())
+          throw new ClosedChannelException();
+
+        return file.size();
+    }
+
+    @Override
+    public synchronized FileChannel truncate(long size) throws IOException
+    {
+        if(size < 0)
+          throw new IllegalArgumentException();
+
+        checkWritable();
+        file.truncate(size);
+        position = Math.min(position, size);
+        return this;
+    }
+
+    //The files are in memory: there's nothing to force.
+    @Override
+    public void force(boolean metaData) throws IOException
+    {
+        if(!isOpen())
+          throw new ClosedChannelException();
+    }
+
+    @Override
+    public long transferTo(long startPosition, long count, WritableByteChannel destination) throws IOException
+    {
+        ByteBuffer[] slices = new ByteBuffer[MAX_SLICES];
+        long total = 0, written;
+        int sliceCount;
+
+        if(startPosition < 0 || count < 0)
+          throw new IllegalArgumentException();
+
+        checkReadable();
+
+        while(total < count && (sliceCount = file.slice(startPosition + total, count - total, slices)) > 0)
+        {
+            if(destination instanceof GatheringByteChannel)
+              written = ((GatheringByteChannel)destination).write(slices, 0, sliceCount);
+
+            else
+            {
+                written = 0;
+
+                for(int i = 0; i < sliceCount; i++)
+                {
+                    written += destination.write(slices[i]);
+
+                    if(slices[i].hasRemaining())
+                      break;
+                }
+            }
+
+            total += written;
+
+            //a destination in non-blocking mode may not accept everything.
+            if(slices[sliceCount - 1].hasRemaining())
+              break;
+        }
+
+        return total;
+    }
+
+    //The data is read from the source through a heap buffer, as FileChannel.transferFrom does for the channels which are not files.
+    @Override
+    public long transferFrom(ReadableByteChannel source, long startPosition, long count) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(count, MemoryFileSystem.SEGMENT_SIZE));
+        long total = 0;
+        int size;
+
+        if(startPosition < 0 || count < 0)
+          throw new IllegalArgumentException();
+
+        checkWritable();
+
+        if(startPosition > file.size())
+          return 0;
+
+        while(total < count)
+        {
+            buffer.clear().limit((int)Math.min(buffer.capacity(), count - total));
+
+            if((size = source.read(buffer)) <= 0)
+              break;
+
+            buffer.flip();
+            total += file.write(buffer, startPosition + total);
+        }
+
+        return total;
+    }
+
+    @Override
+    public int read(ByteBuffer destination, long startPosition) throws IOException
+    {
+        if(startPosition < 0)
+          throw new IllegalArgumentException();
+
+        checkReadable();
+        return file.read(destination, startPosition);
+    }
+
+    @Override
+    public int write(ByteBuffer source, long startPosition) throws IOException
+    {
+        if(startPosition < 0)
+          throw new IllegalArgumentException();
+
+        checkWritable();
+        return file.write(source, startPosition);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long startPosition, long size)
+    { throw new UnsupportedOperationException("The memory files can't be mapped"); }
+
+    @Override
+    public FileLock lock(long startPosition, long size, boolean isShared) throws IOException
+    { return tryLock(startPosition, size, isShared); }
+
+    @Override
+    public FileLock tryLock(long startPosition, long size, boolean isShared) throws IOException
+    {
+        if(!isOpen())
+          throw new ClosedChannelException();
+
+        if(isShared ? !isReadable : !isWritable)
+          throw (isShared) ? new NonReadableChannelException() : new NonWritableChannelException();
+
+        return new FileLock(this, startPosition, size, isShared)
+          {
+              private volatile boolean isReleased;
+
+              @Override
+              public boolean isValid()
+              { return !isReleased && channel().isOpen(); }
+
+              @Override
+              public void release()
+              { isReleased = true; }
+          };
+    }
+
+    @Override
+    protected void implCloseChannel()
+    { file.close(); }
+}
@@ -0,0 +1,878 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/*
+    Class for a file system kept in memory, the storage backend of the user root directories served without disk I/O
+    (benchmarks of the protocol, small trees of hot files). It implements the java.nio.file interfaces, so the commands,
+    the transfers and the listings use it exactly as the disk.
+    The content of the files is kept off the java heap, in segments of SEGMENT_SIZE bytes cut from direct buffers of SLAB_SIZE bytes:
+    the slabs are allocated when needed, up to the capacity of the file system, and never freed, while the segments of the files
+    deleted or truncated are zeroed and reused. A file deleted or truncated while another channel has it open keeps its segments
+    until that channel is closed, so a download never sends the content of a file written later.
+    The tree is guarded by a read-write lock, the content of each file by the file itself.
+    There are no symbolic links, and all the files have the owner and the group given at creation, with mode 644 (755 for directories).
+*/
+public class MemoryFileSystem extends FileSystem
+{
+    //size of the segments holding the content of the files.
+    static final int SEGMENT_SIZE = 16384;
+    //size of the direct buffers cut into segments.
+    private static final int SLAB_SIZE = 1048576;
+    //size reported for the directories.
+    private static final long DIRECTORY_SIZE = 4096;
+    private static final ByteBuffer zeroSegment = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+
+    private final MemoryFileSystemProvider provider = new MemoryFileSystemProvider();
+    private final long                     capacity;        //bytes of the slabs
+    private final ReadWriteLock            treeLock = new ReentrantReadWriteLock();
+    private final DirectoryNode            root;
+    private final ArrayDeque<ByteBuffer>   freeSegments = new ArrayDeque<ByteBuffer>(); //guarded by itself
+    private long                           allocatedMemory; //guarded by freeSegments
+    private final AtomicLong               lastFileKey = new AtomicLong();
+    private final Map<String, Object>      ownerAttributes; //"uid", "gid", "owner" and "group" of all the files
+
+    /*
+        Input:
+          1. the maximum memory in bytes used by the content of the files.
+          2. the "uid", "gid", "owner" and "group" attributes of the "unix" view given to all the files, usually those of the
+             server root directory, so the listings show the same names for the same ids. The missing ones are 0 or null.
+    */
+    public MemoryFileSystem(long capacity, Map<String, Object> ownerAttributes)
+    {
+        this.capacity = capacity;
+        this.ownerAttributes = ownerAttributes;
+        root = new DirectoryNode();
+    }
+
+    @Override
+    public MemoryFileSystemProvider provider()
+    { return provider; }
+
+    //The file system lives as long as the server.
+    @Override
+    public void close()
+    { throw new UnsupportedOperationException(); }
+
+    @Override
+    public boolean isOpen()
+    { return true; }
+
+    @Override
+    public boolean isReadOnly()
+    { return false; }
+
+    @Override
+    public String getSeparator()
+    { return "/"; }
+
+    @Override
+    public Iterable<Path> getRootDirectories()
+    { return List.of(new MemoryPath(this, "/")); }
+
+    @Override
+    public Iterable<FileStore> getFileStores()
+    { return List.of(); }
+
+    @Override
+    public Set<String> supportedFileAttributeViews()
+    { return Set.of("basic", "unix"); }
+
+    @Override
+    public MemoryPath getPath(String first, String... more)
+    { return MemoryPath.create(this, first, more); }
+
+    //The patterns are matched against the pathnames as strings, as the default file system does.
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern)
+    {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+
+        return path -> matcher.matches(Paths.get(path.toString()));
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService()
+    { throw new UnsupportedOperationException(); }
+
+    @Override
+    public WatchService newWatchService()
+    { throw new UnsupportedOperationException(); }
+
+    /*
+        Method for obtaining the memory used by the content of the files.
+        Return values:
+          1. the bytes of the slabs allocated, including the free segments.
+    */
+    public long getAllocatedMemory()
+    {
+        synchronized(freeSegments)
+        { return allocatedMemory; }
+    }
+
+    /*
+        Method for finding the node of a pathname. The lock of the tree must be held.
+        Input:
+          1. the pathname.
+        Return values:
+          1. the node, null if it doesn't exist.
+    */
+    private Node find(MemoryPath path)
+    {
+        Node node = root;
+
+        for(String name : ((MemoryPath)path.toAbsolutePath().normalize()).getNames())
+        {
+            if(!(node instanceof DirectoryNode) || (node = ((DirectoryNode)node).entries.get(name)) == null)
+              return null;
+        }
+
+        return node;
+    }
+
+    /*
+        Method for finding the node of an existing pathname. The lock of the tree must be held.
+        Input:
+          1. the pathname.
+        Return values:
+          1. the node.
+        Throws NoSuchFileException if the pathname doesn't exist.
+    */
+    private Node get(MemoryPath path) throws NoSuchFileException
+    {
+        Node node = find(path);
+
+        if(node == null)
+          throw new NoSuchFileException(path.toString());
+
+        return node;
+    }
+
+    /*
+        Method for finding the directory containing a pathname. The lock of the tree must be held.
+        Input:
+          1. the pathname, which can't be the root directory.
+        Return values:
+          1. the directory.
+        Throws NoSuchFileException if the directory doesn't exist or isn't a directory.
+    */
+    private DirectoryNode getParent(MemoryPath path) throws IOException
+    {
+        Path parent = path.toAbsolutePath().normalize().getParent();
+        Node node;
+
+        if(parent == null)
+          throw new FileSystemException(path.toString(), null, "Operation not permitted on the root directory");
+
+        if(!((node = find((MemoryPath)parent)) instanceof DirectoryNode))
+          throw new NoSuchFileException(path.toString());
+
+        return (DirectoryNode)node;
+    }
+
+    //Method for obtaining the name of the last component of a pathname.
+    private static String getName(MemoryPath path)
+    { return path.toAbsolutePath().normalize().getFileName().toString(); }
+
+    //Method called by MemoryFileSystemProvider.checkAccess(): the files can always be read and written.
+    void checkAccess(MemoryPath path) throws IOException
+    {
+        treeLock.readLock().lock();
+
+        try
+        {
+            get(path);
+        }
+        finally
+        { treeLock.readLock().unlock(); }
+    }
+
+    //Method called by MemoryFileSystemProvider.readAttributes().
+    Attributes readAttributes(MemoryPath path) throws IOException
+    {
+        treeLock.readLock().lock();
+
+        try
+        {
+            return get(path).getAttributes();
+        }
+        finally
+        { treeLock.readLock().unlock(); }
+    }
+
+    /*
+        Method called by MemoryFileSystemProvider.readAttributes() for the attributes named as in Files.readAttributes(Path, String).
+        Input:
+          1. the pathname.
+          2. the view ("basic" or "unix", "basic" if omitted) and the names of the attributes separated by ",", or "*".
+    */
+    Map<String, Object> readAttributes(MemoryPath path, String attributes) throws IOException
+    {
+        String[] viewAndNames = (attributes.contains(":")) ? attributes.split(":", 2) : new String[] {"basic", attributes};
+        HashMap<String, Object> values = new HashMap<String, Object>();
+        Attributes fileAttributes;
+        List<String> names;
+
+        if(!supportedFileAttributeViews().contains(viewAndNames[0]))
+          throw new UnsupportedOperationException("View '" + viewAndNames[0] + "' not available");
+
+        fileAttributes = readAttributes(path);
+        names = (viewAndNames[1].equals("*")) ? Attributes.getNames(viewAndNames[0]) : Arrays.asList(viewAndNames[1].split(","));
+
+        for(String name : names)
+        {
+            if(!Attributes.getNames(viewAndNames[0]).contains(name))
+              throw new IllegalArgumentException("'" + name + "' not recognized");
+
+            values.put(name, fileAttributes.get(name));
+        }
+
+        return values;
+    }
+
+    //Method called by the BasicFileAttributeView of MemoryFileSystemProvider: only the modification time is kept.
+    void setLastModifiedTime(MemoryPath path, FileTime lastModifiedTime) throws IOException
+    {
+        treeLock.readLock().lock();
+
+        try
+        {
+            if(lastModifiedTime != null)
+              get(path).lastModifiedTime = lastModifiedTime;
+        }
+        finally
+        { treeLock.readLock().unlock(); }
+    }
+
+    //Method called by MemoryFileSystemProvider.isSameFile().
+    boolean isSameFile(MemoryPath path, MemoryPath otherPath) throws IOException
+    {
+        treeLock.readLock().lock();
+
+        try
+        {
+            return get(path) == get(otherPath);
+        }
+        finally
+        { treeLock.readLock().unlock(); }
+    }
+
+    //Method called by MemoryFileSystemProvider.createDirectory().
+    void createDirectory(MemoryPath path) throws IOException
+    {
+        DirectoryNode parent;
+        String name;
+
+        treeLock.writeLock().lock();
+
+        try
+        {
+            if(find(path) != null)
+              throw new FileAlreadyExistsException(path.toString());
+
+            parent = getParent(path);
+            name = getName(path);
+            parent.add(name, new DirectoryNode());
+        }
+        finally
+        { treeLock.writeLock().unlock(); }
+    }
+
+    //Method called by MemoryFileSystemProvider.delete(): a directory must be empty.
+    void delete(MemoryPath path) throws IOException
+    {
+        DirectoryNode parent;
+        Node node;
+
+        treeLock.writeLock().lock();
+
+        try
+        {
+            node = get(path);
+            parent = getParent(path);
+
+            if(node instanceof DirectoryNode && !((DirectoryNode)node).entries.isEmpty())
+              throw new DirectoryNotEmptyException(path.toString());
+
+            parent.remove(getName(path));
+        }
+        finally
+        { treeLock.writeLock().unlock(); }
+    }
+
+    /*
+        Method called by MemoryFileSystemProvider.move(): renames a file or a directory, as rename(2).
+        Input:
+          1. the pathname of the file.
+          2. the new pathname.
+          3. true if an existing file can be replaced (REPLACE_EXISTING or ATOMIC_MOVE, which all the moves are).
+    */
+    void move(MemoryPath source, MemoryPath target, boolean isReplaceAllowed) throws IOException
+    {
+        DirectoryNode sourceParent, targetParent;
+        Node node, targetNode;
+        Path normalizedSource = source.toAbsolutePath().normalize(), normalizedTarget = target.toAbsolutePath().normalize();
+
+        treeLock.writeLock().lock();
+
+        try
+        {
+            node = get(source);
+            sourceParent = getParent(source);
+            targetParent = getParent(target);
+
+            if(normalizedSource.equals(normalizedTarget))
+              return;
+
+            if(normalizedTarget.startsWith(normalizedSource))
+              throw new FileSystemException(source.toString(), target.toString(), "Invalid argument");
+
+            if((targetNode = targetParent.entries.get(getName(target))) != null)
+            {
+                if(!isReplaceAllowed)
+                  throw new FileAlreadyExistsException(target.toString());
+
+                if(targetNode instanceof DirectoryNode && !(node instanceof DirectoryNode))
+                  throw new FileSystemException(source.toString(), target.toString(), "Is a directory");
+
+                if(!(targetNode instanceof DirectoryNode) && node instanceof DirectoryNode)
+                  throw new FileSystemException(source.toString(), target.toString(), "Not a directory");
+
+                if(targetNode instanceof DirectoryNode && !((DirectoryNode)targetNode).entries.isEmpty())
+                  throw new DirectoryNotEmptyException(target.toString());
+
+                targetParent.remove(getName(target));
+            }
+
+            sourceParent.entries.remove(getName(source));
+            sourceParent.update(node, -1);
+            targetParent.add(getName(target), node);
+        }
+        finally
+        { treeLock.writeLock().unlock(); }
+    }
+
+    /*
+        Method called by MemoryFileSystemProvider.copy(): copies a file, or creates an empty directory for a directory.
+        Input:
+          1. the pathname of the file.
+          2. the pathname of the copy.
+          3. true if an existing file can be replaced.
+          4. true if the modification time is copied.
+    */
+    void copy(MemoryPath source, MemoryPath target, boolean isReplaceAllowed, boolean isTimeCopied) throws IOException
+    {
+        DirectoryNode targetParent;
+        Node node, copy;
+
+        treeLock.writeLock().lock();
+
+        try
+        {
+            node = get(source);
+            targetParent = getParent(target);
+
+            if(targetParent.entries.containsKey(getName(target)))
+            {
+                if(!isReplaceAllowed)
+                  throw new FileAlreadyExistsException(target.toString());
+
+                if(isSameFile(source, target))
+                  return;
+
+                delete(target);
+            }
+
+            copy = (node instanceof DirectoryNode) ? new DirectoryNode() : ((FileNode)node).copy();
+
+            if(isTimeCopied)
+              copy.lastModifiedTime = node.lastModifiedTime;
+
+            targetParent.add(getName(target), copy);
+        }
+        finally
+        { treeLock.writeLock().unlock(); }
+    }
+
+    /*
+        Method called by MemoryFileSystemProvider.newDirectoryStream(): the entries are read when the stream is opened.
+        Input:
+          1. the pathname of the directory.
+          2. the filter of the entries.
+    */
+    DirectoryStream<Path> newDirectoryStream(MemoryPath directory, DirectoryStream.Filter<? super Path> filter) throws IOException
+    {
+        ArrayList<Path> entries = new ArrayList<Path>();
+        Node node;
+
+        treeLock.readLock().lock();
+
+        try
+        {
+            if(!((node = get(directory)) instanceof DirectoryNode))
+              throw new NotDirectoryException(directory.toString());
+
+            for(String name : ((DirectoryNode)node).entries.keySet())
+              entries.add(directory.resolve(name));
+        }
+        finally
+        { treeLock.readLock().unlock(); }
+
+        entries.removeIf(entry ->
+          {
+              try
+              {
+                  return !filter.accept(entry);
+              }
+              catch(IOException excp)
+              { throw new DirectoryIteratorException(excp); }
+          });
+
+        return new DirectoryStream<Path>()
+          {
+              private boolean isIteratorCreated;
+
+              @Override
+              public Iterator<Path> iterator()
+              {
+                  if(isIteratorCreated)
+                    throw new IllegalStateException("Iterator already obtained");
+
+                  isIteratorCreated = true;
+                  return entries.iterator();
+              }
+
+              @Override
+              public void close()
+              { entries.clear(); }
+          };
+    }
+
+    /*
+        Method called by MemoryFileSystemProvider.newFileChannel().
+        Input:
+          1. the pathname of the file.
+          2. the options of FileChannel.open(): READ, WRITE, APPEND, CREATE, CREATE_NEW and TRUNCATE_EXISTING are used, the others ignored.
+    */
+    FileChannel newFileChannel(MemoryPath path, Set<? extends OpenOption> options) throws IOException
+    {
+        boolean isWritable = options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND);
+        boolean isCreated = isWritable && (options.contains(StandardOpenOption.CREATE) || options.contains(StandardOpenOption.CREATE_NEW));
+        boolean isReadable = options.contains(StandardOpenOption.READ) || !isWritable;
+        MemoryFileChannel channel;
+        Node node;
+
+        if(options.contains(StandardOpenOption.APPEND) && (isReadable || options.contains(StandardOpenOption.TRUNCATE_EXISTING)))
+          throw new IllegalArgumentException("APPEND + READ or TRUNCATE_EXISTING not allowed");
+
+        (isCreated ? treeLock.writeLock() : treeLock.readLock()).lock();
+
+        try
+        {
+            if((node = find(path)) != null && isCreated && options.contains(StandardOpenOption.CREATE_NEW))
+              throw new FileAlreadyExistsException(path.toString());
+
+            if(node == null && !isCreated)
+              throw new NoSuchFileException(path.toString());
+
+            if(node instanceof DirectoryNode)
+              throw new FileSystemException(path.toString(), null, "Is a directory");
+
+            if(node == null)
+              getParent(path).add(getName(path), node = new FileNode());
+
+            channel = new MemoryFileChannel((FileNode)node, isReadable, isWritable, options.contains(StandardOpenOption.APPEND));
+        }
+        finally
+        { (isCreated ? treeLock.writeLock() : treeLock.readLock()).unlock(); }
+
+        if(isWritable && options.contains(StandardOpenOption.TRUNCATE_EXISTING))
+          channel.truncate(0);
+
+        return channel;
+    }
+
+    /*
+        Method for obtaining a segment for the content of a file, allocating a new slab if none is free.
+        Throws IOException if the capacity of the file system has been reached.
+    */
+    private ByteBuffer allocateSegment() throws IOException
+    {
+        ByteBuffer slab;
+        int slabSize;
+
+        synchronized(freeSegments)
+        {
+            if(freeSegments.isEmpty())
+            {
+                slabSize = (int)Math.min(SLAB_SIZE, (capacity - allocatedMemory) / SEGMENT_SIZE * SEGMENT_SIZE);
+
+                if(slabSize < SEGMENT_SIZE)
+                  throw new IOException("No space left in the memory file system");
+
+                slab = ByteBuffer.allocateDirect(slabSize);
+
+                for(int offset = 0; offset < slabSize; offset += SEGMENT_SIZE)
+                  freeSegments.push(slab.slice(offset, SEGMENT_SIZE));
+
+                allocatedMemory += slabSize;
+            }
+
+            return freeSegments.pop();
+        }
+    }
+
+    /*
+        Method for returning the segments of a file to the free ones, after zeroing them.
+        Input:
+          1. the segments.
+    */
+    private void releaseSegments(List<ByteBuffer> segments)
+    {
+        for(ByteBuffer segment : segments)
+          segment.put(0, zeroSegment, 0, SEGMENT_SIZE);
+
+        synchronized(freeSegments)
+        {
+            for(ByteBuffer segment : segments)
+              freeSegments.push(segment);
+        }
+    }
+
+    //class for a file or a directory.
+    abstract class Node
+    {
+        final long        fileKey = lastFileKey.incrementAndGet();
+        final FileTime    creationTime = FileTime.from(java.time.Instant.now());
+        volatile FileTime lastModifiedTime = creationTime;
+
+        //Method for obtaining a copy of the attributes.
+        abstract Attributes getAttributes();
+    }
+
+    //class for a directory. The entries are guarded by the lock of the tree.
+    private class DirectoryNode extends Node
+    {
+        final TreeMap<String, Node> entries = new TreeMap<String, Node>();
+        int                         subdirectories;
+
+        //Method for adding an entry.
+        void add(String name, Node node)
+        {
+            entries.put(name, node);
+            update(node, 1);
+        }
+
+        //Method for removing an entry: a file is released.
+        void remove(String name)
+        {
+            Node node = entries.remove(name);
+
+            update(node, -1);
+
+            if(node instanceof FileNode)
+              ((FileNode)node).unlink();
+        }
+
+        //Method for updating the directory after an entry has been added (+1) or removed (-1).
+        void update(Node node, int change)
+        {
+            if(node instanceof DirectoryNode)
+              subdirectories += change;
+
+            lastModifiedTime = FileTime.from(java.time.Instant.now());
+        }
+
+        @Override
+        Attributes getAttributes()
+        { return new Attributes(this, true, DIRECTORY_SIZE, 2 + subdirectories); }
+    }
+
+    /*
+        Class for the content of a file, guarded by the file itself.
+        The bytes of the segments after the end of the file are always zero, so a file extended by a write or a truncate
+        reads zeros in the gap.
+    */
+    class FileNode extends Node
+    {
+        private final ArrayList<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+        private final ArrayList<ByteBuffer> retiredSegments = new ArrayList<ByteBuffer>(); //removed while other channels were open
+        private long                        size;
+        private int                         openChannels;
+        private boolean                     isLinked = true; //false = deleted, released when the last channel is closed
+
+        @Override
+        synchronized Attributes getAttributes()
+        { return new Attributes(this, false, size, 1); }
+
+        synchronized long size()
+        { return size; }
+
+        //Method called when a channel is opened.
+        synchronized void open()
+        { openChannels++; }
+
+        //Method called when a channel is closed: the segments no longer reachable are released.
+        synchronized void close()
+        {
+            if(--openChannels > 0)
+              return;
+
+            releaseSegments(retiredSegments);
+            retiredSegments.clear();
+
+            if(!isLinked)
+            {
+                releaseSegments(segments);
+                segments.clear();
+            }
+        }
+
+        //Method called when the file is removed from its directory.
+        synchronized void unlink()
+        {
+            isLinked = false;
+
+            if(openChannels == 0)
+            {
+                releaseSegments(segments);
+                segments.clear();
+            }
+        }
+
+        /*
+            Method for reading the content.
+            Input:
+              1. the buffer receiving the content.
+              2. the position of the file.
+            Return values:
+              1. the number of bytes read, -1 if the position is at the end of the file.
+        */
+        synchronized int read(ByteBuffer destination, long position)
+        {
+            int total = 0, offset, length;
+
+            if(position >= size)
+              return -1;
+
+            while(destination.hasRemaining() && position < size)
+            {
+                offset = (int)(position % SEGMENT_SIZE);
+                length = (int)Math.min(Math.min(destination.remaining(), SEGMENT_SIZE - offset), size - position);
+                destination.put(destination.position(), segments.get((int)(position / SEGMENT_SIZE)), offset, length);
+                destination.position(destination.position() + length);
+                position += length;
+                total += length;
+            }
+
+            return total;
+        }
+
+        /*
+            Method for obtaining views of the content, which can be written to a channel without holding the lock of the file.
+            Input:
+              1. the position of the file.
+              2. the maximum number of bytes.
+              3. the array receiving the views, one for each segment.
+            Return values:
+              1. the number of views, 0 if the position is at the end of the file.
+        */
+        synchronized int slice(long position, long count, ByteBuffer[] slices)
+        {
+            int sliceCount = 0, offset, length;
+
+            count = Math.min(count, size - position);
+
+            while(count > 0 && sliceCount < slices.length)
+            {
+                offset = (int)(position % SEGMENT_SIZE);
+                length = (int)Math.min(SEGMENT_SIZE - offset, count);
+                slices[sliceCount++] = segments.get((int)(position / SEGMENT_SIZE)).slice(offset, length);
+                position += length;
+                count -= length;
+            }
+
+            return sliceCount;
+        }
+
+        /*
+            Method for writing the content.
+            Input:
+              1. the buffer containing the data.
+              2. the position of the file.
+            Return values:
+              1. the number of bytes written, all those of the buffer.
+            Throws IOException if the capacity of the file system has been reached: in that case nothing is written.
+        */
+        synchronized int write(ByteBuffer source, long position) throws IOException
+        {
+            int total = source.remaining(), offset, length;
+
+            if(total == 0)
+              return 0;
+
+            while(segments.size() < (position + total + SEGMENT_SIZE - 1) / SEGMENT_SIZE)
+              segments.add(allocateSegment());
+
+            while(source.hasRemaining())
+            {
+                offset = (int)(position % SEGMENT_SIZE);
+                length = Math.min(source.remaining(), SEGMENT_SIZE - offset);
+                segments.get((int)(position / SEGMENT_SIZE)).put(offset, source, source.position(), length);
+                source.position(source.position() + length);
+                position += length;
+            }
+
+            size = Math.max(size, position);
+            lastModifiedTime = FileTime.from(java.time.Instant.now());
+            return total;
+        }
+
+        /*
+            Method for truncating the content.
+            Input:
+              1. the new size, ignored if not smaller than the current size.
+        */
+        synchronized void truncate(long newSize)
+        {
+            int keptSegments = (int)((newSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            List<ByteBuffer> removedSegments;
+
+            if(newSize >= size)
+              return;
+
+            if(newSize % SEGMENT_SIZE != 0)
+              segments.get(keptSegments - 1).put((int)(newSize % SEGMENT_SIZE), zeroSegment, 0, SEGMENT_SIZE - (int)(newSize % SEGMENT_SIZE));
+
+            removedSegments = segments.subList(keptSegments, segments.size());
+
+            //the channel truncating the file is open: the others may still be reading the removed segments.
+            if(openChannels > 1)
+              retiredSegments.addAll(removedSegments);
+            else
+              releaseSegments(removedSegments);
+
+            removedSegments.clear();
+            size = newSize;
+            lastModifiedTime = FileTime.from(java.time.Instant.now());
+        }
+
+        //Method for creating a file with the same content.
+        synchronized FileNode copy() throws IOException
+        {
+            FileNode copy = new FileNode();
+
+            for(int i = 0; (long)i * SEGMENT_SIZE < size; i++)
+              copy.write(segments.get(i).duplicate().limit((int)Math.min(SEGMENT_SIZE, size - (long)i * SEGMENT_SIZE)), (long)i * SEGMENT_SIZE);
+
+            return copy;
+        }
+    }
+
+    /*
+        Class for the attributes of a file, copied when they're read.
+        The attributes of the "unix" view are those read by the listings: "mode", "nlink", "uid", "gid", "owner", "group", "dev" and "ino".
+    */
+    class Attributes implements BasicFileAttributes
+    {
+        private static final List<String> basicNames =
+          List.of("size", "lastModifiedTime", "lastAccessTime", "creationTime", "isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey");
+        private static final List<String> unixNames;
+
+        static
+        {
+            ArrayList<String> names = new ArrayList<String>(basicNames);
+
+            names.addAll(List.of("mode", "nlink", "uid", "gid", "owner", "group", "dev", "ino"));
+            unixNames = List.copyOf(names);
+        }
+
+        private final long     fileKey;
+        private final boolean  isDirectory;
+        private final long     size;
+        private final int      links;
+        private final FileTime creationTime;
+        private final FileTime lastModifiedTime;
+
+        Attributes(Node node, boolean isDirectory, long size, int links)
+        {
+            fileKey = node.fileKey;
+            creationTime = node.creationTime;
+            lastModifiedTime = node.lastModifiedTime;
+            this.isDirectory = isDirectory;
+            this.size = size;
+            this.links = links;
+        }
+
+        //Method for obtaining the names of the attributes of a view ("basic" or "unix").
+        static List<String> getNames(String view)
+        { return (view.equals("unix")) ? unixNames : basicNames; }
+
+        //Method for obtaining an attribute by name.
+        Object get(String name)
+        {
+            switch(name)
+            {
+                case "size":             return size;
+                case "lastModifiedTime": return lastModifiedTime;
+                case "lastAccessTime":   return lastModifiedTime;
+                case "creationTime":     return creationTime;
+                case "isRegularFile":    return !isDirectory;
+                case "isDirectory":      return isDirectory;
+                case "isSymbolicLink":   return false;
+                case "isOther":          return false;
+                case "fileKey":          return fileKey;
+                case "mode":             return (isDirectory) ? 040755 : 0100644;
+                case "nlink":            return links;
+                case "uid":              return ownerAttributes.getOrDefault("uid", 0);
+                case "gid":              return ownerAttributes.getOrDefault("gid", 0);
+                case "owner":            return ownerAttributes.get("owner");
+                case "group":            return ownerAttributes.get("group");
+                case "dev":              return 0L;
+                case "ino":              return fileKey;
+                default:                 throw new IllegalArgumentException("'" + name + "' not recognized");
+            }
+        }
+
+        @Override
+        public FileTime lastModifiedTime()
+        { return lastModifiedTime; }
+
+        @Override
+        public FileTime lastAccessTime()
+        { return lastModifiedTime; }
+
+        @Override
+        public FileTime creationTime()
+        { return creationTime; }
+
+        @Override
+        public boolean isRegularFile()
+        { return !isDirectory; }
+
+        @Override
+        public boolean isDirectory()
+        { return isDirectory; }
+
+        @Override
+        public boolean isSymbolicLink()
+        { return false; }
+
+        @Override
+        public boolean isOther()
+        { return false; }
+
+        @Override
+        public long size()
+        { return size; }
+
+        @Override
+        public Object fileKey()
+        { return fileKey; }
+    }
+}
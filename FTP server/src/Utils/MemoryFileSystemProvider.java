@@ -0,0 +1,159 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.nio.file.spi.*;
+import java.util.*;
+
+/*
+    Class for the provider of a MemoryFileSystem, which receives the calls of the Files and FileChannel methods on its pathnames
+    and passes them to the file system.
+    The provider isn't installed: each MemoryFileSystem is created by the server and has its own provider,
+    so the file systems can't be obtained from a URI.
+*/
+public class MemoryFileSystemProvider extends FileSystemProvider
+{
+    @Override
+    public String getScheme()
+    { return "jftpmemory"; }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> environment)
+    { throw new UnsupportedOperationException(); }
+
+    @Override
+    public FileSystem getFileSystem(URI uri)
+    { throw new FileSystemNotFoundException(uri.toString()); }
+
+    @Override
+    public Path getPath(URI uri)
+    { throw new FileSystemNotFoundException(uri.toString()); }
+
+    //Method for checking that a pathname belongs to a file system of this provider.
+    private MemoryPath check(Path path)
+    {
+        if(!(Objects.requireNonNull(path) instanceof MemoryPath) || path.getFileSystem().provider() != this)
+          throw new ProviderMismatchException();
+
+        return (MemoryPath)path;
+    }
+
+    @Override
+    public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attributes) throws IOException
+    { return check(path).getFileSystem().newFileChannel((MemoryPath)path, options); }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attributes) throws IOException
+    { return newFileChannel(path, options, attributes); }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path directory, DirectoryStream.Filter<? super Path> filter) throws IOException
+    { return check(directory).getFileSystem().newDirectoryStream((MemoryPath)directory, filter); }
+
+    @Override
+    public void createDirectory(Path directory, FileAttribute<?>... attributes) throws IOException
+    { check(directory).getFileSystem().createDirectory((MemoryPath)directory); }
+
+    @Override
+    public void delete(Path path) throws IOException
+    { check(path).getFileSystem().delete((MemoryPath)path); }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException
+    {
+        List<CopyOption> optionList = Arrays.asList(options);
+
+        check(source).getFileSystem().copy
+          (
+              (MemoryPath)source, check(target), optionList.contains(StandardCopyOption.REPLACE_EXISTING),
+              optionList.contains(StandardCopyOption.COPY_ATTRIBUTES)
+          );
+    }
+
+    //The moves are always atomic.
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException
+    {
+        List<CopyOption> optionList = Arrays.asList(options);
+
+        check(source).getFileSystem().move
+          (
+              (MemoryPath)source, check(target),
+              optionList.contains(StandardCopyOption.REPLACE_EXISTING) || optionList.contains(StandardCopyOption.ATOMIC_MOVE)
+          );
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path otherPath) throws IOException
+    {
+        if(path.equals(otherPath))
+          return true;
+
+        if(!(otherPath instanceof MemoryPath) || path.getFileSystem() != otherPath.getFileSystem())
+          return false;
+
+        return check(path).getFileSystem().isSameFile((MemoryPath)path, (MemoryPath)otherPath);
+    }
+
+    @Override
+    public boolean isHidden(Path path)
+    { return check(path).getFileName() != null && path.getFileName().toString().startsWith("."); }
+
+    @Override
+    public FileStore getFileStore(Path path)
+    { throw new UnsupportedOperationException(); }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException
+    { check(path).getFileSystem().checkAccess((MemoryPath)path); }
+
+    //Only the "basic" view is available, and it sets only the modification time.
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options)
+    {
+        MemoryPath memoryPath = check(path);
+
+        if(type != BasicFileAttributeView.class)
+          return null;
+
+        return (V)new BasicFileAttributeView()
+          {
+              @Override
+              public String name()
+              { return "basic"; }
+
+              @Override
+              public BasicFileAttributes readAttributes() throws IOException
+              { return memoryPath.getFileSystem().readAttributes(memoryPath); }
+
+              @Override
+              public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) throws IOException
+              { memoryPath.getFileSystem().setLastModifiedTime(memoryPath, lastModifiedTime); }
+          };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException
+    {
+        if(type != BasicFileAttributes.class)
+          throw new UnsupportedOperationException();
+
+        return (A)check(path).getFileSystem().readAttributes((MemoryPath)path);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException
+    { return check(path).getFileSystem().readAttributes((MemoryPath)path, attributes); }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException
+    {
+        if(!attribute.equals("lastModifiedTime") && !attribute.equals("basic:lastModifiedTime"))
+          throw new UnsupportedOperationException("'" + attribute + "' can't be set");
+
+        check(path).getFileSystem().setLastModifiedTime((MemoryPath)path, (FileTime)value);
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+    Class for a pathname of a MemoryFileSystem. The pathnames are kept as strings with "/" separators and no redundant "/",
+    the names are split only when they're needed.
+    The memory directories can't be watched: register() throws UnsupportedOperationException, so they're not kept in the listing cache.
+*/
+public class MemoryPath implements Path
+{
+    private final MemoryFileSystem fileSystem;
+    private final String           pathname;  //"/" for the root, "" for the empty path
+    private String[]               names;     //created when needed
+
+    /*
+        Input:
+          1. the file system.
+          2. the pathname, without redundant "/".
+    */
+    MemoryPath(MemoryFileSystem fileSystem, String pathname)
+    {
+        this.fileSystem = fileSystem;
+        this.pathname = pathname;
+    }
+
+    /*
+        Method for creating a pathname from its parts, as FileSystem.getPath().
+        Input:
+          1. the file system.
+          2. the parts of the pathname, joined with "/".
+    */
+    static MemoryPath create(MemoryFileSystem fileSystem, String first, String... more)
+    {
+        StringBuilder pathname = new StringBuilder(first);
+
+        for(String part : more)
+        {
+            if(!part.isEmpty())
+              pathname.append('/').append(part);
+        }
+
+        return new MemoryPath(fileSystem, clean(pathname.toString()));
+    }
+
+    //Method for removing the redundant "/" of a pathname.
+    private static String clean(String pathname)
+    {
+        StringBuilder cleanPathname = new StringBuilder(pathname.length());
+        char previous = 0;
+
+        for(int i = 0; i < pathname.length(); i++)
+        {
+            if(pathname.charAt(i) == '\u0000')
+              throw new InvalidPathException(pathname, "Nul character not allowed");
+
+            if(pathname.charAt(i) != '/' || previous != '/')
+              cleanPathname.append(pathname.charAt(i));
+
+            previous = pathname.charAt(i);
+        }
+
+        if(cleanPathname.length() > 1 && previous == '/')
+          cleanPathname.setLength(cleanPathname.length() - 1);
+
+        return cleanPathname.toString();
+    }
+
+    //Method for obtaining the names of the pathname, without the root.
+    String[] getNames()
+    {
+        if(names == null)
+          names = (pathname.isEmpty() || pathname.equals("/")) ? new String[0] : pathname.substring((isAbsolute()) ? 1 : 0).split("/");
+
+        return names;
+    }
+
+    /*
+        Method for creating a pathname from some names.
+        Input:
+          1. true for an absolute pathname.
+          2. the names.
+          3. the first name, included.
+          4. the last name, excluded.
+    */
+    private MemoryPath join(boolean isAbsolute, String[] names, int start, int end)
+    {
+        StringBuilder pathname = new StringBuilder((isAbsolute) ? "/" : "");
+
+        for(int i = start; i < end; i++)
+          pathname.append((i > start) ? "/" : "").append(names[i]);
+
+        return new MemoryPath(fileSystem, pathname.toString());
+    }
+
+    //Method for checking whether a pathname belongs to the same file system.
+    private MemoryPath check(Path other)
+    {
+        if(!(Objects.requireNonNull(other) instanceof MemoryPath) || ((MemoryPath)other).fileSystem != fileSystem)
+          throw new ProviderMismatchException();
+
+        return (MemoryPath)other;
+    }
+
+    @Override
+    public MemoryFileSystem getFileSystem()
+    { return fileSystem; }
+
+    @Override
+    public boolean isAbsolute()
+    { return pathname.startsWith("/"); }
+
+    @Override
+    public Path getRoot()
+    { return (isAbsolute()) ? new MemoryPath(fileSystem, "/") : null; }
+
+    @Override
+    public Path getFileName()
+    {
+        String[] names = getNames();
+
+        if(pathname.isEmpty())
+          return this;
+
+        return (names.length == 0) ? null : new MemoryPath(fileSystem, names[names.length - 1]);
+    }
+
+    @Override
+    public Path getParent()
+    {
+        String[] names = getNames();
+
+        if(names.length == 0 || (names.length == 1 && !isAbsolute()))
+          return null;
+
+        return join(isAbsolute(), names, 0, names.length - 1);
+    }
+
+    @Override
+    public int getNameCount()
+    { return (pathname.isEmpty()) ? 1 : getNames().length; }
+
+    @Override
+    public Path getName(int index)
+    { return subpath(index, index + 1); }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex)
+    {
+        String[] names = (pathname.isEmpty()) ? new String[] {""} : getNames();
+
+        if(beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex)
+          throw new IllegalArgumentException();
+
+        return join(false, names, beginIndex, endIndex);
+    }
+
+    @Override
+    public boolean startsWith(Path other)
+    {
+        String[] names = getNames(), otherNames;
+
+        if(!(other instanceof MemoryPath) || ((MemoryPath)other).fileSystem != fileSystem || ((MemoryPath)other).isAbsolute() != isAbsolute())
+          return false;
+
+        otherNames = ((MemoryPath)other).getNames();
+
+        if(otherNames.length > names.length || (((MemoryPath)other).pathname.isEmpty() && !pathname.isEmpty()))
+          return false;
+
+        return Arrays.equals(names, 0, otherNames.length, otherNames, 0, otherNames.length);
+    }
+
+    @Override
+    public boolean endsWith(Path other)
+    {
+        String[] names = getNames(), otherNames;
+
+        if(!(other instanceof MemoryPath) || ((MemoryPath)other).fileSystem != fileSystem)
+          return false;
+
+        if(((MemoryPath)other).isAbsolute())
+          return equals(other);
+
+        otherNames = ((MemoryPath)other).getNames();
+
+        if(otherNames.length > names.length || (((MemoryPath)other).pathname.isEmpty() && !pathname.isEmpty()))
+          return false;
+
+        return Arrays.equals(names, names.length - otherNames.length, names.length, otherNames, 0, otherNames.length);
+    }
+
+    @Override
+    public Path normalize()
+    {
+        ArrayList<String> normalizedNames = new ArrayList<String>();
+
+        for(String name : getNames())
+        {
+            if(name.equals("."))
+              continue;
+
+            if(name.equals("..") && !normalizedNames.isEmpty() && !normalizedNames.get(normalizedNames.size() - 1).equals(".."))
+              normalizedNames.remove(normalizedNames.size() - 1);
+
+            else if(!name.equals("..") || !isAbsolute())
+              normalizedNames.add(name);
+        }
+
+        return join(isAbsolute(), normalizedNames.toArray(new String[0]), 0, normalizedNames.size());
+    }
+
+    @Override
+    public Path resolve(Path other)
+    {
+        MemoryPath otherPath = check(other);
+
+        if(otherPath.isAbsolute())
+          return otherPath;
+
+        if(otherPath.pathname.isEmpty())
+          return this;
+
+        if(pathname.isEmpty())
+          return otherPath;
+
+        return new MemoryPath(fileSystem, (pathname.equals("/")) ? "/" + otherPath.pathname : pathname + "/" + otherPath.pathname);
+    }
+
+    @Override
+    public Path resolve(String other)
+    { return resolve(fileSystem.getPath(other)); }
+
+    @Override
+    public Path relativize(Path other)
+    {
+        MemoryPath otherPath = check(other);
+        String[] names = getNames(), otherNames = otherPath.getNames();
+        ArrayList<String> relativeNames = new ArrayList<String>();
+        int common = 0;
+
+        if(otherPath.isAbsolute() != isAbsolute())
+          throw new IllegalArgumentException("'other' is different type of Path");
+
+        while(common < names.length && common < otherNames.length && names[common].equals(otherNames[common]))
+          common++;
+
+        for(int i = common; i < names.length; i++)
+          relativeNames.add("..");
+
+        relativeNames.addAll(Arrays.asList(otherNames).subList(common, otherNames.length));
+        return join(false, relativeNames.toArray(new String[0]), 0, relativeNames.size());
+    }
+
+    @Override
+    public URI toUri()
+    {
+        try
+        {
+            return new URI(fileSystem.provider().getScheme(), null, ((MemoryPath)toAbsolutePath()).pathname, null);
+        }
+        catch(URISyntaxException excp)
+        { throw new IOError(excp); }
+    }
+
+    @Override
+    public Path toAbsolutePath()
+    { return (isAbsolute()) ? this : new MemoryPath(fileSystem, "/").resolve(this); }
+
+    //There are no symbolic links: the real path is the normalized absolute pathname of an existing file.
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException
+    {
+        Path realPath = toAbsolutePath().normalize();
+
+        fileSystem.provider().checkAccess(realPath);
+        return realPath;
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers)
+    { throw new UnsupportedOperationException("The memory directories can't be watched"); }
+
+    @Override
+    public int compareTo(Path other)
+    { return pathname.compareTo(check(other).pathname); }
+
+    @Override
+    public boolean equals(Object other)
+    { return other instanceof MemoryPath && ((MemoryPath)other).fileSystem == fileSystem && ((MemoryPath)other).pathname.equals(pathname); }
+
+    @Override
+    public int hashCode()
+    { return pathname.hashCode(); }
+
+    @Override
+    public String toString()
+    { return pathname; }
+}
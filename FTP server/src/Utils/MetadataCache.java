@@ -0,0 +1,112 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/*
+    Class for the attributes (size, last modification time, type) of the files requested by the SIZE and MDTM commands,
+    shared by all the sessions, so a client checking many files costs a lookup for each file instead of a file system call.
+    An attribute set expires after a short time, which bounds how long a change made outside the server goes unnoticed,
+    while the sessions drop it as soon as they change the file (STOR, DELE, RNTO, MKD, RMD).
+    The least recently used attribute sets are evicted when the cache is full.
+*/
+public class MetadataCache
+{
+    private final LinkedHashMap<Path, CachedMetadata> entries;    //null = no cache, guarded by itself
+    private final long                                timeToLive; //nanoseconds
+    private long                                      invalidations; //guarded by entries
+
+    /*
+        Input:
+          1. the maximum number of attribute sets kept (0 = no cache).
+          2. the time after which an attribute set is read again, in milliseconds.
+    */
+    public MetadataCache(int maxEntries, int timeToLive)
+    {
+        this.timeToLive = timeToLive * 1000000L;
+
+        if(maxEntries <= 0 || timeToLive <= 0)
+        {
+            entries = null;
+            return;
+        }
+
+        entries = new LinkedHashMap<Path, CachedMetadata>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, CachedMetadata> eldest)
+            { return size() > maxEntries; }
+        };
+    }
+
+    /*
+        Method for obtaining the attributes of a file, from the cache if present and not expired.
+        Input:
+          1. the pathname of the file.
+        Return value:
+          1. the attributes of the file. The symbolic links are not followed: the attributes are those of the link.
+        An attribute set read while the file was changed by a session is not cached.
+    */
+    public BasicFileAttributes get(Path file) throws IOException
+    {
+        CachedMetadata metadata;
+        BasicFileAttributes attributes;
+        long invalidationCount;
+
+        if(entries == null)
+          return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+        file = file.toAbsolutePath().normalize();
+
+        synchronized(entries)
+        {
+            if((metadata = entries.get(file)) != null && System.nanoTime() - metadata.readTime < timeToLive)
+              return metadata.attributes;
+
+            invalidationCount = invalidations;
+        }
+
+        attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+        synchronized(entries)
+        {
+            if(invalidations == invalidationCount)
+              entries.put(file, new CachedMetadata(attributes));
+        }
+
+        return attributes;
+    }
+
+    /*
+        Method for dropping the attributes of a file, and of its parent directory whose modification time changes with it.
+        Input:
+          1. the pathname of the file created, changed, renamed or deleted.
+        The sessions rename only files and delete only empty directories, so no other file changes its pathname.
+    */
+    public void invalidate(Path file)
+    {
+        if(entries == null)
+          return;
+
+        file = file.toAbsolutePath().normalize();
+
+        synchronized(entries)
+        {
+            invalidations++;
+            entries.remove(file);
+
+            if(file.getParent() != null)
+              entries.remove(file.getParent());
+        }
+    }
+
+    //class for a cached attribute set.
+    private static class CachedMetadata
+    {
+        final BasicFileAttributes attributes;
+        final long                readTime = System.nanoTime();
+
+        CachedMetadata(BasicFileAttributes attributes)
+        { this.attributes = attributes; }
+    }
+}
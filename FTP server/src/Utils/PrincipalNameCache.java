@@ -0,0 +1,78 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the names of the owners or of the groups of the files, keyed by their numeric id and shared by all the listings.
+    Reading the "owner" or "group" attribute resolves the name with a lookup in the name service (passwd, LDAP, NIS...)
+    for each file, so the listings read the numeric id instead and resolve each id once.
+    A name is resolved again after a minute, so a renamed user or group is listed with the new name.
+*/
+public class PrincipalNameCache
+{
+    private static final long timeToLive = TimeUnit.MINUTES.toNanos(1);
+
+    private final String                                  idAttribute;   //"uid" or "gid"
+    private final String                                  nameAttribute; //"owner" or "group"
+    private final ConcurrentHashMap<Integer, PrincipalName> names = new ConcurrentHashMap<Integer, PrincipalName>();
+
+    /*
+        Input:
+          1. the attribute of the "unix" view containing the id: "uid" or "gid".
+          2. the attribute of the "unix" view resolving the name: "owner" or "group".
+    */
+    public PrincipalNameCache(String idAttribute, String nameAttribute)
+    {
+        this.idAttribute = idAttribute;
+        this.nameAttribute = nameAttribute;
+    }
+
+    /*
+        Method for obtaining the name of an id.
+        Input:
+          1. the numeric id of the user or group.
+          2. a file owned by the id, whose attribute is read if the name is not in the cache.
+        Return value:
+          1. the name, the id itself if the file can't be read.
+    */
+    public PrincipalName get(int id, Path file)
+    {
+        PrincipalName name = names.get(id);
+        Map<String, Object> attributes;
+
+        if(name != null && System.nanoTime() - name.resolvedTime < timeToLive)
+          return name;
+
+        try
+        {
+            attributes = Files.readAttributes(file, "unix:" + idAttribute + "," + nameAttribute);
+        }
+        catch(IOException | RuntimeException excp)
+        { return new PrincipalName(String.valueOf(id)); } //not cached: the file may have been deleted meanwhile
+
+        //the file may have changed owner since its id was read.
+        if((Integer)attributes.get(idAttribute) != id)
+          return new PrincipalName(String.valueOf(id));
+
+        name = new PrincipalName(((UserPrincipal)attributes.get(nameAttribute)).getName());
+        names.put(id, name);
+        return name;
+    }
+
+    //class for a resolved name.
+    public static class PrincipalName
+    {
+        public final String name;
+        public final byte[] bytes; //the name encoded with the default charset
+        final long          resolvedTime = System.nanoTime();
+
+        PrincipalName(String name)
+        {
+            this.name = name;
+            bytes = name.getBytes(Charset.defaultCharset());
+        }
+    }
+}
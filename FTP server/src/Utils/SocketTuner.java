@@ -0,0 +1,96 @@
+import java.net.*;
+import java.io.*;
+import java.nio.channels.*;
+
+/*
+    Class for applying the socket options set in the configuration file to the control and data connections.
+    The buffer sizes of the data connections are set before connecting (or before binding the passive mode listener),
+    so that the TCP window scale negotiated with the client can use them. A size of 0 leaves the buffers
+    to the kernel, which on most systems tunes them automatically.
+*/
+public class SocketTuner
+{
+    private final boolean controlTcpNoDelay;
+    private final boolean controlKeepAlive;
+    private final boolean dataTcpNoDelay;
+    private final int     dataSendBuffer;
+    private final int     dataReceiveBuffer;
+    private final boolean isAdaptive;
+    private final int     maxDataBuffer;
+
+    public SocketTuner(ServerConfiguration serverConfiguration)
+    {
+        controlTcpNoDelay = serverConfiguration.controlTcpNoDelay;
+        controlKeepAlive = serverConfiguration.controlKeepAlive;
+        dataTcpNoDelay = serverConfiguration.dataTcpNoDelay;
+        dataSendBuffer = serverConfiguration.dataSendBuffer;
+        dataReceiveBuffer = serverConfiguration.dataReceiveBuffer;
+        isAdaptive = serverConfiguration.adaptiveDataBuffers;
+        maxDataBuffer = serverConfiguration.maxDataBuffer;
+    }
+
+    /*
+        Method for setting the options of a control connection.
+        Input:
+          1. the control connection.
+        The urgent data is kept inline: the clients send the last byte of the ABOR command line as urgent data.
+    */
+    public void configureControlConnection(Socket controlConnection) throws SocketException
+    {
+        controlConnection.setTcpNoDelay(controlTcpNoDelay);
+        controlConnection.setKeepAlive(controlKeepAlive);
+        controlConnection.setOOBInline(true);
+    }
+
+    /*
+        Method for setting the buffer sizes of a data connection before connecting it.
+        Input:
+          1. the unconnected data connection.
+    */
+    public void configureDataChannel(SocketChannel dataChannel) throws IOException
+    {
+        if(dataReceiveBuffer > 0)
+          dataChannel.socket().setReceiveBufferSize(dataReceiveBuffer);
+
+        if(dataSendBuffer > 0)
+          dataChannel.socket().setSendBufferSize(dataSendBuffer);
+    }
+
+    /*
+        Method for setting the receive buffer size of the passive mode listener before binding it.
+        Input:
+          1. the unbound listener, whose accepted data connections inherit the receive buffer size.
+    */
+    public void configureDataListener(ServerSocketChannel dataListener) throws IOException
+    {
+        if(dataReceiveBuffer > 0)
+          dataListener.socket().setReceiveBufferSize(dataReceiveBuffer);
+    }
+
+    /*
+        Method for setting the options of a connected data connection.
+        Input:
+          1. the data connection.
+    */
+    public void configureDataConnection(Socket dataConnection) throws SocketException
+    {
+        if(dataSendBuffer > 0)
+          dataConnection.setSendBufferSize(dataSendBuffer);
+
+        dataConnection.setTcpNoDelay(dataTcpNoDelay);
+    }
+
+    /*
+        Method for starting the adaptive sizing of the buffers of a data connection, if enabled.
+        Input:
+          1. the monitor of the transfer.
+          2. the data connection.
+          3. true if the server sends the data, false if it receives it.
+          4. the estimated round trip time of the data connection in nanoseconds, 0 if unknown.
+    */
+    public void adaptDataBuffers(TransferMonitor monitor, Socket dataConnection, boolean isSending, long roundTripTime)
+    {
+        if(isAdaptive && roundTripTime > 0)
+          monitor.adaptBuffers(dataConnection, isSending, roundTripTime, maxDataBuffer);
+    }
+}
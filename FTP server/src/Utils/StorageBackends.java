@@ -0,0 +1,188 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+
+/*
+    Class for the storage backends of the user root directories, selected by the "storage" parameter:
+      - "disk": the files are in the server root directory on the local disk. It's the backend of the directories not listed.
+      - "memory": the files are in a MemoryFileSystem shared by all the memory directories, with the same pathnames as under
+                  the server root directory. At startup each memory directory is loaded with a copy of the same directory
+                  on the disk, if it exists (the symbolic links are not copied). The changes are lost when the server stops.
+      - "dedup": the files are on the local disk, and the uploads are deduplicated by the BlobStore in the "blobdirectory" parameter.
+    The backend of a user is the one of the longest listed directory containing its root directory: a user whose root
+    is above a memory directory sees the directory on the disk.
+    Each backend is a java.nio.file file system, so the sessions use them in the same way, through the storage root.
+*/
+public class StorageBackends
+{
+    private final Path                    diskRoot;         //server root directory on the disk
+    private final MemoryFileSystem        memoryFileSystem; //null if no directory is in memory
+    private final BlobStore               blobStore;        //null if no directory is deduplicated
+    private final TreeMap<String, String> backends;         //backend of each listed directory, the longest directories last
+
+    /*
+        Input:
+          1. the checked server configuration.
+        Throws FileSystemException, whose file is the directory, if a memory directory can't be loaded
+        (for example because it doesn't fit in the "memorystoragesize" parameter) or the blob directory can't be created.
+    */
+    public StorageBackends(ServerConfiguration configuration) throws FileSystemException
+    {
+        Map<String, Object> ownerAttributes;
+        String[] entryTokens;
+
+        diskRoot = Paths.get(configuration.rootDirectory);
+        backends = new TreeMap<String, String>(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+
+        for(String entry : configuration.storage)
+        {
+            entryTokens = new String[] {entry.substring(0, entry.lastIndexOf(':')), entry.substring(entry.lastIndexOf(':') + 1)};
+            backends.put(Utils.getCorrectPath("/", "/", entryTokens[0]), entryTokens[1]);
+        }
+
+        try
+        {
+            blobStore = (backends.containsValue("dedup")) ? new BlobStore(Paths.get(configuration.blobDirectory)) : null;
+        }
+        catch(IOException excp)
+        { throw new FileSystemException(configuration.blobDirectory, null, (excp.getMessage() == null) ? excp.toString() : excp.getMessage()); }
+
+        if(!backends.containsValue("memory"))
+        {
+            memoryFileSystem = null;
+            return;
+        }
+
+        try
+        {
+            ownerAttributes = Files.readAttributes(diskRoot, "unix:uid,gid,owner,group");
+        }
+        catch(IOException | UnsupportedOperationException excp)
+        { ownerAttributes = Map.of(); }
+
+        memoryFileSystem = new MemoryFileSystem(configuration.memoryStorageSize, ownerAttributes);
+
+        for(Map.Entry<String, String> backend : backends.entrySet())
+        {
+            if(!backend.getValue().equals("memory"))
+              continue;
+
+            try
+            {
+                load(backend.getKey());
+            }
+            catch(IOException excp)
+            { throw new FileSystemException(backend.getKey(), null, (excp.getMessage() == null) ? excp.toString() : excp.getMessage()); }
+        }
+    }
+
+    /*
+        Method for obtaining the storage root of a user.
+        Input:
+          1. the root directory of the user.
+        Return value:
+          1. the directory containing the files under the server root directory, in the backend of the root directory of the user.
+    */
+    public Path getStorageRoot(String rootDirectory)
+    { return (getBackend(rootDirectory).equals("memory")) ? memoryFileSystem.getPath("/") : diskRoot; }
+
+    /*
+        Method for obtaining the store of the blobs linked by the files of a user.
+        Input:
+          1. the root directory of the user.
+        Return value:
+          1. the blob store, null if no directory is deduplicated or the user is in memory.
+        The store is returned also to the users outside the "dedup" directories, since they can write in place a file linked to a blob.
+    */
+    public BlobStore getBlobStore(String rootDirectory)
+    { return (getBackend(rootDirectory).equals("memory")) ? null : blobStore; }
+
+    /*
+        Method for checking whether the uploads to a file are deduplicated.
+        Input:
+          1. the pathname of the file, under the server root directory.
+        Return value:
+          1. true if the file is in a "dedup" directory.
+    */
+    public boolean isDeduplicated(String pathname)
+    { return getBackend(pathname).equals("dedup"); }
+
+    //Method for obtaining the backend of a directory.
+    private String getBackend(String directory)
+    {
+        String backend = "disk";
+
+        for(Map.Entry<String, String> listedBackend : backends.entrySet())
+        {
+            if(listedBackend.getKey().equals("/") || directory.equals(listedBackend.getKey()) ||
+               directory.startsWith(listedBackend.getKey() + "/"))
+              backend = listedBackend.getValue();
+        }
+
+        return backend;
+    }
+
+    /*
+        Method for loading a memory directory with a copy of the same directory on the disk.
+        Input:
+          1. the pathname of the directory, under the server root directory.
+        The directory is created in memory even if it doesn't exist on the disk.
+    */
+    private void load(String directory) throws IOException
+    {
+        Path source = diskRoot.resolve(directory.substring(1)), target = memoryFileSystem.getPath(directory);
+        long[] counters = new long[2]; //files, bytes
+
+        Files.createDirectories(target);
+
+        if(Files.isDirectory(source))
+        {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+              {
+                  @Override
+                  public FileVisitResult preVisitDirectory(Path sourceDirectory, BasicFileAttributes attributes) throws IOException
+                  {
+                      Files.createDirectories(getTarget(sourceDirectory));
+                      return FileVisitResult.CONTINUE;
+                  }
+
+                  @Override
+                  public FileVisitResult visitFile(Path sourceFile, BasicFileAttributes attributes) throws IOException
+                  {
+                      if(!attributes.isRegularFile())
+                        return FileVisitResult.CONTINUE;
+
+                      try(FileChannel sourceChannel = FileChannel.open(sourceFile);
+                          FileChannel targetChannel = FileChannel.open(getTarget(sourceFile), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
+                      {
+                          for(long position = 0; position < attributes.size(); )
+                            position += sourceChannel.transferTo(position, attributes.size() - position, targetChannel);
+                      }
+
+                      Files.setLastModifiedTime(getTarget(sourceFile), attributes.lastModifiedTime());
+                      counters[0]++;
+                      counters[1] += attributes.size();
+                      return FileVisitResult.CONTINUE;
+                  }
+
+                  @Override
+                  public FileVisitResult postVisitDirectory(Path sourceDirectory, IOException excp) throws IOException
+                  {
+                      if(excp != null)
+                        throw excp;
+
+                      Files.setLastModifiedTime(getTarget(sourceDirectory), Files.getLastModifiedTime(sourceDirectory));
+                      return FileVisitResult.CONTINUE;
+                  }
+
+                  //Method for obtaining the pathname in memory of a file on the disk.
+                  private Path getTarget(Path sourceFile)
+                  { return target.resolve(source.relativize(sourceFile).toString()); }
+              });
+        }
+
+        System.out.print(LogMessage.create(LogMessage.storageLoaded, directory, Long.toString(counters[0]), Long.toString(counters[1])));
+    }
+}
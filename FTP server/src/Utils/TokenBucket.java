@@ -0,0 +1,66 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+/*
+    Class for limiting the bandwidth of the transfers with the token bucket algorithm.
+    The bucket fills up at the configured rate, up to a burst of a tenth of a second (at least 64KB).
+    The bytes are consumed after being transferred: if the bucket doesn't contain enough tokens it goes negative,
+    and the thread waits for the time needed to refill it, so the average rate never exceeds the configured one.
+*/
+public class TokenBucket
+{
+    private static final long MIN_BURST = 65536;
+
+    private final long rate;       //bytes per second
+    private final long burst;
+    private double     tokens;
+    private long       lastRefill;
+
+    /*
+        Input:
+          1. the rate in bytes per second.
+    */
+    public TokenBucket(long rate)
+    {
+        this.rate = rate;
+        burst = Math.max(MIN_BURST, rate / 10);
+        tokens = burst;
+        lastRefill = System.nanoTime();
+    }
+
+    //Method for obtaining the rate of the bucket, in bytes per second.
+    public long getRate()
+    { return rate; }
+
+    /*
+        Method for consuming the tokens of the transferred bytes.
+        Input:
+          1. the number of bytes transferred.
+        Waits until the bucket is no longer in debt.
+    */
+    public void consume(long count) throws InterruptedIOException
+    {
+        long waitTime, now;
+
+        synchronized(this)
+        {
+            now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * (rate / 1e9)) - count;
+            lastRefill = now;
+            waitTime = (tokens < 0) ? (long)(-tokens / rate * 1e9) : 0;
+        }
+
+        if(waitTime == 0)
+          return;
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(waitTime);
+        }
+        catch(InterruptedException excp)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.net.*;
+import java.io.*;
+import java.util.concurrent.*;
+
+/*
+    Class used to follow a data transfer: it counts the bytes transferred and measures the throughput.
+    It can also close the data connection when no bytes are transferred for longer than a timeout,
+    which is needed for the transfers made directly on channels, since they ignore the socket timeout,
+    and raise the buffer sizes of the data connection while the transfer starts.
+    If the session is subject to bandwidth limits, counting the bytes also waits for the bandwidth they used.
+*/
+public class TransferMonitor
+{
+    //thread shared by all the transfers to check the timeouts.
+    private static final ScheduledExecutorService timeoutChecker = Executors.newSingleThreadScheduledExecutor(runnable ->
+      {
+          Thread thread = new Thread(runnable, "jftp-transfer-timeout");
+          thread.setDaemon(true);
+          return thread;
+      });
+    //interval between the checks of the adaptive buffer sizing, in milliseconds.
+    private static final int ADAPTIVE_INTERVAL = 50;
+    //bytes of the transfer during which the buffer sizes are adapted.
+    private static final long ADAPTIVE_BYTES = 8388608;
+    //maximum bytes transferred at once without bandwidth limits, so the bytes are counted while a large file is sent.
+    private static final long MAX_CHUNK_SIZE = 1048576;
+
+    private final long          startTime;
+    private volatile long       bytes;
+    private long                lastCheckedBytes;
+    private ScheduledFuture<?>  timeoutCheck;
+    private ScheduledFuture<?>  adaptiveCheck;
+    private long                lastAdaptedBytes;
+    private int                 bufferSize;
+    private final TransferShaper shaper;
+
+    public TransferMonitor()
+    { this(null); }
+
+    /*
+        Input:
+          1. the bandwidth limits of the session, null if there are none.
+    */
+    public TransferMonitor(TransferShaper shaper)
+    {
+        this.shaper = shaper;
+        startTime = System.nanoTime();
+    }
+
+    /*
+        Method for closing the data connection when the transfer stops.
+        Input:
+          1. the data connection.
+          2. the timeout in milliseconds (0 for no timeout).
+        The check is made every "timeout" milliseconds: if no bytes have been transferred since the previous check,
+        the data connection is closed and the pending operation fails.
+    */
+    public void closeOnTimeout(Closeable dataConnection, int timeout)
+    {
+        if(timeout == 0)
+          return;
+
+        timeoutCheck = timeoutChecker.scheduleAtFixedRate(() ->
+          {
+              if(bytes != lastCheckedBytes)
+              {
+                  lastCheckedBytes = bytes;
+                  return;
+              }
+
+              try
+              {
+                  dataConnection.close();
+              }
+              catch(IOException excp)
+              { /* the pending operation fails anyway */ }
+          }, timeout, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+        Method for raising the buffer sizes of the data connection while the transfer starts.
+        Input:
+          1. the data connection.
+          2. true to raise the send buffer, false to raise the receive buffer.
+          3. the estimated round trip time of the data connection in nanoseconds.
+          4. the maximum buffer size.
+        The throughput is measured every ADAPTIVE_INTERVAL milliseconds: when twice the bandwidth-delay product
+        (throughput multiplied by the round trip time) exceeds the buffer, the buffer is raised to the next power of two above it.
+        While the transfer is limited by the window the throughput grows with the buffer, so the buffer keeps growing
+        until the link is saturated or the maximum is reached. It stops after the first ADAPTIVE_BYTES bytes.
+    */
+    public void adaptBuffers(Socket dataConnection, boolean isSending, long roundTripTime, int maxBufferSize)
+    {
+        try
+        {
+            bufferSize = (isSending) ? dataConnection.getSendBufferSize() : dataConnection.getReceiveBufferSize();
+        }
+        catch(SocketException excp)
+        { return; }
+
+        adaptiveCheck = timeoutChecker.scheduleAtFixedRate(() ->
+          {
+              long currentBytes = bytes, bandwidthDelay;
+
+              bandwidthDelay = (currentBytes - lastAdaptedBytes) * 1000 / ADAPTIVE_INTERVAL * (roundTripTime / 1000) / 1000000 * 2;
+              lastAdaptedBytes = currentBytes;
+
+              if(currentBytes > ADAPTIVE_BYTES || bufferSize >= maxBufferSize)
+              {
+                  adaptiveCheck.cancel(false);
+                  return;
+              }
+
+              if(bandwidthDelay <= bufferSize)
+                return;
+
+              bufferSize = (int)Math.min(maxBufferSize, Long.highestOneBit(bandwidthDelay) << 1);
+
+              try
+              {
+                  if(isSending)
+                    dataConnection.setSendBufferSize(bufferSize);
+
+                  else
+                    dataConnection.setReceiveBufferSize(bufferSize);
+              }
+              catch(SocketException excp)
+              { adaptiveCheck.cancel(false); }
+          }, ADAPTIVE_INTERVAL, ADAPTIVE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    //Method for stopping the timeout check and the adaptive buffer sizing at the end of the transfer.
+    public void stop()
+    {
+        if(timeoutCheck != null)
+          timeoutCheck.cancel(false);
+
+        if(adaptiveCheck != null)
+          adaptiveCheck.cancel(false);
+    }
+
+    /*
+        Method for counting the transferred bytes.
+        Input:
+          1. the number of bytes.
+        Only the thread that executes the transfer calls it.
+    */
+    public void addBytes(long count) throws InterruptedIOException
+    {
+        bytes += count;
+
+        if(shaper != null)
+          shaper.consume(count);
+    }
+
+    /*
+        Method for obtaining the maximum number of bytes to transfer at once.
+        Input:
+          1. the number of bytes that the transfer would like to transfer.
+        Return values:
+          1. the number of bytes, limited to a chunk of the shaper if the session is subject to bandwidth limits,
+             otherwise to MAX_CHUNK_SIZE: the progress seen by STAT and by the timeout check is updated after each chunk.
+    */
+    public long limitChunk(long count)
+    { return Math.min(count, (shaper != null) ? TransferShaper.CHUNK_SIZE : MAX_CHUNK_SIZE); }
+
+    //Method for obtaining the number of bytes transferred.
+    public long getBytes()
+    { return bytes; }
+
+    //Method for obtaining the time elapsed since the start of the transfer, in milliseconds.
+    public long getElapsedTime()
+    { return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime); }
+
+    //Method for obtaining the average throughput of the transfer, in KB/s.
+    public long getRate()
+    { return bytes * 1000 / 1024 / Math.max(1, getElapsedTime()); }
+}
@@ -0,0 +1,49 @@
+import java.io.*;
+
+/*
+    Class for the bandwidth limits applied to the transfers of a session: the limit of the user, the limit of the client
+    IP address and the share of the global bandwidth, each of which can be missing.
+    The limits are shared with the other sessions of the same user and of the same address.
+*/
+public class TransferShaper
+{
+    //maximum number of bytes transferred at once by the transfers subject to bandwidth limits.
+    public static final int CHUNK_SIZE = 65536;
+
+    private final TokenBucket        userBucket; //null = no limit
+    private final TokenBucket        ipBucket;   //null = no limit
+    private final FairShareScheduler scheduler;  //null = no global limit
+    private final FairShare          share;
+
+    /*
+        Input:
+          1. the bucket of the user, null if the user has no limit.
+          2. the bucket of the client IP address, null if there is no limit.
+          3. the scheduler of the global bandwidth, null if there is no global limit.
+          4. the state of the user in the scheduler, null if there is no global limit.
+    */
+    public TransferShaper(TokenBucket userBucket, TokenBucket ipBucket, FairShareScheduler scheduler, FairShareUser user)
+    {
+        this.userBucket = userBucket;
+        this.ipBucket = ipBucket;
+        this.scheduler = scheduler;
+        share = (scheduler != null) ? new FairShare(user) : null;
+    }
+
+    /*
+        Method for waiting for the bandwidth used by the transferred bytes.
+        Input:
+          1. the number of bytes transferred.
+    */
+    public void consume(long count) throws InterruptedIOException
+    {
+        if(userBucket != null)
+          userBucket.consume(count);
+
+        if(ipBucket != null)
+          ipBucket.consume(count);
+
+        if(scheduler != null)
+          scheduler.consume(share, count);
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+    Class for the recursive file lists (LIST -R, SITE TREE), which list a directory and all the directories under it
+    over a single data connection.
+    The directories are read in parallel by a fork-join pool shared by all the sessions: each directory read forks
+    the reading of its subdirectories, while the transfer thread writes the lists in order (each directory followed by its
+    subdirectories, as "ls -R") as soon as they are ready. A directory which has not been forked yet when its turn comes
+    is read by the transfer thread itself, so the forks only read ahead. The number of directories read ahead and not yet written
+    is bounded, which bounds the memory used by a listing.
+    The symbolic links to directories are not followed, so the traversal can't leave the listed tree or loop.
+*/
+public class TreeListing
+{
+    private final ForkJoinPool pool;
+    private final Semaphore    readAheadPermits;
+    private final BufferPool   bufferPool;
+    private final String       command;         //"LIST" or "MLSD"
+    private final boolean      isHiddenVisible;
+    private final boolean      isPathPrefixed;  //true = each entry is named by its path under the listed directory (SITE TREE),
+                                                //false = each directory list has a header with its path (LIST -R)
+    private List<String>       facts;
+    private String             filePermissions;
+    private String             directoryPermissions;
+    private volatile boolean   isCancelled;
+
+    /*
+        Input:
+          1. the fork-join pool reading the directories.
+          2. the maximum number of directories read ahead.
+          3. the pool of the transfer buffers.
+          4. the format of the entries: "LIST" or "MLSD".
+          5. true if the hidden files and directories are listed.
+          6. true if each entry is named by its path under the listed directory, false if each directory list has a header.
+    */
+    public TreeListing(ForkJoinPool pool, int maxReadAhead, BufferPool bufferPool, String command, boolean isHiddenVisible, boolean isPathPrefixed)
+    {
+        this.pool = pool;
+        this.bufferPool = bufferPool;
+        this.command = command;
+        this.isHiddenVisible = isHiddenVisible;
+        this.isPathPrefixed = isPathPrefixed;
+        readAheadPermits = new Semaphore(maxReadAhead);
+    }
+
+    /*
+        Method for selecting the facts of the MLSD entries.
+        Input:
+          1. the facts, a subset of ListingWriter.FACTS.
+          2. the value of the "perm" fact for the files.
+          3. the value of the "perm" fact for the directories.
+    */
+    public void setFacts(List<String> facts, String filePermissions, String directoryPermissions)
+    {
+        this.facts = facts;
+        this.filePermissions = filePermissions;
+        this.directoryPermissions = directoryPermissions;
+    }
+
+    /*
+        Method for writing the list of a directory tree.
+        Input:
+          1. the pathname of the directory.
+          2. the name of the directory shown in the headers.
+          3. the data channel, which is not closed.
+          4. the monitor of the transfer.
+        The directories which can't be read are skipped, and a directory which fails while it's read is listed in part.
+    */
+    public void write(Path directory, String name, WritableByteChannel destination, TransferMonitor monitor) throws IOException
+    {
+        ArrayDeque<DirectoryNode> pendingNodes = new ArrayDeque<DirectoryNode>();
+        DirectoryNode node;
+        ByteBuffer content;
+
+        pendingNodes.push(new DirectoryNode(directory, name));
+
+        try
+        {
+            while((node = pendingNodes.poll()) != null)
+            {
+                if(node.isStarted.compareAndSet(false, true))
+                  readDirectory(node);
+                else
+                  node.await();
+
+                content = ByteBuffer.wrap(node.content);
+                monitor.addBytes(content.remaining());
+
+                while(content.hasRemaining())
+                  destination.write(content);
+
+                if(node.hasPermit)
+                  readAheadPermits.release();
+
+                //the subdirectories are written in the order in which they have been read, before the next directories.
+                for(int i = node.children.size() - 1; i >= 0; i--)
+                  pendingNodes.push(node.children.get(i));
+            }
+        }
+        finally
+        { isCancelled = true; }
+    }
+
+    /*
+        Method for reading a directory and forking the reading of its subdirectories, as long as permits are available.
+        Input:
+          1. the directory.
+    */
+    private void readDirectory(DirectoryNode node)
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ArrayList<DirectoryNode> children = new ArrayList<DirectoryNode>();
+        String entryName;
+
+        try(DirectoryStream<Path> directoryStream = Files.newDirectoryStream(node.directory);
+            ListingWriter listingWriter = new ListingWriter(Channels.newChannel(content), bufferPool, new TransferMonitor(), command))
+        {
+            listingWriter.setFacts(facts, filePermissions, directoryPermissions);
+
+            if(isPathPrefixed)
+              listingWriter.setNamePrefix(node.name);
+            else
+              listingWriter.writeLine(node.name + ":");
+
+            for(Path entry : directoryStream)
+            {
+                if(isCancelled)
+                  break;
+
+                entryName = entry.getFileName().toString();
+
+                if((!isHiddenVisible && entryName.charAt(0) == '.') || !listingWriter.writeEntry(entry))
+                  continue;
+
+                if(Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+                  children.add(new DirectoryNode(entry, node.name + ((isPathPrefixed || node.name.endsWith("/")) ? "" : "/") + entryName +
+                                                        ((isPathPrefixed) ? "/" : "")));
+            }
+
+            if(!isPathPrefixed)
+              listingWriter.writeLine("");
+
+            listingWriter.finish();
+        }
+        catch(IOException | DirectoryIteratorException excp)
+        { /* the entries written to the content are listed */ }
+
+        node.content = content.toByteArray();
+        node.children = children;
+        node.done.countDown();
+
+        for(DirectoryNode child : children)
+        {
+            if(isCancelled || !readAheadPermits.tryAcquire())
+              break;
+
+            //the transfer thread may have reached the child first.
+            if(!child.isStarted.compareAndSet(false, true))
+            {
+                readAheadPermits.release();
+                continue;
+            }
+
+            child.hasPermit = true;
+            pool.execute(() -> readDirectory(child));
+        }
+    }
+
+    //class for a directory of the tree.
+    private static class DirectoryNode
+    {
+        final Path                directory;
+        final String              name;      //header or path prefix of the entries
+        final AtomicBoolean       isStarted = new AtomicBoolean();
+        final CountDownLatch      done = new CountDownLatch(1);
+        volatile boolean          hasPermit; //true if it has been forked, until it's written
+        byte[]                    content;   //written before done
+        List<DirectoryNode>       children;  //written before done
+
+        DirectoryNode(Path directory, String name)
+        {
+            this.directory = directory;
+            this.name = name;
+        }
+
+        //Method for waiting until the directory has been read.
+        void await() throws IOException
+        {
+            try
+            {
+                done.await();
+            }
+            catch(InterruptedException excp)
+            { throw new InterruptedIOException(); }
+        }
+    }
+}
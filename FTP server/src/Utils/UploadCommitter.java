@@ -0,0 +1,227 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Class for making the uploaded files visible and durable, according to the "uploaddurability" parameter:
+      - "none": the file is renamed to its final name, the kernel writes it to disk when it wants.
+      - "fsync": the file is forced to disk before being renamed, and the directory after it, for each upload.
+      - "groupcommit": the uploads that end while the previous ones are being forced are committed together
+                       by a single thread, which forces all their files at once from a pool of threads and waits for them:
+                       the forces in flight together share the commits of the file system and the cache flushes of the disk.
+                       Then the files are renamed, and each directory is forced once per group.
+    The uploads written in place (APPE and REST) are only forced.
+*/
+public class UploadCommitter
+{
+    private final String                      durability;
+    private final LinkedBlockingQueue<Commit> pendingCommits;
+    private final ExecutorService             forcers;        //threads forcing the files of a group, null if not "groupcommit"
+
+    /*
+        Input:
+          1. the durability policy ("none", "fsync" or "groupcommit").
+    */
+    public UploadCommitter(String durability)
+    {
+        Thread committerThread;
+
+        this.durability = durability;
+        pendingCommits = new LinkedBlockingQueue<Commit>();
+
+        if(!durability.equals("groupcommit"))
+        {
+            forcers = null;
+            return;
+        }
+
+        forcers = Executors.newCachedThreadPool(runnable ->
+          {
+              Thread thread = new Thread(runnable, "jftp-group-force");
+              thread.setDaemon(true);
+              return thread;
+          });
+        committerThread = new Thread(this::commitGroups, "jftp-group-commit");
+        committerThread.setDaemon(true);
+        committerThread.start();
+    }
+
+    /*
+        Method for committing an uploaded file.
+        Input:
+          1. the file written by the upload.
+          2. the final pathname of the file, or null if the file has been written in place.
+        When the method returns, the file has its final name and, unless the policy is "none", it's on disk.
+    */
+    public void commit(Path file, Path target) throws IOException
+    {
+        Commit commit;
+
+        if(durability.equals("none"))
+        {
+            if(target != null)
+              move(file, target);
+
+            return;
+        }
+
+        if(durability.equals("fsync"))
+        {
+            force(file);
+
+            if(target != null)
+            {
+                move(file, target);
+                forceDirectory(target.getParent());
+            }
+
+            return;
+        }
+
+        commit = new Commit(file, target);
+        pendingCommits.add(commit);
+
+        try
+        {
+            commit.result.join();
+        }
+        catch(CompletionException excp)
+        {
+            if(excp.getCause() instanceof IOException)
+              throw (IOException)excp.getCause();
+
+            throw new IOException(excp.getCause());
+        }
+    }
+
+    /*
+        Method executed by the group commit thread.
+        Any error fails only its own commit: if the thread ended, all the following uploads would wait forever.
+    */
+    private void commitGroups()
+    {
+        ArrayList<Commit> group = new ArrayList<Commit>();
+        ArrayList<Future<?>> forces = new ArrayList<Future<?>>();
+        HashSet<Path> directories = new HashSet<Path>();
+
+        while(true)
+        {
+            try
+            {
+                group.add(pendingCommits.take());
+            }
+            catch(InterruptedException excp)
+            { return; }
+
+            pendingCommits.drainTo(group);
+
+            for(Commit commit : group)
+              forces.add(forcers.submit(() -> { force(commit.file); return null; }));
+
+            for(int index = 0; index < group.size(); index++)
+            {
+                try
+                {
+                    forces.get(index).get();
+
+                    if(group.get(index).target != null)
+                    {
+                        move(group.get(index).file, group.get(index).target);
+                        directories.add(group.get(index).target.getParent());
+                    }
+                }
+                catch(ExecutionException excp)
+                { group.get(index).result.completeExceptionally(excp.getCause()); }
+                catch(InterruptedException excp)
+                { return; }
+                catch(Throwable excp)
+                { group.get(index).result.completeExceptionally(excp); }
+            }
+
+            forces.clear();
+
+            for(Path directory : directories)
+              forces.add(forcers.submit(() -> forceDirectory(directory)));
+
+            for(Future<?> force : forces)
+            {
+                try
+                {
+                    force.get();
+                }
+                catch(ExecutionException excp)
+                { /* forceDirectory ignores its errors */ }
+                catch(InterruptedException excp)
+                { return; }
+            }
+
+            for(Commit commit : group)
+              commit.result.complete(null);
+
+            group.clear();
+            forces.clear();
+            directories.clear();
+        }
+    }
+
+    /*
+        Method for forcing a file to disk.
+        Input:
+          1. the pathname of the file.
+    */
+    private static void force(Path file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+        {
+            channel.force(true);
+        }
+    }
+
+    /*
+        Method for forcing a directory to disk, so that the renames made in it are durable.
+        Input:
+          1. the pathname of the directory.
+        The directories can't be forced on every platform: in that case the error is ignored.
+    */
+    private static void forceDirectory(Path directory)
+    {
+        try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+        catch(IOException | RuntimeException excp)
+        { /* the renames are made durable by the next commit of the file system */ }
+    }
+
+    /*
+        Method for giving the file its final name, replacing the previous file atomically.
+        Input:
+          1. the file.
+          2. the final pathname, in the same directory.
+    */
+    private static void move(Path file, Path target) throws IOException
+    {
+        try
+        {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(AtomicMoveNotSupportedException excp)
+        { Files.move(file, target, StandardCopyOption.REPLACE_EXISTING); }
+    }
+
+    //class for an upload waiting to be committed by the group commit thread.
+    private static class Commit
+    {
+        final Path                    file;
+        final Path                    target;
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+
+        Commit(Path file, Path target)
+        {
+            this.file = file;
+            this.target = target;
+        }
+    }
+}
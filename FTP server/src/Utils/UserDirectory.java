@@ -0,0 +1,177 @@
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+    Class for the users of the server, read from the users file once and shared by all the sessions.
+    The users are kept in an immutable index, so the logins are lookups without locks or file reads.
+    A thread watches the directory of the users file with a WatchService: when the file changes, it's read again
+    and the new index replaces the old one at once, so a login sees either the old users or the new ones.
+    If the changed file can't be read, the old index is kept.
+*/
+public class UserDirectory
+{
+    //permissions of the users file.
+    private static final Map<String, Integer> permissionCodes = Map.of
+      (
+          "l", UserInformation.LIST_PERMISSION, "r", UserInformation.READ_PERMISSION, "w", UserInformation.WRITE_PERMISSION,
+          "d", UserInformation.DELETE_PERMISSION, "re", UserInformation.RENAME_PERMISSION, "h", UserInformation.HIDDEN_PERMISSION
+      );
+    //time waited after a change of the file before reading it, so that a file being written is read once complete.
+    private static final long reloadDelay = 200;
+
+    private final Path        userlistFile;
+    private volatile UserList userList;
+
+    /*
+        Input:
+          1. the pathname of the users file.
+        The file is read at once, and then watched if the file system supports it.
+    */
+    public UserDirectory(String userlistFile) throws IOException
+    {
+        WatchService watchService;
+        Thread watcherThread;
+
+        this.userlistFile = Paths.get(userlistFile).toAbsolutePath().normalize();
+        userList = readUserList(this.userlistFile);
+
+        try
+        {
+            watchService = FileSystems.getDefault().newWatchService();
+            this.userlistFile.getParent().register
+              (watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch(IOException | UnsupportedOperationException excp)
+        { return; }
+
+        watcherThread = new Thread(() -> watchUserList(watchService), "jftp-userlist-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /*
+        Method for searching a user.
+        Input:
+          1. the username.
+        Return value:
+          1. the information about the user, null if not found.
+    */
+    public UserInformation get(String username)
+    { return userList.users.get(username); }
+
+    /*
+        Method for checking whether the line of a user in the users file is incomplete or invalid.
+        Input:
+          1. the username.
+    */
+    public boolean isIncomplete(String username)
+    { return userList.incompleteUsers.contains(username); }
+
+    /*
+        Method for reading the users file.
+        Input:
+          1. the pathname of the users file.
+        Return value:
+          1. the users. If a username appears more than once, its first line is used.
+    */
+    private static UserList readUserList(Path userlistFile) throws IOException
+    {
+        HashMap<String, UserInformation> users = new HashMap<String, UserInformation>();
+        HashSet<String> incompleteUsers = new HashSet<String>();
+        String[] inputTokens;
+        int permissions;
+
+        try(BufferedReader userlistFileReader = new BufferedReader(new InputStreamReader(Files.newInputStream(userlistFile), Charset.defaultCharset())))
+        {
+            for(String input = userlistFileReader.readLine(); input != null; input = userlistFileReader.readLine())
+            {
+                inputTokens = input.replaceFirst("#.*", "").split(" ");
+
+                if(inputTokens[0].isEmpty() || users.containsKey(inputTokens[0]) || incompleteUsers.contains(inputTokens[0]))
+                  continue;
+
+                try
+                {
+                    permissions = 0;
+
+                    for(String permission : inputTokens[2].toLowerCase().split("-"))
+                      permissions |= permissionCodes.getOrDefault(permission, 0);
+
+                    users.put
+                      (
+                          inputTokens[0],
+                          new UserInformation
+                            (
+                                inputTokens[1], permissions, Utils.getCorrectPath("/", "/", inputTokens[3]),
+                                (inputTokens.length > 4) ? Math.max(0, Long.parseLong(inputTokens[4])) : 0,
+                                (inputTokens.length > 5) ? Math.max(1, Integer.parseInt(inputTokens[5])) : 1
+                            )
+                      );
+                }
+                catch(IndexOutOfBoundsException | NumberFormatException excp)
+                { incompleteUsers.add(inputTokens[0]); }
+            }
+        }
+
+        return new UserList(Map.copyOf(users), Set.copyOf(incompleteUsers));
+    }
+
+    /*
+        Method executed by the watcher thread: reads the users file again when it's created, replaced or modified.
+        Input:
+          1. the WatchService of the directory of the file.
+    */
+    private void watchUserList(WatchService watchService)
+    {
+        WatchKey key;
+        boolean isChanged;
+
+        while(true)
+        {
+            try
+            {
+                key = watchService.take();
+                isChanged = false;
+
+                //the events of a file being written come in bursts: they are collected before reading it.
+                do
+                {
+                    for(WatchEvent<?> event : key.pollEvents())
+                      isChanged |= userlistFile.getFileName().equals(event.context());
+
+                    key.reset();
+                }
+                while((key = watchService.poll(reloadDelay, TimeUnit.MILLISECONDS)) != null);
+            }
+            catch(InterruptedException | ClosedWatchServiceException excp)
+            { return; }
+
+            if(!isChanged)
+              continue;
+
+            try
+            {
+                userList = readUserList(userlistFile);
+                System.out.print(LogMessage.create(LogMessage.userlistReloaded, Integer.toString(userList.users.size())));
+            }
+            catch(IOException excp)
+            { System.out.print(LogMessage.create(LogMessage.userlistReloadError)); }
+        }
+    }
+
+    //class for an immutable index of the users.
+    private static class UserList
+    {
+        final Map<String, UserInformation> users;
+        final Set<String>                  incompleteUsers; //users whose line can't be parsed
+
+        UserList(Map<String, UserInformation> users, Set<String> incompleteUsers)
+        {
+            this.users = users;
+            this.incompleteUsers = incompleteUsers;
+        }
+    }
+}
@@ -1,20 +1,19 @@
 import java.net.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 //General utility class.
 public class Utils
 {
     //regex to check IP address correctness.
     public static final String IpAddressRegex = "([0-9]+\\.){3}[0-9]+";
-    //regex to replace all \r in ascii type
-    public static final String CRLF_regex = "(?<!\\r)\\n";
-    //size of the buffers used for data transmission.
+    //size of the buffers of the streams used for data transmission, and minimum size of the pooled transfer buffers.
     public static final int BUFFER_SIZE = 8192;
-    public static final int CONV_BUFFER_SIZE = BUFFER_SIZE << 1;
 
     public static final String welcomeMessage =
         "-\r\n"+
@@ -100,6 +99,104 @@ public class Utils
                 parametersCounter += (flagArray[6]) ? 0 : 1;
                 flagArray[6] = true;
             }
+            else if(fileInputTokens[0].equals("sessionexecutor"))
+              configuration.sessionExecutor = fileInputTokens[1].toLowerCase();
+
+            else if(fileInputTokens[0].equals("sessionpoolsize"))
+              configuration.sessionPoolSize = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("maxsessions"))
+              configuration.maxSessions = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("maxsessionsperip"))
+              configuration.maxSessionsPerIp = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("controlengine"))
+              configuration.controlEngine = fileInputTokens[1].toLowerCase();
+
+            else if(fileInputTokens[0].equals("eventloopthreads"))
+              configuration.eventLoopThreads = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("transferchunksize"))
+              configuration.transferChunkSize = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("bufferpoolmemory"))
+              configuration.bufferPoolMemory = Long.parseLong(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("compressionlevel"))
+              configuration.compressionLevel = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("controltcpnodelay"))
+              configuration.controlTcpNoDelay = Boolean.parseBoolean(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("controlkeepalive"))
+              configuration.controlKeepAlive = Boolean.parseBoolean(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("datatcpnodelay"))
+              configuration.dataTcpNoDelay = Boolean.parseBoolean(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("datasendbuffer"))
+              configuration.dataSendBuffer = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("datareceivebuffer"))
+              configuration.dataReceiveBuffer = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("adaptivedatabuffers"))
+              configuration.adaptiveDataBuffers = Boolean.parseBoolean(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("maxdatabuffer"))
+              configuration.maxDataBuffer = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("globalbandwidth"))
+              configuration.globalBandwidth = Long.parseLong(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("ipbandwidth"))
+              configuration.ipBandwidth = Long.parseLong(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("uploaddurability"))
+              configuration.uploadDurability = fileInputTokens[1].toLowerCase();
+
+            else if(fileInputTokens[0].equals("transferchecksum"))
+              configuration.transferChecksum = fileInputTokens[1].toUpperCase();
+
+            else if(fileInputTokens[0].equals("checksumcacheentries"))
+              configuration.checksumCacheEntries = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("listingcachememory"))
+              configuration.listingCacheMemory = Long.parseLong(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("mlstfacts"))
+              configuration.mlstFacts = Arrays.asList(fileInputTokens[1].toLowerCase().split(";"));
+
+            else if(fileInputTokens[0].equals("metadatacacheentries"))
+              configuration.metadataCacheEntries = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("metadatacachettl"))
+              configuration.metadataCacheTtl = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("treelistingthreads"))
+              configuration.treeListingThreads = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("loginfailuredelay"))
+              configuration.loginFailureDelay = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("loginbanfailures"))
+              configuration.loginBanFailures = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("loginbantime"))
+              configuration.loginBanTime = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("loginthrottleentries"))
+              configuration.loginThrottleEntries = Integer.parseInt(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("storage"))
+              configuration.storage = Arrays.asList(fileInputTokens[1].split(";"));
+
+            else if(fileInputTokens[0].equals("memorystoragesize"))
+              configuration.memoryStorageSize = Long.parseLong(fileInputTokens[1]);
+
+            else if(fileInputTokens[0].equals("blobdirectory"))
+              configuration.blobDirectory = fileInputTokens[1];
         }
 
         configuration.isAllParametersEntered = (parametersCounter == 7);
@@ -107,54 +204,63 @@ public class Utils
     }
 
     /*
-        Method for reading all information about a user in the users file.
+        Method for creating the executor that runs the client sessions.
         Input:
-          1. the users file.
-          2. the username.
+          1. the server configuration.
         Return value:
-          1. an instance of the UserInformation class containing information about the searched user.
+          1. an executor that starts a virtual thread for each session ("virtual"),
+             or a bounded pool of platform threads ("platform").
+        If the JVM doesn't support virtual threads, the bounded pool is used instead.
+        With the "blocking" control engine the bounded pool doesn't queue sessions: when all its threads are busy,
+        new sessions are rejected. With the "nio" control engine the pool only executes the commands, which are queued.
     */
-    public static UserInformation getUserInformation(String userListFile, String username)
-      throws IOException, ArrayIndexOutOfBoundsException, FileNotFoundException
+    public static ExecutorService createSessionExecutor(ServerConfiguration configuration)
     {
-        BufferedReader userListFileReader;
-        UserInformation info;
-        String input;
-        String[] inputTokens, permissions;
-
-        userListFileReader = new BufferedReader(new FileReader(userListFile));
-        info = new UserInformation();
+        ThreadPoolExecutor platformPool;
 
-        info.userNotFound = true;
-
-        while((input = userListFileReader.readLine()) != null)
+        if(configuration.sessionExecutor.equals("virtual"))
         {
-            input = input.replaceFirst("#.*", "");
-            inputTokens = input.split(" ");
-
-            if(!inputTokens[0].equals(username))
-              continue;
-
-            permissions = inputTokens[2].toLowerCase().split("-");
-
-            info.userNotFound = false;
-            info.password = inputTokens[1];
-
-            for(String permission : permissions)
+            try
             {
-                info.listPermission = permission.equals("l") || info.listPermission;
-                info.readPermission = permission.equals("r") || info.readPermission;
-                info.writePermission = permission.equals("w") || info.writePermission;
-                info.deletePermission = permission.equals("d") || info.deletePermission;
-                info.renamePermission = permission.equals("re") || info.renamePermission;
-                info.seeHidenFilePermission = permission.equals("h") || info.seeHidenFilePermission;
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch(ReflectiveOperationException excp)
+            {
+                System.out.print(LogMessage.create(LogMessage.virtualThreadsUnavailable));
+                configuration.sessionExecutor = "platform";
             }
-
-            info.rootDirectory = getCorrectPath("/", "/", inputTokens[3]);
-            break;
         }
 
-        return info;
+        platformPool = new ThreadPoolExecutor
+          (
+              configuration.sessionPoolSize, configuration.sessionPoolSize, 60, TimeUnit.SECONDS,
+              (configuration.controlEngine.equals("nio")) ? new LinkedBlockingQueue<Runnable>() : new SynchronousQueue<Runnable>()
+          );
+        platformPool.allowCoreThreadTimeOut(true);
+        return platformPool;
+    }
+
+    /*
+        Method for creating the executor that runs the transfers in the background.
+        Input:
+          1. the server configuration.
+          2. the executor that runs the client sessions.
+        Return value:
+          1. the session executor if it uses virtual threads, otherwise an unbounded pool of platform threads.
+        The bounded pool of the sessions can't be used: a session waiting for its transfer could hold
+        the thread that the transfer needs. The transfers are at most one for each session anyway.
+    */
+    public static ExecutorService createTransferExecutor(ServerConfiguration configuration, ExecutorService sessionExecutor)
+    {
+        if(configuration.sessionExecutor.equals("virtual"))
+          return sessionExecutor;
+
+        return Executors.newCachedThreadPool(runnable ->
+          {
+              Thread thread = new Thread(runnable, "jftp-transfer");
+              thread.setDaemon(true);
+              return thread;
+          });
     }
 
     /*
@@ -183,84 +289,254 @@ public class Utils
     }
 
     /*
-        Method for obtaining the attributes of a file or directory.
+        Method for checking whether a type of data representation requires the ascii conversion.
+        Input:
+          1. the type of data representation ("I", "A", "L 8", "A N").
+        Return value:
+          1. true for the ascii types ("A", "A N"), false for the binary types ("I", "L 8").
+    */
+    public static boolean isAsciiType(String type)
+    { return type.equals("A") || type.equals("A N"); }
+
+    /*
+        Method for transferring a file without copying it in the java heap.
         Input:
-          1. a pathname.
-          2. the command that uses the method.
+          1. the file to transfer.
+          2. the position of the file from which to start the transfer.
+          3. the destination channel.
+          4. the monitor of the transfer.
         Return value:
-          1. the file attributes as a String.
-        If command = "LIST", the method returns all posix-style attributes.
-        Otherwise, if command = "NLST", the method returns only the file names.
+          1. the number of bytes transferred.
+        Uses FileChannel.transferTo, which the kernel implements with sendfile when the destination is a socket.
+        It can be used only with the binary types. The file is closed at the end of the transfer.
+        transferTo returns 0 when the socket is not writable and its descriptor is in non-blocking mode
+        (as happens on virtual threads): in this case a single byte is written with a blocking write,
+        which waits until the socket is writable again.
+        The file is transferred in chunks, so that the bytes are counted while the transfer progresses
+        and, if the session is subject to bandwidth limits, the limits apply to each chunk.
     */
-    public static String getFileAttributes(String pathname, String command) throws IOException
+    public static long transferFile(FileChannel source, long startPosition, WritableByteChannel destination, TransferMonitor monitor) throws IOException
     {
-        PosixFileAttributes posixAttributes;
-        Set<PosixFilePermission> permissions;
-        String permissionsString, date;
-        Path filePathObj;
-        int numLinks;
-
-        filePathObj = Paths.get(pathname);
-        posixAttributes = Files.readAttributes(filePathObj, PosixFileAttributes.class);
-        permissions = posixAttributes.permissions();
-        permissionsString = PosixFilePermissions.toString(permissions);
-        numLinks = (int) Files.getAttribute(filePathObj, "unix:nlink");
-        date = new SimpleDateFormat("MMM dd HH:mm").format(new Date(posixAttributes.lastModifiedTime().toMillis()));
-
-        if(command.equals("LIST"))
-          return String.format
-            (
-                "%c%s  %3d  %-8s  %-8s  %8d  %s  %s\r\n", (Files.isDirectory(filePathObj)) ? 'd' : '-',
-                permissionsString, numLinks, posixAttributes.owner(), posixAttributes.group(),
-                posixAttributes.size(), date,  filePathObj.getFileName()
-            );
-
-        return filePathObj.getFileName() + "\r\n";
+        ByteBuffer singleByte = null;
+        long position = startPosition, size, count;
+
+        try
+        {
+            size = source.size();
+
+            while(position < size)
+            {
+                if((count = source.transferTo(position, monitor.limitChunk(size - position), destination)) > 0)
+                {
+                    position += count;
+                    monitor.addBytes(count);
+                    continue;
+                }
+
+                if(singleByte == null)
+                  singleByte = ByteBuffer.allocate(1);
+
+                singleByte.clear();
+
+                if(source.read(singleByte, position) <= 0)
+                  break;
+
+                singleByte.flip();
+
+                while(singleByte.hasRemaining())
+                  destination.write(singleByte);
+
+                position++;
+                monitor.addBytes(1);
+            }
+        }
+        finally
+        { source.close(); }
+
+        return position - startPosition;
     }
 
     /*
-        Method for transferring files.
+        Method for receiving a file in the binary types without copying it in the java heap.
         Input:
-          1. the source stream.
-          2. the destination stream.
-          3. the type of data representation used for transmission("I", "A", "L 8", "A N").
+          1. the source channel.
+          2. the file in which to write the data.
+          3. the position of the file from which to write.
+          4. the pool of the transfer buffers.
+          5. the monitor of the transfer.
+          6. the digest updated with the data written to the file, null if no checksum is computed.
+        Return value:
+          1. the number of bytes received.
+        The data is read into a pooled direct buffer until it is full, then it is written with a single
+        positioned write. FileChannel.transferFrom isn't used because, when the source is a socket,
+        it copies the data through a new 8KB heap buffer and writes each 8KB separately.
+        The file is closed at the end of the transfer.
     */
-    public static void transferData(InputStream source, OutputStream destination, String type) throws IOException
+    public static long receiveFile(ReadableByteChannel source, FileChannel destination, long position, BufferPool bufferPool, TransferMonitor monitor,
+                                   FileDigest digest) throws IOException
     {
-        byte[] buffer = new byte[BUFFER_SIZE], conversion_buffer = null;
+        ByteBuffer chunk = null;
+        boolean isEndOfStream = false;
         int size;
-        boolean dataType;
 
-        if((dataType = type.equals("A") || type.equals("A N")))
-            conversion_buffer = new byte[CONV_BUFFER_SIZE];
+        try
+        {
+            chunk = bufferPool.acquire();
+
+            while(!isEndOfStream)
+            {
+                chunk.clear();
+
+                while(chunk.hasRemaining())
+                {
+                    if((size = source.read(chunk)) < 0)
+                    {
+                        isEndOfStream = true;
+                        break;
+                    }
+
+                    monitor.addBytes(size);
+                }
 
-        while((size = source.read(buffer, 0, BUFFER_SIZE)) > 0)
+                chunk.flip();
+
+                if(digest != null)
+                  digest.update(chunk);
+
+                while(chunk.hasRemaining())
+                  position += destination.write(chunk, position);
+            }
+        }
+        finally
         {
-            if(dataType)
-                size = convert2ascii(buffer, conversion_buffer, size);
+            if(chunk != null)
+              bufferPool.release(chunk);
 
-            destination.write((dataType) ? conversion_buffer : buffer, 0, size);
+            destination.close();
         }
 
-        source.close(); destination.close();
+        return monitor.getBytes();
     }
 
-    private static int convert2ascii(byte[] src, byte[] dest, int size)
+    /*
+        Method for computing the checksum of a file.
+        Input:
+          1. the file, which is closed at the end.
+          2. the name of the algorithm, one of FileDigest.ALGORITHMS.
+          3. the pool of the transfer buffers.
+        Return value:
+          1. the digest of the whole file.
+    */
+    public static FileDigest digestFile(FileChannel source, String algorithm, BufferPool bufferPool) throws IOException
     {
-        int j = 0;
+        FileDigest digest = new FileDigest(algorithm);
+        ByteBuffer buffer = null;
 
-        for(int i = 0; i < size; i++)
+        try
         {
-            if(src[i] == '\n' && (i == 0 || src[i - 1] != '\r'))
+            buffer = bufferPool.acquire();
+
+            while(source.read(buffer) >= 0)
             {
-                dest[j++] = '\r';
-                dest[j++] = '\n';
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
             }
-            else
-              dest[j++] = src[i];
+        }
+        finally
+        {
+            if(buffer != null)
+              bufferPool.release(buffer);
+
+            source.close();
         }
 
-        return j;
+        return digest;
+    }
+
+    /*
+        Method for transferring data through a pooled direct buffer.
+        Input:
+          1. the source channel.
+          2. the destination channel.
+          3. the type of data representation used for transmission("I", "A", "L 8", "A N").
+          4. the direction of the ascii conversion (AsciiConverter.NATIVE_TO_NETWORK when sending,
+             AsciiConverter.NETWORK_TO_NATIVE when receiving).
+          5. the pool of the transfer buffers.
+          6. the monitor of the transfer.
+          7. the digest updated with the data of the file (the data read when sending, the converted data when receiving),
+             null if no checksum is computed.
+        Return value:
+          1. the number of bytes read from the source.
+        The checksum is computed while the data streams through the buffer, so the file is not read a second time.
+        In the ascii types the first third of the buffer receives the data and the rest receives the converted data,
+        so a single buffer is borrowed for each transfer. Both channels are closed at the end of the transfer.
+    */
+    public static long transferData(ReadableByteChannel source, WritableByteChannel destination, String type, int direction,
+                                    BufferPool bufferPool, TransferMonitor monitor, FileDigest digest) throws IOException
+    {
+        ByteBuffer buffer = null;
+        AsciiConverter converter = null;
+        int readLimit, size;
+
+        try
+        {
+            buffer = bufferPool.acquire();
+            readLimit = buffer.capacity();
+
+            if(isAsciiType(type))
+            {
+                converter = new AsciiConverter(direction);
+                readLimit = buffer.capacity() / 3;
+            }
+
+            while(true)
+            {
+                buffer.limit(readLimit).position(0);
+
+                if((size = source.read(buffer)) < 0)
+                  break;
+
+                monitor.addBytes(size);
+                buffer.flip();
+
+                if(digest != null && direction == AsciiConverter.NATIVE_TO_NETWORK)
+                  digest.update(buffer);
+
+                if(converter != null)
+                {
+                    buffer.limit(buffer.capacity());
+                    size = converter.convert(buffer, 0, size, buffer, readLimit);
+                    buffer.limit(readLimit + size).position(readLimit);
+                }
+
+                if(digest != null && direction == AsciiConverter.NETWORK_TO_NATIVE)
+                  digest.update(buffer);
+
+                while(buffer.hasRemaining())
+                  destination.write(buffer);
+            }
+
+            if(converter != null && (size = converter.finish(buffer.limit(buffer.capacity()), readLimit)) > 0)
+            {
+                buffer.limit(readLimit + size).position(readLimit);
+
+                if(digest != null && direction == AsciiConverter.NETWORK_TO_NATIVE)
+                  digest.update(buffer);
+
+                while(buffer.hasRemaining())
+                  destination.write(buffer);
+            }
+        }
+        finally
+        {
+            if(buffer != null)
+              bufferPool.release(buffer);
+
+            source.close(); destination.close();
+        }
+
+        return monitor.getBytes();
     }
 }
 
@@ -275,20 +551,72 @@ class ServerConfiguration
     public int     dataAcceptTimeout;
     public int     dataRcvTimeout;
     public boolean isAllParametersEntered;
+
+    //Optional parameters.
+    public String  sessionExecutor = "virtual"; //"virtual" or "platform"
+    public int     sessionPoolSize = 256;       //threads of the "platform" executor
+    public int     maxSessions = 0;             //0 = no limit
+    public int     maxSessionsPerIp = 0;        //0 = no limit
+    public String  controlEngine = "blocking";  //"blocking" or "nio"
+    public int     eventLoopThreads = 0;        //0 = one for each processor
+    public int     transferChunkSize = 262144;  //size of the pooled transfer buffers (bytes written at a time when receiving files)
+    public long    bufferPoolMemory = 268435456; //maximum memory used by the pooled transfer buffers
+    public int     compressionLevel = 6;        //deflate level of the "Z" transfer mode, from 0 to 9
+    public boolean controlTcpNoDelay = true;
+    public boolean controlKeepAlive = false;
+    public boolean dataTcpNoDelay = false;
+    public int     dataSendBuffer = 0;          //0 = chosen by the kernel
+    public int     dataReceiveBuffer = 0;       //0 = chosen by the kernel
+    public boolean adaptiveDataBuffers = false;
+    public int     maxDataBuffer = 16777216;    //maximum buffer size reached by the adaptive sizing
+    public long    globalBandwidth = 0;         //bytes per second split among the users, 0 = no limit
+    public long    ipBandwidth = 0;             //bytes per second for each client IP address, 0 = no limit
+    public String  uploadDurability = "none";   //"none", "fsync" or "groupcommit"
+    public String  transferChecksum = "NONE";   //algorithm computed during the transfers ("NONE" or one of FileDigest.ALGORITHMS)
+    public int     checksumCacheEntries = 4096; //checksums kept in memory, 0 = no cache
+    public long    listingCacheMemory = 67108864; //memory used by the cached file lists, 0 = no cache
+    public List<String> mlstFacts = ListingWriter.FACTS; //facts of the MLST and MLSD lines, a subset of ListingWriter.FACTS
+    public int     metadataCacheEntries = 65536; //attribute sets of the SIZE and MDTM commands kept in memory, 0 = no cache
+    public int     metadataCacheTtl = 2000;     //milliseconds after which a cached attribute set is read again, 0 = no cache
+    public int     treeListingThreads = 0;      //threads reading the directories of the recursive lists, 0 = one for each processor
+    public int     loginFailureDelay = 1000;    //milliseconds before the response to a failed login, doubled at each failure, 0 = no delay
+    public int     loginBanFailures = 20;       //failed logins of a client IP address that ban it, 0 = no ban
+    public int     loginBanTime = 600000;       //milliseconds for which a client IP address is banned
+    public int     loginThrottleEntries = 65536; //client IP addresses and usernames whose failed logins are tracked
+    public List<String> storage = List.of();    //"<directory>:<backend>" entries, the directories not listed are on the disk
+    public long    memoryStorageSize = 268435456; //maximum memory used by the files of the "memory" backend
+    public String  blobDirectory = null;        //directory of the blobs of the "dedup" backend, null = none
 }
 
 //class to return information about a user.
 class UserInformation
 {
-    public String  password;
-    public boolean listPermission = false;
-    public boolean readPermission = false;
-    public boolean writePermission = false;
-    public boolean deletePermission = false;
-    public boolean renamePermission = false;
-    public boolean seeHidenFilePermission = false;
-    public String  rootDirectory;
-    public boolean userNotFound;
+    //bits of the permissions.
+    public static final int LIST_PERMISSION   = 1;
+    public static final int READ_PERMISSION   = 2;
+    public static final int WRITE_PERMISSION  = 4;
+    public static final int DELETE_PERMISSION = 8;
+    public static final int RENAME_PERMISSION = 16;
+    public static final int HIDDEN_PERMISSION = 32;
+
+    public final String  password;
+    public final int     permissions;   //bits of the permissions
+    public final String  rootDirectory;
+    public final long    bandwidth;     //bytes per second, 0 = no limit
+    public final int     weight;
+
+    public UserInformation(String password, int permissions, String rootDirectory, long bandwidth, int weight)
+    {
+        this.password = password;
+        this.permissions = permissions;
+        this.rootDirectory = rootDirectory;
+        this.bandwidth = bandwidth;
+        this.weight = weight;
+    }
+
+    //Method for checking whether the user has a permission.
+    public boolean hasPermission(int permission)
+    { return (permissions & permission) != 0; }
 }
 
 //class to return the output of a command.
@@ -319,5 +647,5 @@ class CommandOutput
 //Interface for implementing an array of function pointers.
 interface FunctionPointer
 {
-    CommandOutput executeCommand(String parameters);
+    CommandOutput executeCommand(CommandHandler commandHandler, String parameters);
 }
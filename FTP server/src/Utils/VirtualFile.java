@@ -0,0 +1,68 @@
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+
+/*
+    Class for a file located by a VirtualFileSystem.
+    A file outside the root directory of the user (reached through a symbolic link) is denied: it has no location and doesn't exist.
+*/
+public class VirtualFile
+{
+    private final String              pathname;   //normalized pathname under the server root directory
+    private final Path                entryPath;  //location of the directory entry, null if denied
+    private final Path                path;       //location of the content: the target of a symbolic link, null if denied
+    private final BasicFileAttributes attributes; //attributes of the content, null if it doesn't exist
+
+    /*
+        Input:
+          1. the normalized pathname under the server root directory.
+          2. the location of the directory entry, null if denied.
+          3. the location of the content, null if denied.
+          4. the attributes of the content, null if it doesn't exist.
+    */
+    public VirtualFile(String pathname, Path entryPath, Path path, BasicFileAttributes attributes)
+    {
+        this.pathname = pathname;
+        this.entryPath = entryPath;
+        this.path = path;
+        this.attributes = attributes;
+    }
+
+    //Method for obtaining the normalized pathname, shown to the client and in the log.
+    public String getPathname()
+    { return pathname; }
+
+    //Method for obtaining the pathname of the directory containing the file.
+    public String getParentPathname()
+    { return (pathname.lastIndexOf('/') <= 0) ? "/" : pathname.substring(0, pathname.lastIndexOf('/')); }
+
+    /*
+        Method for obtaining the location of the directory entry: the symbolic link itself for a link.
+        Used to rename and delete the file.
+    */
+    public Path getEntryPath()
+    { return entryPath; }
+
+    /*
+        Method for obtaining the location of the content: the real target for a symbolic link.
+        Used to read, write and list the file.
+    */
+    public Path getPath()
+    { return path; }
+
+    //Method for obtaining the attributes read when the file was located, null if it doesn't exist.
+    public BasicFileAttributes getAttributes()
+    { return attributes; }
+
+    //Method for checking whether the file is outside the root directory of the user.
+    public boolean isDenied()
+    { return entryPath == null; }
+
+    public boolean exists()
+    { return attributes != null; }
+
+    public boolean isFile()
+    { return attributes != null && attributes.isRegularFile(); }
+
+    public boolean isDirectory()
+    { return attributes != null && attributes.isDirectory(); }
+}
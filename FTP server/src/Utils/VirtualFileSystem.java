@@ -0,0 +1,34 @@
+/*
+    Interface for the file system seen by a session: every command locates its files through it.
+    The pathnames sent by the client are resolved against the working directory and confined to the root directory of the user,
+    and each located file carries its attributes, so a command reads them once and reuses them.
+*/
+public interface VirtualFileSystem
+{
+    /*
+        Method for locating a file.
+        Input:
+          1. the working directory of the session.
+          2. the pathname sent by the client, absolute (from the root directory of the user) or relative.
+        Return value:
+          1. the file, with its current attributes.
+    */
+    VirtualFile resolve(String workingDirectory, String pathname);
+
+    /*
+        Method for locating a file whose attributes may have been read a short time before (SIZE, MDTM).
+        Input:
+          1. the working directory of the session.
+          2. the pathname sent by the client.
+        Return value:
+          1. the file, with its attributes, possibly cached.
+    */
+    VirtualFile resolveCached(String workingDirectory, String pathname);
+
+    /*
+        Method for dropping what the file system remembers about a file renamed or deleted by the session.
+        Input:
+          1. the file.
+    */
+    void invalidate(VirtualFile file);
+}